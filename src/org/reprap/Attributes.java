@@ -29,6 +29,12 @@ public class Attributes {
 	 */
 	private BranchGroup part;
 	
+	/**
+	 * The corners of the triangles of this part (nine floats per triangle) in
+	 * the STLObject's coordinates; null if the part only exists in the scene graph
+	 */
+	private float[] vertices;
+	
 	/**
 	 * The appearance (colour) in the loading and simulation windows
 	 */
@@ -55,6 +61,7 @@ public class Attributes {
 		part = b;
 		app = a;
 		e = null;
+		vertices = null;
 	}
 	
 	/**
@@ -82,6 +89,11 @@ public class Attributes {
 	 */
 	public BranchGroup getPart() { return part; }
 	
+	/**
+	 * @return the corners of my triangles (null if I only have a scene graph)
+	 */
+	public float[] getVertices() { return vertices; }
+	
 	/**
 	 * @return what colour am I?
 	 */
@@ -125,6 +137,12 @@ public class Attributes {
 	 */
 	public void setPart(BranchGroup b) { part = b; }
 	
+	/**
+	 * Set the triangle corners of this part
+	 * @param v nine floats per triangle
+	 */
+	public void setVertices(float[] v) { vertices = v; }
+	
 	/**
 	 * New colour
 	 * @param a
@@ -0,0 +1,180 @@
+/*
+ * Created on Oct 18, 2026
+ *
+ */
+package org.reprap;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.media.j3d.Transform3D;
+import javax.vecmath.Vector3d;
+
+import org.reprap.devices.NullExtruder;
+import org.reprap.geometry.Producer;
+import org.reprap.gui.STLObject;
+import org.reprap.machines.GCodeWriter;
+import org.reprap.machines.NullCartesianMachine;
+
+/**
+ * Makes a job from STL files without the GUI, so it can be run in batch
+ * (on a build server, say).  No Swing windows, RepRapBuild or Java3D universe
+ * are created, and the simulation window's lower shell isn't built.
+ *
+ *   java -Djava.awt.headless=true -cp reprap.jar:... org.reprap.CommandLine
+ *       -o plate.gcode -material CAPA -at 10,10 bracket.stl -at 60,10 bracket.stl
+ *
+ * Options apply to the files after them:
+ *
+ *   -o file          write G-code to file ("stdout" for the standard output).
+ *                    Without this the job is run on the NullCartesianMachine
+ *                    just to see how long it would take and how much it would use.
+ *   -material name   what the files are made from (default: Extruder0's material)
+ *   -at x,y          put the bottom left of the next file at (x, y) mm
+ *                    (default: at the origin)
+ *   -geometry name   csg or scanline: how each layer is offset and hatched
+ *                    (default: the GeometryBackend preference).  This 
+ *                    applies to the whole job.
+ *
+ * The summary goes to the standard error so that G-code can go to the
+ * standard output.
+ */
+public class CommandLine {
+
+	/**
+	 * Static methods only
+	 */
+	private CommandLine() {}
+
+	public static void main(String[] args) {
+		Thread.currentThread().setName("Main");
+		int status;
+		try {
+			status = run(args);
+		} catch (Exception ex) {
+			System.err.println("CommandLine: " + ex);
+			ex.printStackTrace();
+			status = 1;
+		}
+		System.exit(status);
+	}
+
+	/**
+	 * Load the files and make them
+	 * @param args
+	 * @return exit status
+	 * @throws Exception
+	 */
+	private static int run(String[] args) throws Exception {
+		long start = System.currentTimeMillis();
+		Preferences prefs = Preferences.getGlobalPreferences();
+		String output = null;
+		String material = Preferences.allMaterials()[0];
+		Vector3d at = null;
+		List<STLObject> stls = new ArrayList<STLObject>();
+
+		for(int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if(arg.equals("-h") || arg.equals("-help")) {
+				usage();
+				return 0;
+			} else if(arg.startsWith("-") && i + 1 >= args.length) {
+				System.err.println("CommandLine: " + arg + " needs a value.");
+				usage();
+				return 1;
+			} else if(arg.equals("-o")) {
+				output = args[++i];
+			} else if(arg.equals("-material")) {
+				material = args[++i];
+				if(NullExtruder.getNumberFromMaterial(material) < 0) {
+					System.err.println("CommandLine: no extruder has material " + material);
+					return 1;
+				}
+			} else if(arg.equals("-geometry")) {
+				String backend = args[++i];
+				if(!backend.equalsIgnoreCase("csg") && !backend.equalsIgnoreCase("scanline")) {
+					System.err.println("CommandLine: -geometry wants csg or scanline not " + backend);
+					return 1;
+				}
+				Preferences.setGlobalString("GeometryBackend", backend);
+			} else if(arg.equals("-at")) {
+				at = position(args[++i]);
+				if(at == null) {
+					System.err.println("CommandLine: -at wants x,y not " + args[i]);
+					return 1;
+				}
+			} else if(arg.startsWith("-")) {
+				System.err.println("CommandLine: unknown option " + arg);
+				usage();
+				return 1;
+			} else {
+				STLObject stl = new STLObject();
+				if(stl.addSTL(arg, null, material) == null) {
+					System.err.println("CommandLine: can't load " + arg);
+					return 1;
+				}
+				if(at != null) {
+					Transform3D t = stl.getTransform();
+					Vector3d v = new Vector3d();
+					t.get(v);
+					v.add(at);
+					t.setTranslation(v);
+					stl.setTransform(t);
+				}
+				stls.add(stl);
+				at = null;
+			}
+		}
+
+		if(stls.size() <= 0) {
+			usage();
+			return 1;
+		}
+
+		// No one is going to look at the simulation (this doesn't get saved)
+
+		Preferences.setGlobalBool("DisplaySimulation", false);
+
+		Printer printer;
+		if(output == null)
+			printer = new NullCartesianMachine(prefs);
+		else {
+			Preferences.setGlobalString("Port(name)", output);
+			printer = new GCodeWriter(prefs);
+		}
+
+		Producer producer = new Producer(printer, stls);
+		producer.produce();
+
+		double moved = Math.round(producer.getTotalDistanceMoved() * 10.0) / 10.0;
+		double extruded = Math.round(producer.getTotalDistanceExtruded() * 10.0) / 10.0;
+		double extrudedVolume = Math.round(producer.getTotalVolumeExtruded() * 10.0) / 10.0;
+		producer.dispose();
+
+		System.err.println("Total distance travelled=" + moved +
+				"mm.  Total distance extruded=" + extruded +
+				"mm.  Total volume extruded=" + extrudedVolume +
+				"mm^3.  Elapsed time=" + (System.currentTimeMillis() - start)/1000.0 + "s");
+		return 0;
+	}
+
+	/**
+	 * @param s "x,y"
+	 * @return (x, y, 0), or null if s isn't that
+	 */
+	private static Vector3d position(String s) {
+		String[] xy = s.split(",");
+		if(xy.length != 2)
+			return null;
+		try {
+			return new Vector3d(Double.parseDouble(xy[0]), Double.parseDouble(xy[1]), 0);
+		} catch (NumberFormatException ex) {
+			return null;
+		}
+	}
+
+	private static void usage() {
+		System.err.println("Usage: org.reprap.CommandLine [-o file.gcode|stdout] " +
+				"[-material name] [-geometry csg|scanline] [-at x,y] file.stl ...");
+	}
+}
@@ -147,76 +147,6 @@ public class LayerProducer {
 	 */
 	private Rr2Point startNearHere = null;
 	
-	/**
-	 * Flag to prevent cyclic graphs going round forever
-	 */
-	private boolean beingDestroyed = false;
-	
-	/**
-	 * Destroy me and all that I point to
-	 */
-	public void destroy() 
-	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		
-		// Keep the lower shell - the graphics system is using it
-		
-		//lowerShell = null;
-
-		// Keep the printer; that's needed for the next layer
-
-		//printer = null;
-		
-		if(hatchedPolygons != null)
-			hatchedPolygons.destroy();
-		hatchedPolygons = null;
-		
-		if(borderPolygons != null)
-			borderPolygons.destroy();
-		borderPolygons = null;
-		
-		if(csgP != null)
-			csgP.destroy();
-		csgP = null;
-		
-		if(offBorder != null)
-			offBorder.destroy();
-		offBorder = null;
-		
-		if(offHatch != null)
-			offHatch.destroy();
-		offHatch = null;
-		
-		if(startNearHere != null)
-			startNearHere.destroy();
-		startNearHere = null;
-		beingDestroyed = false;
-	}
-	
-	/**
-	 * Destroy just me
-	 */
-	protected void finalize() throws Throwable
-	{
-		// Keep the lower shell - the graphics system is using it
-		
-		//lowerShell = null;
-
-		// Keep the printer; that's needed for the next layer
-
-		//printer = null;
-		
-		hatchedPolygons = null;
-		borderPolygons = null;
-		csgP = null;
-		offBorder = null;
-		offHatch = null;
-		startNearHere = null;
-		super.finalize();
-	}
-	
 		
 	/**
 	 * @param printer
@@ -399,14 +329,7 @@ public class LayerProducer {
 		}
 		// If the length of the plot is <0.05mm, don't bother with it.
 		// This will not spot an attempt to plot 10,000 points in 1mm.
-		double plotDist=0;
-		Rr2Point lastPoint=p.point(0);
-		for (int i=1; i<leng; i++)
-		{
-			Rr2Point n=p.point(i);
-			plotDist+=Rr2Point.d(lastPoint, n);
-			lastPoint=n;
-		}
+		double plotDist=p.length(false);
 		if (plotDist<Preferences.machineResolution()*0.5) {
 			Debug.d("Rejected line with "+leng+" points, length: "+plotDist);
 			startNearHere = null;
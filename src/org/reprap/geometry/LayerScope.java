@@ -0,0 +1,172 @@
+package org.reprap.geometry;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.List;
+
+import javax.media.j3d.BranchGroup;
+
+import org.reprap.geometry.polygons.RrCSGPolygonList;
+import org.reprap.geometry.polygons.STLSlice;
+import org.reprap.utilities.Debug;
+
+/**
+ * Everything made for one layer - the slice, the lower shell and the
+ * LayerProducer with all its offset and hatched polygons - hangs off one of
+ * these, and only off one of these.  When the layer is done close() lets go
+ * of the lot at once and the collector takes it away in one go; nothing has
+ * to be destroyed piece by piece, and no finalizers are needed.
+ *
+ * It also keeps count of the collections (and, where the JVM can tell us,
+ * the bytes allocated) while each layer was being made, which is put out
+ * with Debug.d.
+ */
+class LayerScope {
+
+	/**
+	 * This layer's slice
+	 */
+	RrCSGPolygonList slice = null;
+
+	/**
+	 * The simulation's lower shell under it
+	 */
+	BranchGroup lowerShell = null;
+
+	/**
+	 * What's making it
+	 */
+	LayerProducer layer = null;
+
+	/**
+	 * The slicer whose working state goes with the layer
+	 */
+	private STLSlice stlc;
+
+	/**
+	 * The garbage collectors, and com.sun.management.ThreadMXBean's
+	 * getThreadAllocatedBytes(long) if there is one
+	 */
+	private List<GarbageCollectorMXBean> collectors;
+	private ThreadMXBean threads;
+	private Method allocated = null;
+
+	/**
+	 * Counts when the layer was opened
+	 */
+	private int layerNumber = -1;
+	private long startCount, startTime, startBytes;
+
+	/**
+	 * Totals over all the layers so far
+	 */
+	private int layers = 0;
+	private long totalCount = 0, totalTime = 0, totalBytes = 0;
+	private long worstTime = 0;
+
+	/**
+	 * @param stlc the slicer the layers are cut by
+	 */
+	LayerScope(STLSlice stlc)
+	{
+		this.stlc = stlc;
+		collectors = ManagementFactory.getGarbageCollectorMXBeans();
+		threads = ManagementFactory.getThreadMXBean();
+		try
+		{
+			Class<?> sun = Class.forName("com.sun.management.ThreadMXBean");
+			if(sun.isInstance(threads))
+				allocated = sun.getMethod("getThreadAllocatedBytes", new Class<?>[] {long.class});
+		} catch (Exception ex)
+		{
+			allocated = null;
+		}
+	}
+
+	/**
+	 * Start a new layer
+	 * @param n its number
+	 */
+	void open(int n)
+	{
+		layerNumber = n;
+		startCount = gcCount();
+		startTime = gcTime();
+		startBytes = allocatedBytes();
+	}
+
+	/**
+	 * Finish the layer, dropping everything it made
+	 */
+	void close()
+	{
+		slice = null;
+		lowerShell = null;
+		layer = null;
+		stlc.destroyLayer();
+
+		if(layerNumber < 0)
+			return;
+		long count = gcCount() - startCount;
+		long time = gcTime() - startTime;
+		long bytes = allocatedBytes() - startBytes;
+		layers++;
+		totalCount += count;
+		totalTime += time;
+		totalBytes += bytes;
+		if(time > worstTime)
+			worstTime = time;
+		Debug.d("LayerScope: layer " + layerNumber + ": " + count + " collections, " +
+				time + "ms" + (allocated == null ? "" : ", " + bytes/1024 + "kB allocated"));
+		layerNumber = -1;
+	}
+
+	/**
+	 * @return what the collector did over all the layers so far
+	 */
+	String statistics()
+	{
+		String result = layers + " layers: " + totalCount + " collections taking " + totalTime +
+			"ms (worst layer " + worstTime + "ms)";
+		if(allocated != null && layers > 0)
+			result += ", " + totalBytes/(1024*1024) + "MB allocated (" +
+				totalBytes/(1024*layers) + "kB per layer)";
+		return result;
+	}
+
+	private long gcCount()
+	{
+		long result = 0;
+		for(int i = 0; i < collectors.size(); i++)
+			result += Math.max(0, collectors.get(i).getCollectionCount());
+		return result;
+	}
+
+	private long gcTime()
+	{
+		long result = 0;
+		for(int i = 0; i < collectors.size(); i++)
+			result += Math.max(0, collectors.get(i).getCollectionTime());
+		return result;
+	}
+
+	/**
+	 * @return bytes allocated by this thread so far (0 if we can't tell)
+	 */
+	private long allocatedBytes()
+	{
+		if(allocated == null)
+			return 0;
+		try
+		{
+			return ((Long)allocated.invoke(threads,
+					new Object[] {Long.valueOf(Thread.currentThread().getId())})).longValue();
+		} catch (Exception ex)
+		{
+			allocated = null;
+			return 0;
+		}
+	}
+}
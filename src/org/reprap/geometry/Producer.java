@@ -1,5 +1,6 @@
 package org.reprap.geometry;
 
+import java.util.List;
 import javax.media.j3d.*;
 import javax.swing.JCheckBoxMenuItem;
 import org.reprap.Preferences;
@@ -7,6 +8,7 @@ import org.reprap.Printer;
 import org.reprap.geometry.polygons.*;
 import org.reprap.gui.PreviewPanel;
 import org.reprap.gui.RepRapBuild;
+import org.reprap.gui.STLObject;
 import org.reprap.machines.MachineFactory;
 import org.reprap.machines.NullCartesianMachine;
 import org.reprap.utilities.Debug;
@@ -32,7 +34,13 @@ public class Producer {
 	/**
 	 * The list of objects to be built
 	 */
-	protected RepRapBuild bld;
+	protected RepRapBuild bld = null;
+	
+	/**
+	 * The objects to be built when there is no RepRapBuild (for
+	 * example when running from the command line)
+	 */
+	protected List<STLObject> objects = null;
 
 	
 	/**
@@ -47,7 +55,43 @@ public class Producer {
 		if(preview != null)
 			preview.setMachine(reprap);
 		bld = builder;
-
+		setHatchDirections();
+	}
+	
+	/**
+	 * Make things without the GUI
+	 * @param printer the machine (or G-code file etc) to make them on
+	 * @param stls the objects, already in place
+	 */
+	public Producer(Printer printer, List<STLObject> stls)
+	{
+		reprap = printer;
+		objects = stls;
+		setHatchDirections();
+	}
+	
+	/**
+	 * Set up the directions to hatch alternate layers in
+	 */
+	private void setHatchDirections()
+	{
+		// Odd layers are hatched at this angle to the X axis, even ones at right
+		// angles to it.  The hatcher sweeps at any angle.
+		double angle = 45;
+		try
+		{
+			angle = Preferences.loadGlobalDouble("HatchAngle(degrees)");
+		} catch (Exception e)
+		{}
+		if(angle != 45)
+		{
+			double c = Math.cos(Math.toRadians(angle));
+			double s = Math.sin(Math.toRadians(angle));
+			oddHatchDirection = new RrHalfPlane(new Rr2Point(0.0, 0.0), new Rr2Point(c, s));
+			evenHatchDirection = new RrHalfPlane(new Rr2Point(0.0, 0.0), new Rr2Point(s, -c));
+			return;
+		}
+		
 		//		Original hatch vectors
 		oddHatchDirection = new RrHalfPlane(new Rr2Point(0.0, 0.0), new Rr2Point(1.0, 1.0));
 		evenHatchDirection = new RrHalfPlane(new Rr2Point(0.0, 1.0), new Rr2Point(1.0, 0.0));
@@ -100,6 +144,8 @@ public class Producer {
 		int movementSpeedZ;
 		boolean subtractive;
 		boolean interLayerCooling;
+		boolean parallelSlicing = false;
+		int slicingThreads = 0;
 		
 		try {
 			subtractive = Preferences.loadGlobalBool("Subtractive");
@@ -117,6 +163,13 @@ public class Producer {
 			System.err.println("Warning: could not load InterLayerCooling flag, using default");
 		}
 		
+		try {
+			parallelSlicing = Preferences.loadGlobalBool("ParallelSlicing");
+			slicingThreads = Preferences.loadGlobalInt("SlicingThreads");
+		} catch (Exception ex) {
+			System.err.println("Warning: could not load ParallelSlicing and/or SlicingThreads, using default");
+		}
+		
 		reprap.setSpeedZ(movementSpeedZ);
 		Debug.d("Intialising reprap");
 		reprap.initialise();
@@ -160,8 +213,12 @@ public class Producer {
 		STLSlice stlc;
 		double zMax;
 
-		bld.mouseToWorld();
-		stlc = new STLSlice(bld.getSTLs());
+		if(bld != null)
+		{
+			bld.mouseToWorld();
+			objects = bld.getSTLs();
+		}
+		stlc = new STLSlice(objects);
 		zMax = stlc.maxZ();
 
 		double startZ;
@@ -185,7 +242,24 @@ public class Producer {
 		
 		}
 		
+		// If we're allowed, slice the layers ahead of the machine on several threads
+		
+		ParallelSlicer slicer = null;
+		if(parallelSlicing)
+		{
+			int layerCount = 0;
+			for(double z = startZ; subtractive ? z > endZ : z < endZ; z += stepZ)
+				layerCount++;
+			double[] heights = new double[layerCount];
+			layerCount = 0;
+			for(double z = startZ; subtractive ? z > endZ : z < endZ; z += stepZ)
+				heights[layerCount++] = z;
+			slicer = new ParallelSlicer(stlc, heights, 
+					reprap.getExtruder().getExtrusionHeight()*0.5, slicingThreads);
+		}
+		
 		int layerNumber = 0;
+		LayerScope scope = new LayerScope(stlc);
 		
 		for(double z = startZ; subtractive ? z > endZ : z < endZ; z += stepZ) {
 			
@@ -207,12 +281,27 @@ public class Producer {
 				reprap.betweenLayers(layerNumber);
 			}
 			
-			RrCSGPolygonList slice = stlc.slice(z+reprap.getExtruder().getExtrusionHeight()*0.5); 
-			BranchGroup lowerShell = stlc.getBelow();
+			// Everything made for this layer hangs off the scope, and goes
+			// when it's closed
 			
-			LayerProducer layer = null;
-			if(slice.size() > 0)
-				layer = new LayerProducer(reprap, z, slice, lowerShell,
+			scope.open(layerNumber);
+			double sliceOffset = reprap.getExtruder().getExtrusionHeight()*0.5;
+			
+			// The slicer has the same heights as this loop; it adds the offset for the
+			// current extruder (and starts again from here if that has changed).
+			
+			if(slicer != null && slicer.hasNext())
+			{
+				scope.slice = slicer.next(sliceOffset);
+				scope.lowerShell = slicer.getBelow();
+			} else
+			{
+				scope.slice = stlc.slice(z + sliceOffset); 
+				scope.lowerShell = stlc.getBelow();
+			}
+			
+			if(scope.slice.size() > 0)
+				scope.layer = new LayerProducer(reprap, z, scope.slice, scope.lowerShell,
 						isEvenLayer?evenHatchDirection:oddHatchDirection, 
 								layerNumber, endZ);
 			
@@ -223,20 +312,21 @@ public class Producer {
 			if (reprap.isCancelled())
 				break;
 			
-			if(layer != null)
-			{
-				layer.plot();
-				layer.destroy();
-			}
-			layer = null;
+			if(scope.layer != null)
+				scope.layer.plot();
 			
-			slice.destroy();
-			stlc.destroyLayer();
+			scope.close();
 
 			isEvenLayer = !isEvenLayer;
 
 			layerNumber++;
 		}
+		
+		scope.close();
+		if(slicer != null)
+			slicer.shutdown();
+		Debug.d("Producer.produce(): " + STLSlice.slicingStatistics());
+		Debug.d("Producer.produce(): " + scope.statistics());
 
 		if (subtractive)
 			reprap.moveTo(0, 0, startZ, true, true);
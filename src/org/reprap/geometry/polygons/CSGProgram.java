@@ -0,0 +1,395 @@
+/*
+ 
+ RepRap
+ ------
+ 
+ The Replicating Rapid Prototyper Project
+ 
+ 
+ Copyright (C) 2005
+ Adrian Bowyer & The University of Bath
+ 
+ http://reprap.org
+ 
+ Principal author:
+ 
+ Adrian Bowyer
+ Department of Mechanical Engineering
+ Faculty of Engineering and Design
+ University of Bath
+ Bath BA2 7AY
+ U.K.
+ 
+ e-mail: A.Bowyer@bath.ac.uk
+ 
+ RepRap is free; you can redistribute it and/or
+ modify it under the terms of the GNU Library General Public
+ Licence as published by the Free Software Foundation; either
+ version 2 of the Licence, or (at your option) any later version.
+ 
+ RepRap is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Library General Public Licence for more details.
+ 
+ For this purpose the words "software" and "library" in the GNU Library
+ General Public Licence are taken to mean any and all computer programs
+ computer files data results documents and other copyright information
+ available from the RepRap project.
+ 
+ You should have received a copy of the GNU Library General Public
+ Licence along with RepRap; if not, write to the Free
+ Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA,
+ or see
+ 
+ http://www.gnu.org/
+ 
+ =====================================================================
+ 
+ CSGProgram: an RrCSG expression flattened into postfix for fast evaluation
+ 
+ First version 18 October 2026
+ 
+ */
+
+package org.reprap.geometry.polygons;
+
+/**
+ * An RrCSG tree turned into a flat postfix program: the leaves' half-planes
+ * are held as three arrays of doubles (the potential of (x, y) is 
+ * c + (a*x + b*y)) and the operators are bytes.  Points and boxes are
+ * evaluated by running down the program with a stack, so there is no
+ * recursion and nothing is allocated.  The answers are exactly those of
+ * RrCSG.value() and RrCSG.prune(); the arithmetic is done in the same order.
+ * 
+ * Compile once, then evaluate many times.  The stacks belong to the program,
+ * so a program must only be used by one thread at a time.
+ */
+class CSGProgram
+{
+	/**
+	 * Instruction codes
+	 */
+	private static final byte LEAF = 0;
+	private static final byte NULL = 1;
+	private static final byte UNIVERSE = 2;
+	private static final byte UNION = 3;
+	private static final byte INTERSECTION = 4;
+	
+	/**
+	 * The instructions, in the order they are executed
+	 */
+	private byte[] code;
+	
+	/**
+	 * For leaf instructions, the half-plane's normal (a, b) and offset c
+	 */
+	private double[] a, b, c;
+	
+	/**
+	 * The tree node each instruction came from (prune() needs them)
+	 */
+	private RrCSG[] nodes;
+	
+	/**
+	 * Working stacks; as deep as the program ever needs
+	 */
+	private double[] lows, highs;
+	private RrCSG[] sets;
+	
+	/**
+	 * The interval of the last box evaluated
+	 */
+	private double low, high;
+	
+	/**
+	 * Flatten a tree
+	 * @param csg
+	 */
+	CSGProgram(RrCSG csg)
+	{
+		// Pop a node, record it, push its children: that gives the nodes
+		// in exactly the reverse of the order they must be evaluated in.
+		
+		int n = 2*csg.complexity() + 1;
+		nodes = new RrCSG[n];
+		RrCSG[] pending = new RrCSG[n];
+		int count = 0, top = 0;
+		pending[top++] = csg;
+		while(top > 0)
+		{
+			RrCSG node = pending[--top];
+			pending[top] = null;
+			if(count >= nodes.length)
+				nodes = grow(nodes);
+			nodes[count++] = node;
+			RrCSGOp op = node.operator();
+			if(op == RrCSGOp.UNION || op == RrCSGOp.INTERSECTION)
+			{
+				if(top + 2 > pending.length)
+					pending = grow(pending);
+				pending[top++] = node.c_1();
+				pending[top++] = node.c_2();
+			}
+		}
+		
+		code = new byte[count];
+		a = new double[count];
+		b = new double[count];
+		c = new double[count];
+		RrCSG[] ordered = new RrCSG[count];
+		int depth = 0, maxDepth = 1;
+		for(int i = 0; i < count; i++)
+		{
+			RrCSG node = nodes[count - 1 - i];
+			ordered[i] = node;
+			switch(node.operator())
+			{
+			case LEAF:
+				code[i] = LEAF;
+				RrHalfPlane hp = node.plane();
+				a[i] = hp.normal().x();
+				b[i] = hp.normal().y();
+				c[i] = hp.offset();
+				depth++;
+				break;
+				
+			case NULL:
+				code[i] = NULL;
+				depth++;
+				break;
+				
+			case UNIVERSE:
+				code[i] = UNIVERSE;
+				depth++;
+				break;
+				
+			case UNION:
+				code[i] = UNION;
+				depth--;
+				break;
+				
+			case INTERSECTION:
+				code[i] = INTERSECTION;
+				depth--;
+				break;
+				
+			default:
+				System.err.println("CSGProgram(): dud operator.");
+			}
+			if(depth > maxDepth)
+				maxDepth = depth;
+		}
+		nodes = ordered;
+		lows = new double[maxDepth];
+		highs = new double[maxDepth];
+		sets = new RrCSG[maxDepth];
+	}
+	
+	private static RrCSG[] grow(RrCSG[] r)
+	{
+		RrCSG[] bigger = new RrCSG[2*r.length];
+		System.arraycopy(r, 0, bigger, 0, r.length);
+		return bigger;
+	}
+	
+	/**
+	 * @return the number of instructions
+	 */
+	int size() { return code.length; }
+	
+	/**
+	 * "Potential" value of a point, as RrCSG.value(Rr2Point)
+	 * @param p
+	 * @return -ve inside; 0 on the surface; +ve outside
+	 */
+	double value(Rr2Point p)
+	{
+		return value(p.x(), p.y());
+	}
+	
+	/**
+	 * "Potential" value of the point (x, y)
+	 * @param x
+	 * @param y
+	 * @return -ve inside; 0 on the surface; +ve outside
+	 */
+	double value(double x, double y)
+	{
+		double[] stack = lows;
+		int top = 0;
+		for(int i = 0; i < code.length; i++)
+		{
+			switch(code[i])
+			{
+			case LEAF:
+				stack[top++] = c[i] + (a[i]*x + b[i]*y);
+				break;
+				
+			case NULL:
+				stack[top++] = 1;
+				break;
+				
+			case UNIVERSE:
+				stack[top++] = -1;
+				break;
+				
+			case UNION:
+				top--;
+				stack[top - 1] = Math.min(stack[top - 1], stack[top]);
+				break;
+				
+			case INTERSECTION:
+				top--;
+				stack[top - 1] = Math.max(stack[top - 1], stack[top]);
+				break;
+			}
+		}
+		return stack[0];
+	}
+	
+	/**
+	 * The interval value of a box, as RrCSG.value(RrBox).  The 
+	 * answer is then in low() and high().
+	 * @param box
+	 */
+	void value(RrBox box)
+	{
+		double xl = box.x().low(), xh = box.x().high();
+		double yl = box.y().low(), yh = box.y().high();
+		int top = 0;
+		for(int i = 0; i < code.length; i++)
+		{
+			switch(code[i])
+			{
+			case LEAF:
+				leaf(i, xl, xh, yl, yh);
+				lows[top] = low;
+				highs[top] = high;
+				top++;
+				break;
+				
+			case NULL:
+				lows[top] = 1;
+				highs[top] = 1.01;
+				top++;
+				break;
+				
+			case UNIVERSE:
+				lows[top] = -1.01;
+				highs[top] = -1;
+				top++;
+				break;
+				
+			case UNION:
+				top--;
+				if(lows[top] < lows[top - 1])
+					lows[top - 1] = lows[top];
+				if(highs[top] < highs[top - 1])
+					highs[top - 1] = highs[top];
+				break;
+				
+			case INTERSECTION:
+				top--;
+				if(lows[top] > lows[top - 1])
+					lows[top - 1] = lows[top];
+				if(highs[top] > highs[top - 1])
+					highs[top - 1] = highs[top];
+				break;
+			}
+		}
+		low = lows[0];
+		high = highs[0];
+	}
+	
+	/**
+	 * @return the bottom of the interval from value(RrBox)
+	 */
+	double low() { return low; }
+	
+	/**
+	 * @return the top of the interval from value(RrBox)
+	 */
+	double high() { return high; }
+	
+	/**
+	 * Prune the set to a box, as RrCSG.prune(RrBox)
+	 * @param box
+	 * @return the pruned set
+	 */
+	RrCSG prune(RrBox box)
+	{
+		double xl = box.x().low(), xh = box.x().high();
+		double yl = box.y().low(), yh = box.y().high();
+		int top = 0;
+		for(int i = 0; i < code.length; i++)
+		{
+			switch(code[i])
+			{
+			case LEAF:
+				leaf(i, xl, xh, yl, yh);
+				if(low > high)
+				{
+					System.err.println("RrCSG.prune(RrBox): empty interval!");
+					sets[top++] = nodes[i];
+				} else if(high < 0)
+					sets[top++] = RrCSG.universe();
+				else if(low >= 0)
+					sets[top++] = RrCSG.nothing();
+				else
+					sets[top++] = nodes[i];
+				break;
+				
+			case NULL:
+			case UNIVERSE:
+				sets[top++] = nodes[i];
+				break;
+				
+			case UNION:
+			case INTERSECTION:
+				top--;
+				sets[top - 1] = nodes[i].rebuild(sets[top - 1], sets[top]);
+				sets[top] = null;
+				break;
+			}
+		}
+		RrCSG result = sets[0];
+		sets[0] = null;
+		return result;
+	}
+	
+	/**
+	 * The potential interval of instruction i's half-plane over a box
+	 * (as RrHalfPlane.value(RrBox)), left in low and high.
+	 * @param i
+	 * @param xl
+	 * @param xh
+	 * @param yl
+	 * @param yh
+	 */
+	private void leaf(int i, double xl, double xh, double yl, double yh)
+	{
+		double ai = a[i], bi = b[i];
+		double l, h;
+		if(ai > 0)
+		{
+			l = xl*ai;
+			h = xh*ai;
+		} else
+		{
+			l = xh*ai;
+			h = xl*ai;
+		}
+		if(bi > 0)
+		{
+			l = l + yl*bi;
+			h = h + yh*bi;
+		} else
+		{
+			l = l + yh*bi;
+			h = h + yl*bi;
+		}
+		low = l + c[i];
+		high = h + c[i];
+	}
+}
@@ -0,0 +1,90 @@
+/*
+ 
+ RepRap
+ ------
+ 
+ The Replicating Rapid Prototyper Project
+ 
+ 
+ Copyright (C) 2005
+ Adrian Bowyer & The University of Bath
+ 
+ http://reprap.org
+ 
+ Principal author:
+ 
+ Adrian Bowyer
+ Department of Mechanical Engineering
+ Faculty of Engineering and Design
+ University of Bath
+ Bath BA2 7AY
+ U.K.
+ 
+ e-mail: A.Bowyer@bath.ac.uk
+ 
+ RepRap is free; you can redistribute it and/or
+ modify it under the terms of the GNU Library General Public
+ Licence as published by the Free Software Foundation; either
+ version 2 of the Licence, or (at your option) any later version.
+ 
+ RepRap is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Library General Public Licence for more details.
+ 
+ For this purpose the words "software" and "library" in the GNU Library
+ General Public Licence are taken to mean any and all computer programs
+ computer files data results documents and other copyright information
+ available from the RepRap project.
+ 
+ You should have received a copy of the GNU Library General Public
+ Licence along with RepRap; if not, write to the Free
+ Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA,
+ or see
+ 
+ http://www.gnu.org/
+ 
+ =====================================================================
+ 
+ DaemonThreads: names the threads of the geometry pools, and lets the program exit
+ 
+ First version 18 October 2026
+ 
+ */
+
+package org.reprap.geometry.polygons;
+
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Makes the threads for the slicing and division pools.  They are daemons,
+ * so an idle pool doesn't hold up the program exiting, and they are named
+ * (prefix-0, prefix-1...) so they can be told apart in a thread dump.
+ */
+class DaemonThreads implements ThreadFactory
+{
+	/**
+	 * What the threads are called
+	 */
+	private String prefix;
+	
+	/**
+	 * How many so far
+	 */
+	private int count = 0;
+	
+	/**
+	 * @param prefix
+	 */
+	DaemonThreads(String prefix)
+	{
+		this.prefix = prefix;
+	}
+	
+	public synchronized Thread newThread(Runnable r)
+	{
+		Thread t = new Thread(r, prefix + "-" + count++);
+		t.setDaemon(true);  // Don't hold up the program exiting
+		return t;
+	}
+}
@@ -0,0 +1,224 @@
+/*
+ 
+ RepRap
+ ------
+ 
+ The Replicating Rapid Prototyper Project
+ 
+ 
+ Copyright (C) 2005
+ Adrian Bowyer & The University of Bath
+ 
+ http://reprap.org
+ 
+ Principal author:
+ 
+ Adrian Bowyer
+ Department of Mechanical Engineering
+ Faculty of Engineering and Design
+ University of Bath
+ Bath BA2 7AY
+ U.K.
+ 
+ e-mail: A.Bowyer@bath.ac.uk
+ 
+ RepRap is free; you can redistribute it and/or
+ modify it under the terms of the GNU Library General Public
+ Licence as published by the Free Software Foundation; either
+ version 2 of the Licence, or (at your option) any later version.
+ 
+ RepRap is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Library General Public Licence for more details.
+ 
+ For this purpose the words "software" and "library" in the GNU Library
+ General Public Licence are taken to mean any and all computer programs
+ computer files data results documents and other copyright information
+ available from the RepRap project.
+ 
+ You should have received a copy of the GNU Library General Public
+ Licence along with RepRap; if not, write to the Free
+ Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA,
+ or see
+ 
+ http://www.gnu.org/
+ 
+ =====================================================================
+ 
+ GridSegments: slice line segments with their ends as whole numbers of grid steps
+ 
+ First version 18 October 2026
+ 
+ */
+
+package org.reprap.geometry.polygons;
+
+import org.reprap.Attributes;
+import org.reprap.Preferences;
+
+/**
+ * The line segments where a plane cuts a set of triangles.  STLSlice clicks
+ * every end onto the Preferences.grid(), so each end is held here as a pair
+ * of ints counting grid steps from the origin, in one flat array (ax, ay, bx, by
+ * for each segment).  Two ends are in the same place if and only if their
+ * numbers are equal; there's no tolerance and nothing is boxed.  The same
+ * object is reused, layer after layer.
+ * 
+ * End 2i is the a end of segment i; end 2i + 1 is its b end.
+ */
+class GridSegments
+{
+	/**
+	 * The ends: ax, ay, bx, by of each segment in turn
+	 */
+	private int[] ends = new int[256];
+	
+	/**
+	 * The attributes (i.e. material) of each segment
+	 */
+	private Attributes[] atts = new Attributes[64];
+	
+	/**
+	 * How many segments
+	 */
+	private int count = 0;
+	
+	/**
+	 * Click a coordinate onto the grid, just as STLSlice.toGrid() always 
+	 * has: adding a half and casting rounds positive coordinates to the
+	 * nearest grid step, but any below minus half a step come out one
+	 * step too high.
+	 * @param x
+	 * @return the grid step
+	 */
+	static int toGrid(double x)
+	{
+		return (int)(x*Preferences.grid() + 0.5);
+	}
+	
+	/**
+	 * @param g grid steps
+	 * @return the coordinate
+	 */
+	static double fromGrid(int g)
+	{
+		return (double)g*Preferences.gridRes();
+	}
+	
+	/**
+	 * Pack a grid point into a single number; equal points give equal numbers.
+	 * @param x
+	 * @param y
+	 * @return the key
+	 */
+	static long key(int x, int y)
+	{
+		return ((long)x << 32) | (y & 0xffffffffL);
+	}
+	
+	/**
+	 * @param key
+	 * @return the x grid step of a packed point
+	 */
+	static int keyX(long key)
+	{
+		return (int)(key >> 32);
+	}
+	
+	/**
+	 * @param key
+	 * @return the y grid step of a packed point
+	 */
+	static int keyY(long key)
+	{
+		return (int)key;
+	}
+	
+	/**
+	 * Add a segment.  Ones that start and end in the same place are dropped.
+	 * @param ax
+	 * @param ay
+	 * @param bx
+	 * @param by
+	 * @param att
+	 */
+	void add(int ax, int ay, int bx, int by, Attributes att)
+	{
+		if(ax == bx && ay == by)
+			return;
+		if(4*count + 4 > ends.length)
+		{
+			int[] bigger = new int[2*ends.length];
+			System.arraycopy(ends, 0, bigger, 0, 4*count);
+			ends = bigger;
+		}
+		if(count + 1 > atts.length)
+		{
+			Attributes[] bigger = new Attributes[2*atts.length];
+			System.arraycopy(atts, 0, bigger, 0, count);
+			atts = bigger;
+		}
+		int i = 4*count;
+		ends[i] = ax;
+		ends[i+1] = ay;
+		ends[i+2] = bx;
+		ends[i+3] = by;
+		atts[count] = att;
+		count++;
+	}
+	
+	/**
+	 * Forget all the segments (but keep the space)
+	 */
+	void clear()
+	{
+		for(int i = 0; i < count; i++)
+			atts[i] = null;
+		count = 0;
+	}
+	
+	/**
+	 * @return how many segments
+	 */
+	int size()
+	{
+		return count;
+	}
+	
+	/**
+	 * @param e
+	 * @return the x grid step of end e
+	 */
+	int x(int e)
+	{
+		return ends[2*e];
+	}
+	
+	/**
+	 * @param e
+	 * @return the y grid step of end e
+	 */
+	int y(int e)
+	{
+		return ends[2*e + 1];
+	}
+	
+	/**
+	 * @param s
+	 * @return the attributes of segment s
+	 */
+	Attributes attributes(int s)
+	{
+		return atts[s];
+	}
+	
+	/**
+	 * @param e
+	 * @return end e as a point
+	 */
+	Rr2Point point(int e)
+	{
+		return new Rr2Point(fromGrid(x(e)), fromGrid(y(e)));
+	}
+}
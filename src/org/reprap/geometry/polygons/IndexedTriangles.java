@@ -0,0 +1,267 @@
+/*
+ 
+ RepRap
+ ------
+ 
+ The Replicating Rapid Prototyper Project
+ 
+ 
+ Copyright (C) 2005
+ Adrian Bowyer & The University of Bath
+ 
+ http://reprap.org
+ 
+ Principal author:
+ 
+ Adrian Bowyer
+ Department of Mechanical Engineering
+ Faculty of Engineering and Design
+ University of Bath
+ Bath BA2 7AY
+ U.K.
+ 
+ e-mail: A.Bowyer@bath.ac.uk
+ 
+ RepRap is free; you can redistribute it and/or
+ modify it under the terms of the GNU Library General Public
+ Licence as published by the Free Software Foundation; either
+ version 2 of the Licence, or (at your option) any later version.
+ 
+ RepRap is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Library General Public Licence for more details.
+ 
+ For this purpose the words "software" and "library" in the GNU Library
+ General Public Licence are taken to mean any and all computer programs
+ computer files data results documents and other copyright information
+ available from the RepRap project.
+ 
+ You should have received a copy of the GNU Library General Public
+ Licence along with RepRap; if not, write to the Free
+ Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA,
+ or see
+ 
+ http://www.gnu.org/
+ 
+ =====================================================================
+ 
+ IndexedTriangles: the triangles of all the objects made from one material
+ 
+ First version 18 October 2026
+ 
+ */
+
+package org.reprap.geometry.polygons;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.Transform3D;
+import javax.vecmath.Point3d;
+import org.reprap.Attributes;
+
+/**
+ * All the triangles of the objects made from one material, baked into
+ * a single buffer of world coordinates (nine doubles per triangle: x, y, z
+ * of each corner in turn) when the STLSlice is constructed.  Slicing
+ * then reads straight from that buffer without going back to the Java3D
+ * scene graph.  The Z extents of the triangles are also indexed
+ * so that a slice only has to visit the triangles it cuts.
+ * @author ensab
+ *
+ */
+class IndexedTriangles
+{
+	/**
+	 * The attributes of the shapes the triangles come from
+	 */
+	private List<Attributes> attributes = null;
+
+	/**
+	 * For each triangle, the shape it's in
+	 */
+	private int[] shape = null;
+
+	/**
+	 * The transformed corners of the triangles
+	 */
+	private double[] coords = null;
+
+	/**
+	 * Z extent of each triangle
+	 */
+	private double[] zMin = null, zMax = null;
+
+	/**
+	 * How many triangles
+	 */
+	private int count;
+
+	/**
+	 * The index of the Z extents
+	 */
+	private TriangleZIndex index = null;
+	
+	/**
+	 * The triangles welded into a mesh, if wanted
+	 */
+	private TriangleMesh mesh = null;
+
+	public IndexedTriangles()
+	{
+		attributes = new ArrayList<Attributes>();
+		count = 0;
+		shape = new int[16];
+		coords = new double[16*9];
+		zMin = new double[16];
+		zMax = new double[16];
+	}
+
+	/**
+	 * Transform all the triangles in a Shape3D into world
+	 * coordinates and record them
+	 * @param g the shape's geometry
+	 * @param trans its transform
+	 * @param att its attributes
+	 */
+	public void add(GeometryArray g, Transform3D trans, Attributes att)
+	{
+		if(g == null)
+			return;
+		if(g.getVertexCount()%3 != 0)
+			System.err.println("IndexedTriangles.add(): shape3D with vertices not a multiple of 3!");
+
+		int s = attributes.size();
+		attributes.add(att);
+
+		Point3d p = new Point3d();
+		for(int i = 0; i + 2 < g.getVertexCount(); i+=3)
+		{
+			if(count >= shape.length)
+				grow();
+			int c = count*9;
+			double lo = Double.POSITIVE_INFINITY;
+			double hi = Double.NEGATIVE_INFINITY;
+			for(int j = 0; j < 3; j++)
+			{
+				g.getCoordinate(i + j, p);
+				trans.transform(p);
+				coords[c++] = p.x;
+				coords[c++] = p.y;
+				coords[c++] = p.z;
+				lo = Math.min(lo, p.z);
+				hi = Math.max(hi, p.z);
+			}
+			shape[count] = s;
+			zMin[count] = lo;
+			zMax[count] = hi;
+			count++;
+		}
+	}
+
+	/**
+	 * Transform triangle corners held as floats into world coordinates and record them
+	 * @param v nine floats per triangle
+	 * @param trans their transform
+	 * @param att their attributes
+	 */
+	public void add(float[] v, Transform3D trans, Attributes att)
+	{
+		int s = attributes.size();
+		attributes.add(att);
+
+		Point3d p = new Point3d();
+		for(int i = 0; i + 8 < v.length; i+=9)
+		{
+			if(count >= shape.length)
+				grow();
+			int c = count*9;
+			double lo = Double.POSITIVE_INFINITY;
+			double hi = Double.NEGATIVE_INFINITY;
+			for(int j = 0; j < 9; j+=3)
+			{
+				p.set(v[i+j], v[i+j+1], v[i+j+2]);
+				trans.transform(p);
+				coords[c++] = p.x;
+				coords[c++] = p.y;
+				coords[c++] = p.z;
+				lo = Math.min(lo, p.z);
+				hi = Math.max(hi, p.z);
+			}
+			shape[count] = s;
+			zMin[count] = lo;
+			zMax[count] = hi;
+			count++;
+		}
+	}
+
+	/**
+	 * Make room for more triangles
+	 */
+	private void grow()
+	{
+		int n = 2*shape.length;
+		int[] ia = new int[n];
+		System.arraycopy(shape, 0, ia, 0, count);
+		shape = ia;
+		double[] da = new double[n*9];
+		System.arraycopy(coords, 0, da, 0, count*9);
+		coords = da;
+		da = new double[n];
+		System.arraycopy(zMin, 0, da, 0, count);
+		zMin = da;
+		da = new double[n];
+		System.arraycopy(zMax, 0, da, 0, count);
+		zMax = da;
+	}
+
+	/**
+	 * Build the Z index.  Call this after all the triangles have been added.
+	 */
+	public void buildIndex()
+	{
+		index = new TriangleZIndex(zMin, zMax, count);
+	}
+
+	/**
+	 * @return the Z index
+	 */
+	public TriangleZIndex index() { return index; }
+	
+	/**
+	 * Weld the triangles' corners together and find their neighbours
+	 * @param name what to call them in reports
+	 */
+	public void buildMesh(String name)
+	{
+		mesh = new TriangleMesh(coords, count, name);
+	}
+	
+	/**
+	 * @return the welded mesh (null if buildMesh() hasn't been called)
+	 */
+	public TriangleMesh mesh() { return mesh; }
+	
+	/**
+	 * @return a new sweep through these triangles (call buildIndex() first)
+	 */
+	public TriangleSweep sweep() { return new TriangleSweep(zMin, zMax, count, index); }
+
+	/**
+	 * @return the number of triangles
+	 */
+	public int size() { return count; }
+
+	/**
+	 * @param t
+	 * @return the attributes of triangle t
+	 */
+	public Attributes attributes(int t) { return attributes.get(shape[t]); }
+
+	/**
+	 * The corners of triangle t start at coordinates()[9*t]
+	 * @return the coordinate buffer
+	 */
+	public double[] coordinates() { return coords; }
+}
@@ -0,0 +1,377 @@
+/*
+ 
+ RepRap
+ ------
+ 
+ The Replicating Rapid Prototyper Project
+ 
+ 
+ Copyright (C) 2005
+ Adrian Bowyer & The University of Bath
+ 
+ http://reprap.org
+ 
+ Principal author:
+ 
+ Adrian Bowyer
+ Department of Mechanical Engineering
+ Faculty of Engineering and Design
+ University of Bath
+ Bath BA2 7AY
+ U.K.
+ 
+ e-mail: A.Bowyer@bath.ac.uk
+ 
+ RepRap is free; you can redistribute it and/or
+ modify it under the terms of the GNU Library General Public
+ Licence as published by the Free Software Foundation; either
+ version 2 of the Licence, or (at your option) any later version.
+ 
+ RepRap is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Library General Public Licence for more details.
+ 
+ For this purpose the words "software" and "library" in the GNU Library
+ General Public Licence are taken to mean any and all computer programs
+ computer files data results documents and other copyright information
+ available from the RepRap project.
+ 
+ You should have received a copy of the GNU Library General Public
+ Licence along with RepRap; if not, write to the Free
+ Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA,
+ or see
+ 
+ http://www.gnu.org/
+ 
+ =====================================================================
+ 
+ LowerShell: the part of one material's STL below the slice plane, built
+ up layer by layer for the simulation window
+ 
+ First version 18 October 2026
+ 
+ */
+
+package org.reprap.geometry.polygons;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.media.j3d.Appearance;
+import javax.media.j3d.BranchGroup;
+import javax.media.j3d.GeometryArray;
+import javax.media.j3d.Shape3D;
+import javax.media.j3d.TriangleArray;
+
+/**
+ * The triangulation of one material's objects below the current slice height, 
+ * for the simulation window.  Triangles that lie wholly below the plane never 
+ * change once they are there, so as the slice moves up they are added a band at
+ * a time (in zMax order from the TriangleZIndex) to geometry that is kept and shared
+ * between the BranchGroups of successive layers.  Only the bits of the triangles 
+ * that the plane actually cuts (the fringe) are rebuilt for each layer.
+ * 
+ * Normals are the facet normals, worked out once per triangle.  If the slice 
+ * moves down (as in subtractive jobs) everything is built again from scratch.
+ */
+class LowerShell
+{
+	/**
+	 * The corners of the triangles and their Z index
+	 */
+	private double[] c = null;
+	private TriangleZIndex zi = null;
+	
+	/**
+	 * What the shell looks like
+	 */
+	private Appearance ap = null;
+	
+	/**
+	 * The corners and normals of the triangles wholly below the plane
+	 * so far, in the order they were added
+	 */
+	private double[] frozen = new double[0];
+	private float[] frozenNormals = new float[0];
+	
+	/**
+	 * How many triangles (from the start of the index's zMax order) are in frozen
+	 */
+	private int frozenCount = 0;
+	
+	/**
+	 * The height frozen is up to date for
+	 */
+	private double frozenZ = Double.NEGATIVE_INFINITY;
+	
+	/**
+	 * Display geometry for runs of frozen triangles, lowest first.  Each covers 
+	 * triangles [start, end) of frozen.  Neighbouring runs are merged when the 
+	 * later one gets as big as the earlier, so there are only ever about log(n) of them.
+	 */
+	private List<Chunk> chunks = new ArrayList<Chunk>();
+	
+	/**
+	 * The corners and normals of the fringe for the current layer
+	 */
+	private double[] fringe = new double[0];
+	private float[] fringeNormals = new float[0];
+	private int fringeCoords = 0;
+	
+	/**
+	 * A run of frozen triangles and the geometry made from them
+	 */
+	private static class Chunk
+	{
+		int start, end;
+		GeometryArray geometry;
+		
+		Chunk(int s, int e, GeometryArray g)
+		{
+			start = s;
+			end = e;
+			geometry = g;
+		}
+	}
+	
+	/**
+	 * @param triangles one material's triangles (with their index built)
+	 * @param a what the shell should look like
+	 */
+	LowerShell(IndexedTriangles triangles, Appearance a)
+	{
+		c = triangles.coordinates();
+		zi = triangles.index();
+		ap = a;
+	}
+	
+	/**
+	 * Bring the shell up to height z and add it to a simulation BranchGroup.
+	 * @param below where to put the shapes
+	 * @param z the slice height
+	 * @param hits the triangles that the plane z cuts
+	 * @param cut how many of them there are
+	 */
+	void addTo(BranchGroup below, double z, int[] hits, int cut)
+	{
+		freezeTo(z);
+		for(int i = 0; i < chunks.size(); i++)
+			below.addChild(new Shape3D(chunks.get(i).geometry, ap));
+		
+		fringeCoords = 0;
+		for(int i = 0; i < cut; i++)
+			clip(hits[i], z);
+		if(fringeCoords > 0)
+			below.addChild(new Shape3D(triangleArray(fringe, fringeNormals, 0, fringeCoords/9), ap));
+	}
+	
+	/**
+	 * Add all the triangles wholly below z that aren't in frozen yet.
+	 * @param z
+	 */
+	private void freezeTo(double z)
+	{
+		if(z < frozenZ)
+		{
+			frozenCount = 0;
+			chunks.clear();
+		}
+		frozenZ = z;
+		
+		int n = zi.below(z);
+		if(n <= frozenCount)
+			return;
+		
+		if(9*n > frozen.length)
+		{
+			int room = Math.max(9*n, 2*frozen.length);
+			double[] bigger = new double[room];
+			System.arraycopy(frozen, 0, bigger, 0, 9*frozenCount);
+			frozen = bigger;
+			float[] biggerNormals = new float[room];
+			System.arraycopy(frozenNormals, 0, biggerNormals, 0, 9*frozenCount);
+			frozenNormals = biggerNormals;
+		}
+		
+		for(int i = frozenCount; i < n; i++)
+		{
+			int t = zi.belowTriangle(i);
+			System.arraycopy(c, 9*t, frozen, 9*i, 9);
+			normal(9*t, frozenNormals, 9*i);
+		}
+		
+		Chunk ch = new Chunk(frozenCount, n, triangleArray(frozen, frozenNormals, frozenCount, n));
+		frozenCount = n;
+		
+		int last = chunks.size() - 1;
+		while(last >= 0 && chunks.get(last).end - chunks.get(last).start <= ch.end - ch.start)
+		{
+			int start = chunks.remove(last).start;
+			ch = new Chunk(start, ch.end, triangleArray(frozen, frozenNormals, start, ch.end));
+			last--;
+		}
+		chunks.add(ch);
+	}
+	
+	/**
+	 * Add the part of triangle t below z to the fringe.
+	 * @param t
+	 * @param z
+	 */
+	private void clip(int t, double z)
+	{
+		int p = 9*t, q = p + 3, r = p + 6;
+		int odd, even1, even2;
+		int pat = 0;
+		
+		if(c[p+2] < z)
+			pat = pat | 1;
+		if(c[q+2] < z)
+			pat = pat | 2;
+		if(c[r+2] < z)
+			pat = pat | 4;
+		
+		switch(pat)
+		{
+		case 0:
+			return;
+			
+		case 7:
+			fringe(c[p], c[p+1], c[p+2]);
+			fringe(c[q], c[q+1], c[q+2]);
+			fringe(c[r], c[r+1], c[r+2]);
+			normal(p, fringeNormals, fringeCoords - 9);
+			return;
+			
+		case 1:
+		case 6:
+			odd = p;
+			even1 = q;
+			even2 = r;
+			break;
+			
+		case 2:
+		case 5:
+			odd = q;
+			even1 = r;
+			even2 = p;
+			break;
+
+		case 3:
+		case 4:
+			odd = r;
+			even1 = p;
+			even2 = q;
+			break;
+			
+		default:
+			return;
+		}
+		
+		double ox = c[odd];
+		double oy = c[odd+1];
+		double oz = c[odd+2];
+		double s = (z - oz)/(c[even1+2] - oz);
+		double x1 = ox + s*(c[even1] - ox);
+		double y1 = oy + s*(c[even1+1] - oy);
+		s = (z - oz)/(c[even2+2] - oz);
+		double x2 = ox + s*(c[even2] - ox);
+		double y2 = oy + s*(c[even2+1] - oy);
+		
+		if(oz < z)
+		{
+			fringe(ox, oy, oz);
+			fringe(x1, y1, z);
+			fringe(x2, y2, z);
+			normal(p, fringeNormals, fringeCoords - 9);
+		} else
+		{
+			fringe(c[even1], c[even1+1], c[even1+2]);
+			fringe(c[even2], c[even2+1], c[even2+2]);
+			fringe(x1, y1, z);
+			normal(p, fringeNormals, fringeCoords - 9);
+			fringe(x2, y2, z);
+			fringe(x1, y1, z);
+			fringe(c[even2], c[even2+1], c[even2+2]);
+			normal(p, fringeNormals, fringeCoords - 9);
+		}
+	}
+	
+	/**
+	 * Add a corner to the fringe
+	 * @param x
+	 * @param y
+	 * @param z
+	 */
+	private void fringe(double x, double y, double z)
+	{
+		if(fringeCoords + 3 > fringe.length)
+		{
+			int room = Math.max(900, 2*fringe.length);
+			double[] bigger = new double[room];
+			System.arraycopy(fringe, 0, bigger, 0, fringeCoords);
+			fringe = bigger;
+			float[] biggerNormals = new float[room];
+			System.arraycopy(fringeNormals, 0, biggerNormals, 0, fringeCoords);
+			fringeNormals = biggerNormals;
+		}
+		fringe[fringeCoords++] = x;
+		fringe[fringeCoords++] = y;
+		fringe[fringeCoords++] = z;
+	}
+	
+	/**
+	 * Work out the facet normal of the triangle whose corners start at c[i]
+	 * and put it against all three corners at n[j]
+	 * @param i
+	 * @param n
+	 * @param j
+	 */
+	private void normal(int i, float[] n, int j)
+	{
+		double ax = c[i+3] - c[i], ay = c[i+4] - c[i+1], az = c[i+5] - c[i+2];
+		double bx = c[i+6] - c[i], by = c[i+7] - c[i+1], bz = c[i+8] - c[i+2];
+		double nx = ay*bz - az*by;
+		double ny = az*bx - ax*bz;
+		double nz = ax*by - ay*bx;
+		double d = Math.sqrt(nx*nx + ny*ny + nz*nz);
+		if(d > 0)
+		{
+			nx = nx/d;
+			ny = ny/d;
+			nz = nz/d;
+		} else
+		{
+			nx = 0;
+			ny = 0;
+			nz = 1;
+		}
+		for(int k = 0; k < 3; k++)
+		{
+			n[j++] = (float)nx;
+			n[j++] = (float)ny;
+			n[j++] = (float)nz;
+		}
+	}
+	
+	/**
+	 * Make display geometry for triangles [from, to) of a corner array
+	 * @param coords
+	 * @param normals
+	 * @param from
+	 * @param to
+	 * @return the triangles
+	 */
+	private static GeometryArray triangleArray(double[] coords, float[] normals, int from, int to)
+	{
+		int corners = 3*(to - from);
+		TriangleArray ta = new TriangleArray(corners, GeometryArray.COORDINATES | GeometryArray.NORMALS);
+		double[] cs = new double[3*corners];
+		float[] ns = new float[3*corners];
+		System.arraycopy(coords, 9*from, cs, 0, cs.length);
+		System.arraycopy(normals, 9*from, ns, 0, ns.length);
+		ta.setCoordinates(0, cs);
+		ta.setNormals(0, ns);
+		return ta;
+	}
+}
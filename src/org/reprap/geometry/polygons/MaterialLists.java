@@ -0,0 +1,184 @@
+/*
+ 
+ RepRap
+ ------
+ 
+ The Replicating Rapid Prototyper Project
+ 
+ 
+ Copyright (C) 2005
+ Adrian Bowyer & The University of Bath
+ 
+ http://reprap.org
+ 
+ Principal author:
+ 
+ Adrian Bowyer
+ Department of Mechanical Engineering
+ Faculty of Engineering and Design
+ University of Bath
+ Bath BA2 7AY
+ U.K.
+ 
+ e-mail: A.Bowyer@bath.ac.uk
+ 
+ RepRap is free; you can redistribute it and/or
+ modify it under the terms of the GNU Library General Public
+ Licence as published by the Free Software Foundation; either
+ version 2 of the Licence, or (at your option) any later version.
+ 
+ RepRap is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Library General Public Licence for more details.
+ 
+ For this purpose the words "software" and "library" in the GNU Library
+ General Public Licence are taken to mean any and all computer programs
+ computer files data results documents and other copyright information
+ available from the RepRap project.
+ 
+ You should have received a copy of the GNU Library General Public
+ Licence along with RepRap; if not, write to the Free
+ Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA,
+ or see
+ 
+ http://www.gnu.org/
+ 
+ =====================================================================
+ 
+ MaterialLists: the objects to be sliced, and their triangles, sorted by material
+ 
+ First version 18 October 2026
+ 
+ */
+
+package org.reprap.geometry.polygons;
+
+import java.util.ArrayList;
+import javax.media.j3d.*;
+import org.reprap.Attributes;
+import org.reprap.Preferences;
+import org.reprap.devices.NullExtruder;
+
+/**
+ * list of materials and transforms of the objects made from them.
+ * @author ensab
+ *
+ */
+class MaterialLists
+{
+	private ArrayList<AandT> ats[] = null;
+	
+	/**
+	 * The triangles of the objects made from each material
+	 */
+	private IndexedTriangles triangles[] = null;
+	int extruderCount;
+	
+	public MaterialLists()
+	{
+		extruderCount = 0;
+		
+		try
+		{
+			extruderCount = Preferences.loadGlobalInt("NumberOfExtruders");
+		} catch (Exception ex)
+		{
+			System.err.println("MaterialLists(): " + ex.toString());
+		}
+		
+		ats = new ArrayList[extruderCount]; // Javanonsense: Why can't this be ats = new ArrayList<AandT>[extruderCount]; then?
+		triangles = new IndexedTriangles[extruderCount];
+		for(int i = 0; i < extruderCount; i++)
+		{
+			ats[i] = new ArrayList<AandT>();
+			triangles[i] = new IndexedTriangles();
+		}
+	}
+	
+	public void add(Attributes a, Transform3D t)
+	{
+		int i = NullExtruder.getNumberFromMaterial(a.getMaterial());
+		if(i < 0 || i >= extruderCount)
+			System.err.println("MaterialLists.add() - dud material: " + a.getMaterial());
+		else
+		{
+			ats[i].add(new AandT(a, t));
+			if(a.getVertices() != null)
+				triangles[i].add(a.getVertices(), t, a);
+			else
+				recursiveAdd(a.getPart(), t, a, triangles[i]);
+		}
+	}
+	
+	/**
+	 * Unpack the Shape3D(s) from value and record their triangles
+	 * @param value
+	 * @param trans
+	 * @param att
+	 * @param it
+	 */
+	private void recursiveAdd(Object value, Transform3D trans, Attributes att, IndexedTriangles it) 
+    {
+        if(value instanceof SceneGraphObject) 
+        {
+            SceneGraphObject sg = (SceneGraphObject)value;
+            if(sg instanceof Group) 
+            {
+                Group g = (Group)sg;
+                java.util.Enumeration enumKids = g.getAllChildren( );
+                while(enumKids.hasMoreElements())
+                	recursiveAdd(enumKids.nextElement(), trans, att, it);
+            } else if (sg instanceof Shape3D) 
+            {
+            	it.add((GeometryArray)((Shape3D)sg).getGeometry(), trans, att);
+            }
+        }
+    }
+	
+	/**
+	 * Index the triangles by height.  Call this after everything has been added.
+	 */
+	public void buildIndices()
+	{
+		for(int i = 0; i < extruderCount; i++)
+			triangles[i].buildIndex();
+	}
+	
+	public ArrayList<AandT> getAandTs(int i)
+	{
+		return ats[i];
+	}
+	
+	public IndexedTriangles getTriangles(int i)
+	{
+		return triangles[i];
+	}
+	
+	/**
+	 * Weld and connect each material's triangles.  Call this after buildIndices().
+	 */
+	public void buildMeshes()
+	{
+		for(int i = 0; i < extruderCount; i++)
+		{
+			String name = "material " + i;
+			if(triangles[i].size() > 0)
+				name = triangles[i].attributes(0).getMaterial();
+			triangles[i].buildMesh(name);
+		}
+	}
+	
+	/**
+	 * @return a new sweep for each material's triangles
+	 */
+	public TriangleSweep[] sweeps()
+	{
+		TriangleSweep[] result = new TriangleSweep[extruderCount];
+		for(int i = 0; i < extruderCount; i++)
+			result[i] = triangles[i].sweep();
+		return result;
+	}
+	
+	public int getExtruderCount() { return extruderCount; }
+}
@@ -0,0 +1,248 @@
+/*
+ 
+ RepRap
+ ------
+ 
+ The Replicating Rapid Prototyper Project
+ 
+ 
+ Copyright (C) 2005
+ Adrian Bowyer & The University of Bath
+ 
+ http://reprap.org
+ 
+ Principal author:
+ 
+ Adrian Bowyer
+ Department of Mechanical Engineering
+ Faculty of Engineering and Design
+ University of Bath
+ Bath BA2 7AY
+ U.K.
+ 
+ e-mail: A.Bowyer@bath.ac.uk
+ 
+ RepRap is free; you can redistribute it and/or
+ modify it under the terms of the GNU Library General Public
+ Licence as published by the Free Software Foundation; either
+ version 2 of the Licence, or (at your option) any later version.
+ 
+ RepRap is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Library General Public Licence for more details.
+ 
+ For this purpose the words "software" and "library" in the GNU Library
+ General Public Licence are taken to mean any and all computer programs
+ computer files data results documents and other copyright information
+ available from the RepRap project.
+ 
+ You should have received a copy of the GNU Library General Public
+ Licence along with RepRap; if not, write to the Free
+ Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA,
+ or see
+ 
+ http://www.gnu.org/
+ 
+ =====================================================================
+ 
+ ParallelSlicer: slice a run of layers on several threads at once
+ 
+ First version 18 October 2026
+ 
+ */
+
+package org.reprap.geometry.polygons;
+
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.media.j3d.BranchGroup;
+import org.reprap.Preferences;
+import org.reprap.utilities.Debug;
+
+/**
+ * Slices the layers of a build ahead of the machine on a pool of threads.  Each
+ * layer gets its own slicer (see STLSlice.layerSlicer()) so layers can be 
+ * worked on at the same time.  Only a sliding window of layers is kept in hand, 
+ * so memory use doesn't grow with the height of the job.  The slices come back
+ * from next() in the same order as the heights passed to the constructor, 
+ * exactly as calling STLSlice.slice() on each height in turn would give them.
+ * 
+ * Each layer is sliced a little above its height (half the current layer 
+ * thickness).  That depends on the extruder in use when the layer is reached,
+ * so the caller says what it is each time it calls next().  If it has changed,
+ * the layers in hand are dropped and slicing starts again from there.
+ * 
+ * The simulation shell under each layer grows from one layer to the next, so
+ * it isn't built on the threads; next() brings it up to each layer in turn.
+ * 
+ * @author ensab
+ *
+ */
+public class ParallelSlicer 
+{
+	/**
+	 * The slicer holding the objects to be sliced
+	 */
+	private STLSlice stlc = null;
+	
+	/**
+	 * The heights of the layers, in order
+	 */
+	private double[] heights = null;
+	
+	/**
+	 * How far above its height each layer in hand is being sliced
+	 */
+	private double offset;
+	
+	/**
+	 * Layers handed to the threads, but not yet taken by next()
+	 */
+	private LinkedList<Future<RrCSGPolygonList>> inHand = null;
+	
+	/**
+	 * The next height to hand to a thread
+	 */
+	private int submitted = 0;
+	
+	/**
+	 * The next height to be returned by next()
+	 */
+	private int taken = 0;
+	
+	/**
+	 * Maximum number of layers sliced ahead
+	 */
+	private int window;
+	
+	/**
+	 * The threads
+	 */
+	private ExecutorService pool = null;
+	
+	/**
+	 * Simulation shell from the last call of next()
+	 */
+	private BranchGroup below = null;
+	
+	/**
+	 * Set up the threads and start slicing.
+	 * @param s the objects to slice
+	 * @param z the heights of the layers, in build order
+	 * @param zOffset how far above its height to slice each layer, to start with
+	 * @param threads how many threads; 0 or less means one per processor
+	 */
+	public ParallelSlicer(STLSlice s, double[] z, double zOffset, int threads)
+	{
+		if(threads <= 0)
+			threads = Runtime.getRuntime().availableProcessors();
+		stlc = s;
+		heights = z;
+		offset = zOffset;
+		window = 2*threads;
+		inHand = new LinkedList<Future<RrCSGPolygonList>>();
+		pool = Executors.newFixedThreadPool(threads, new DaemonThreads("Slicer"));
+		Debug.d("ParallelSlicer(): " + heights.length + " layers on " + threads + " threads");
+		fill();
+	}
+	
+	/**
+	 * Keep the window full
+	 */
+	private void fill()
+	{
+		while(submitted < heights.length && inHand.size() < window)
+		{
+			final double z = heights[submitted] + offset;
+			inHand.addLast(pool.submit(new Callable<RrCSGPolygonList>()
+			{
+				public RrCSGPolygonList call()
+				{
+					STLSlice layerSlicer = stlc.layerSlicer();
+					RrCSGPolygonList result = layerSlicer.slice(z);
+					layerSlicer.destroyLayer();
+					return result;
+				}
+			}));
+			submitted++;
+		}
+	}
+	
+	/**
+	 * @return true if there are more layers to come
+	 */
+	public boolean hasNext()
+	{
+		return taken < heights.length;
+	}
+	
+	/**
+	 * @return the height of the layer that the next call of next() will return
+	 */
+	public double nextZ()
+	{
+		return heights[taken];
+	}
+	
+	/**
+	 * Get the next layer, waiting for it to be sliced if need be.
+	 * @param zOffset how far above nextZ() it should be sliced
+	 * @return the slice at height nextZ() + zOffset
+	 * @throws Exception if slicing the layer went wrong
+	 */
+	public RrCSGPolygonList next(double zOffset) throws Exception
+	{
+		// The layer height has changed; what's in hand is no good
+		
+		if(Math.abs(zOffset - offset) > Preferences.tiny())
+		{
+			for(int i = 0; i < inHand.size(); i++)
+				inHand.get(i).cancel(false);
+			inHand.clear();
+			submitted = taken;
+			offset = zOffset;
+			Debug.d("ParallelSlicer.next(): layer height changed at layer " + taken);
+			fill();
+		}
+		
+		double z = heights[taken] + offset;
+		Future<RrCSGPolygonList> f = inHand.removeFirst();
+		taken++;
+		fill();
+		RrCSGPolygonList slice;
+		try
+		{
+			slice = f.get();
+		} catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if(cause instanceof Exception)
+				throw (Exception)cause;
+			throw ex;
+		}
+		below = stlc.shellBelow(z);
+		return slice;
+	}
+	
+	/**
+	 * @return the simulation shell below the last slice returned by next()
+	 */
+	public BranchGroup getBelow()
+	{
+		return below;
+	}
+	
+	/**
+	 * Stop all the threads, abandoning any layers not yet taken.
+	 */
+	public void shutdown()
+	{
+		pool.shutdownNow();
+		inHand.clear();
+	}
+}
@@ -83,38 +83,6 @@ public class RrBox
 	 */
 	private boolean empty;
 	
-	/**
-	 * Flag to prevent cyclic graphs going round forever
-	 */
-	private boolean beingDestroyed = false;
-	
-	/**
-	 * Destroy me and all that I point to
-	 */
-	public void destroy() 
-	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		if(x != null)
-			x.destroy();
-		x = null;
-		if(y != null)
-			y.destroy();		
-		y = null;
-		beingDestroyed = false;
-	}
-	
-	/**
-	 * Destroy just me
-	 */
-	protected void finalize() throws Throwable
-	{
-		x = null;
-		y = null;
-		super.finalize();
-	}
-	
 	/**
 	 * Default is empty
 	 */ 
@@ -168,6 +136,21 @@ public class RrBox
 		empty = x.empty() || y.empty();
 	}
 	
+	/**
+	 * Make from the coordinates of any diagonal corners, as 
+	 * RrBox(Rr2Point, Rr2Point) but without needing the points
+	 * @param ax
+	 * @param ay
+	 * @param bx
+	 * @param by
+	 */
+	public RrBox(double ax, double ay, double bx, double by)
+	{
+		x = new RrInterval(Math.min(ax, bx), Math.max(ax, bx));
+		y = new RrInterval(Math.min(ay, by), Math.max(ay, by));
+		empty = x.empty() || y.empty();
+	}
+	
 	
 	/**
 	 * @return Return the x interval
@@ -212,16 +195,26 @@ public class RrBox
 	 * @param a
 	 */
 	public void expand(Rr2Point a)
+	{
+		expand(a.x(), a.y());
+	}
+	
+	/**
+	 * Expand the box to incorporate the point (px, py)
+	 * @param px
+	 * @param py
+	 */
+	public void expand(double px, double py)
 	{
 		if(empty)
 		{
 			empty = false;
-			x = new RrInterval(a.x(), a.x());
-			y = new RrInterval(a.y(), a.y());
+			x = new RrInterval(px, px);
+			y = new RrInterval(py, py);
 		} else
 		{
-			x.expand(a.x());
-			y.expand(a.y());
+			x.expand(px);
+			y.expand(py);
 		}
 	}
 	
@@ -272,15 +265,12 @@ public class RrBox
 	 */
 	public RrBox scale(double f)
 	{
-		RrBox r = new RrBox();
 		if(empty)
-			return r;
+			return new RrBox();
 		f = 0.5*f;
-		Rr2Point p = new Rr2Point(x.length()*f, y.length()*f);
-		Rr2Point c = centre();
-		r.expand(Rr2Point.add(c, p));
-		r.expand(Rr2Point.sub(c, p));
-		return r;
+		double px = x.length()*f, py = y.length()*f;
+		double cx = x.cen(), cy = y.cen();
+		return new RrBox(cx + px, cy + py, cx - px, cy - py);
 	}
 	
 	/**
@@ -301,7 +291,9 @@ public class RrBox
 	{
 		if(empty)
 			return 0;
-		return Rr2Point.dSquared(sw(), ne());
+		double dx = x.low() - x.high();
+		double dy = y.low() - y.high();
+		return dx*dx + dy*dy;
 	}
 
 	/**
@@ -372,25 +364,28 @@ public class RrBox
 	{
 		if(oldRange.empty()) return oldRange;
 		
-		RrInterval range = new RrInterval(oldRange);
-		
-		RrHalfPlane hp = new RrHalfPlane(sw(), nw());
-		range = hp.wipe(a, range);
-		if(range.empty()) return range;
-		
-		hp = new RrHalfPlane(nw(), ne());
-		range = hp.wipe(a, range);
-		if(range.empty()) return range;
-		
-		hp = new RrHalfPlane(ne(), se());
-		range = hp.wipe(a, range);
-		if(range.empty()) return range;
-		
-		hp = new RrHalfPlane(se(), sw());
-		range = hp.wipe(a, range);
+		RrInterval range = new RrInterval();
+		wipe(a, oldRange, range);
 		return range;
 	}
 	
+	/**
+	 * As wipe(a, oldRange), but the answer goes in range (which may be
+	 * oldRange) and no new objects are made.
+	 * @param a
+	 * @param oldRange
+	 * @param range
+	 */
+	public void wipe(RrLine a, RrInterval oldRange, RrInterval range)
+	{
+		range.set(oldRange);
+		double xl = x.low(), xh = x.high(), yl = y.low(), yh = y.high();
+		RrHalfPlane.wipe(xl, yl, xl, yh, a, range);  // sw -> nw
+		RrHalfPlane.wipe(xl, yh, xh, yh, a, range);  // nw -> ne
+		RrHalfPlane.wipe(xh, yh, xh, yl, a, range);  // ne -> se
+		RrHalfPlane.wipe(xh, yl, xl, yl, a, range);  // se -> sw
+	}
+	
 	/**
 	 * Where is a point relative to a box?
 	 * @param p 
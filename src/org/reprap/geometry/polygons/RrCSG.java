@@ -50,6 +50,12 @@
 
 package org.reprap.geometry.polygons;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
 /**
  * RepRap Constructive Solid Geometry class
  * 
@@ -95,46 +101,6 @@ public class RrCSG
 	 */
 	private int complexity;
 	
-	/**
-	 * Flag to prevent cyclic graphs going round forever
-	 */
-	private boolean beingDestroyed = false;
-	
-	/**
-	 * Destroy me and all that I point to
-	 */
-	public void destroy() 
-	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		if(c1 != null)
-			c1.destroy();
-		c1 = null;
-		if(c2 != null)
-			c2.destroy();
-		c2 = null;
-		if(comp != null)
-			comp.destroy();
-		comp = null;
-		if(hp != null)
-			hp.destroy();
-		hp = null;
-		beingDestroyed = false;
-	}
-	
-	/**
-	 * Destroy just me
-	 */
-	protected void finalize() throws Throwable
-	{
-		c1 = null;
-		c2 = null;
-		comp = null;
-		hp = null;
-		super.finalize();
-	}
-	
 	/**
 	 * Make a leaf from a single half-plane
 	 * @param h
@@ -223,6 +189,23 @@ public class RrCSG
 	public RrHalfPlane plane() { return hp; }
 	public int complexity() { return complexity; }
 	
+	/**
+	 * How many levels are there in the tree?  Leaves are 1 deep, the
+	 * universal and null sets 0.  This walks the tree, so call it for 
+	 * statistics, not in loops.
+	 * @return depth of the tree
+	 */
+	public int depth()
+	{
+		if(c1 == null || c2 == null)
+		{
+			if(op == RrCSGOp.LEAF)
+				return 1;
+			return 0;
+		}
+		return 1 + Math.max(c1.depth(), c2.depth());
+	}
+	
 	/**
 	 * Convert to a string
 	 * @param result
@@ -349,6 +332,85 @@ public class RrCSG
 		return r;
 	}
 	
+	/**
+	 * Union of a whole list of sets.  The list is combined in neighbouring
+	 * pairs, then pairs of pairs, and so on, so the tree is log(n) deep rather
+	 * than n deep as it would be adding the sets one at a time.
+	 * @param sets
+	 * @return union of all the sets (nothing if there are none)
+	 */
+	public static RrCSG union(List<RrCSG> sets)
+	{
+		return balanced(sets, true);
+	}
+	
+	/**
+	 * Intersection of a whole list of sets, built balanced like union(List).
+	 * @param sets
+	 * @return intersection of all the sets (the universe if there are none)
+	 */
+	public static RrCSG intersection(List<RrCSG> sets)
+	{
+		return balanced(sets, false);
+	}
+	
+	/**
+	 * Combine a list of sets pairwise until there is only one left
+	 * @param sets
+	 * @param union
+	 * @return union or intersection of all the sets
+	 */
+	private static RrCSG balanced(List<RrCSG> sets, boolean union)
+	{
+		int count = sets.size();
+		if(count == 0)
+		{
+			if(union)
+				return nothing();
+			return universe();
+		}
+		RrCSG[] level = sets.toArray(new RrCSG[count]);
+		while(count > 1)
+		{
+			int j = 0;
+			for(int i = 0; i < count; i += 2)
+			{
+				if(i + 1 == count)
+					level[j] = level[i];
+				else if(union)
+					level[j] = union(level[i], level[i + 1]);
+				else
+					level[j] = intersection(level[i], level[i + 1]);
+				j++;
+			}
+			count = j;
+		}
+		return level[0];
+	}
+	
+	/**
+	 * Put two sets together with this node's operator (which must be UNION
+	 * or INTERSECTION), as union() or intersection() would.  If they are this
+	 * node's own children, and union() or intersection() would only make a
+	 * new node just like this one out of them, this node is returned
+	 * instead.  So pruning shares the parts of a set that a box leaves alone
+	 * rather than copying them.
+	 * @param a
+	 * @param b
+	 * @return a op b
+	 */
+	RrCSG rebuild(RrCSG a, RrCSG b)
+	{
+		if(a == c1 && b == c2 && comp == null && a != b &&
+				a.complexity <= b.complexity &&
+				a.complexity > 0 && b.complexity > 0 &&  // Not NULL or UNIVERSE
+				!(a.comp != null && a.comp == b))
+			return this;
+		if(op == RrCSGOp.UNION)
+			return union(a, b);
+		return intersection(a, b);
+	}
+	
 	/**
 	 * Lazy evaluation for complement.
 	 * @return complement
@@ -389,7 +451,7 @@ public class RrCSG
 		// (I do hope that the Java garbage collector is up to 
 		// spotting this deadly embrace, or we - I mean it - has
 		// a memory leak.)
-		// It turned out it was dumb.  Hence addition of finalize() above...
+		// It is - cycles like this are no problem for it.
 		
 		comp = result;
 		result.comp = this;
@@ -1042,10 +1104,176 @@ public class RrCSG
 	public RrCSG simplify(double tolerance)
 	{
 		RrCSG root = new RrCSG(this);
-		simplify_r(root, tolerance);
+		if(!simplifyHashed(root, tolerance))
+			simplify_r(root, tolerance);
 		return root;
 	}
 	
+	/**
+	 * Below about this many leaves simplify_r()'s plain search of the
+	 * whole tree is quicker than setting up the hash table
+	 */
+	private static final int hashedSimplify = 1024;
+	
+	/**
+	 * Make the same replacements as simplify_r(root, tolerance) without
+	 * searching the whole of root for each leaf of this in turn.  The leaves 
+	 * that root has at any moment are kept in a hash table on their normals,
+	 * quantised to cells twice the tolerance across, so only the ones in the
+	 * nine cells round a leaf's normal can be RrHalfPlane.same() as it.  Each
+	 * leaf in the table stands for all the places it has been put in root,
+	 * so moving them to another leaf is one step.
+	 * @param root a deep copy of this
+	 * @param tolerance
+	 * @return false if it couldn't be done, or the set is too small to be 
+	 * worth it (and simplify_r() must be used)
+	 */
+	private boolean simplifyHashed(RrCSG root, double tolerance)
+	{
+		if(!(tolerance > 0) || complexity < hashedSimplify)
+			return false;
+		
+		// The leaves of this, in the order simplify_r() goes round them
+		
+		List<RrCSG> leaves = new ArrayList<RrCSG>();
+		List<RrCSG> stack = new ArrayList<RrCSG>();
+		stack.add(this);
+		while(stack.size() > 0)
+		{
+			RrCSG c = stack.remove(stack.size() - 1);
+			if(c.op == RrCSGOp.LEAF)
+				leaves.add(c);
+			else if(c.op == RrCSGOp.UNION || c.op == RrCSGOp.INTERSECTION)
+			{
+				stack.add(c.c2);
+				stack.add(c.c1);
+			}
+		}
+		
+		// The places in root where there are leaves: the parents, and
+		// which side.  Each leaf starts off in a group of its own.
+		
+		List<RrCSG> parents = new ArrayList<RrCSG>();
+		List<Boolean> firsts = new ArrayList<Boolean>();
+		IdentityHashMap<RrCSG, List<Integer>> groups = new IdentityHashMap<RrCSG, List<Integer>>();
+		HashMap<Long, List<RrCSG>> cells = new HashMap<Long, List<RrCSG>>();
+		double cell = 1/(2*tolerance);
+		stack.add(root);
+		while(stack.size() > 0)
+		{
+			RrCSG c = stack.remove(stack.size() - 1);
+			if(c.op != RrCSGOp.UNION && c.op != RrCSGOp.INTERSECTION)
+				continue;
+			for(int side = 0; side < 2; side++)
+			{
+				RrCSG child = side == 0 ? c.c1 : c.c2;
+				if(child.op == RrCSGOp.LEAF)
+				{
+					List<Integer> group = new ArrayList<Integer>();
+					group.add(Integer.valueOf(parents.size()));
+					parents.add(c);
+					firsts.add(Boolean.valueOf(side == 0));
+					groups.put(child, group);
+					if(!finite(child.hp))
+						return false;
+					cell(cells, child, cell).add(child);
+				} else
+					stack.add(child);
+			}
+		}
+		
+		for(int k = 0; k < leaves.size(); k++)
+		{
+			RrCSG leaf = leaves.get(k);
+			if(!finite(leaf.hp))
+				return false;
+			List<Integer> group = groups.get(leaf);
+			long x = (long)Math.floor(leaf.hp.normal().x()*cell);
+			long y = (long)Math.floor(leaf.hp.normal().y()*cell);
+			for(long i = x - 1; i <= x + 1; i++)
+			{
+				for(long j = y - 1; j <= y + 1; j++)
+				{
+					List<RrCSG> here = cells.get(key(i, j));
+					if(here == null)
+						continue;
+					int m = 0;
+					while(m < here.size())
+					{
+						RrCSG other = here.get(m);
+						if(other != leaf && RrHalfPlane.same(leaf.hp, other.hp, tolerance))
+						{
+							if(group == null)
+								group = new ArrayList<Integer>();
+							group.addAll(groups.remove(other));
+							here.remove(m);
+						} else
+							m++;
+					}
+				}
+			}
+			if(group != null && !groups.containsKey(leaf))
+			{
+				groups.put(leaf, group);
+				cell(cells, leaf, cell).add(leaf);
+			}
+		}
+		
+		for(Map.Entry<RrCSG, List<Integer>> e : groups.entrySet())
+		{
+			List<Integer> group = e.getValue();
+			for(int i = 0; i < group.size(); i++)
+			{
+				int p = group.get(i).intValue();
+				if(firsts.get(p).booleanValue())
+					parents.get(p).c1 = e.getKey();
+				else
+					parents.get(p).c2 = e.getKey();
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @param h
+	 * @return true if h's normal and offset are proper numbers
+	 */
+	private static boolean finite(RrHalfPlane h)
+	{
+		double s = h.normal().x() + h.normal().y() + h.offset();
+		return !Double.isNaN(s) && !Double.isInfinite(s);
+	}
+	
+	/**
+	 * Pack two cell coordinates into one key
+	 * @param x
+	 * @param y
+	 * @return the key
+	 */
+	private static Long key(long x, long y)
+	{
+		return Long.valueOf((x << 32) ^ (y & 0xffffffffL));
+	}
+	
+	/**
+	 * @param cells
+	 * @param leaf
+	 * @param cell 1/(size of a cell)
+	 * @return the list of the leaves in leaf's cell (made if need be)
+	 */
+	private static List<RrCSG> cell(HashMap<Long, List<RrCSG>> cells, RrCSG leaf, double cell)
+	{
+		Long k = key((long)Math.floor(leaf.hp.normal().x()*cell), 
+				(long)Math.floor(leaf.hp.normal().y()*cell));
+		List<RrCSG> here = cells.get(k);
+		if(here == null)
+		{
+			here = new ArrayList<RrCSG>();
+			cells.put(k, here);
+		}
+		return here;
+	}
+	
 	/**
 	 * For each half plane remove any existing crossing list.
      */
@@ -1242,36 +1470,62 @@ public class RrCSG
 	 */
 	public RrInterval value(RrBox b)
 	{
-		RrInterval result;
+		RrInterval result = new RrInterval();
+		value(b, result);
+		return result;
+	}
+	
+	/**
+	 * The interval value of a box without making any new intervals.  The 
+	 * values of the children are combined as RrInterval.min() and max() 
+	 * would.
+	 * @param b
+	 * @param result set to the value of box b
+	 */
+	public void value(RrBox b, RrInterval result)
+	{
+		double low, high;
 		
 		switch(op)
 		{
 		case LEAF:
-			result = hp.value(b);
+			hp.value(b, result);
 			break;
 			
 		case NULL:
-			result = new RrInterval(1, 1.01);  // Is this clever?  Or dumb?
+			result.set(1, 1.01);  // Is this clever?  Or dumb?
 			break;
 			
 		case UNIVERSE:
-			result = new RrInterval(-1.01, -1);  // Ditto.
+			result.set(-1.01, -1);  // Ditto.
 			break;
 			
 		case UNION:
-			result = RrInterval.min(c1.value(b), c2.value(b));
+			c1.value(b, result);
+			low = result.low();
+			high = result.high();
+			c2.value(b, result);
+			if(low < result.low())
+				result.set(low, result.high());
+			if(high < result.high())
+				result.set(result.low(), high);
 			break;
 			
 		case INTERSECTION:
-			result = RrInterval.max(c1.value(b), c2.value(b));
+			c1.value(b, result);
+			low = result.low();
+			high = result.high();
+			c2.value(b, result);
+			if(low > result.low())
+				result.set(low, result.high());
+			if(high > result.high())
+				result.set(result.low(), high);
 			break;
 			
 		default:
 			System.err.println("value(RrBox): invalid operator.");
-			result = new RrInterval();
+			result.clear();
 		}
-		
-		return result;
 	}
 	
 	/**
@@ -1280,13 +1534,24 @@ public class RrCSG
 	 * @return pruned box as new CSG object
 	 */
 	public RrCSG prune(RrBox b)
+	{
+		return prune(b, new RrInterval());
+	}
+	
+	/**
+	 * Prune the set to a box, using i to work out the leaves' values
+	 * @param b
+	 * @param i
+	 * @return pruned box as new CSG object
+	 */
+	private RrCSG prune(RrBox b, RrInterval i)
 	{
 		RrCSG result = this;
 		
 		switch(op)
 		{
 		case LEAF:            
-			RrInterval i = hp.value(b);
+			hp.value(b, i);
 			if (i.empty())
 				System.err.println("RrCSG.prune(RrBox): empty interval!");
 			else if(i.neg())
@@ -1300,11 +1565,8 @@ public class RrCSG
 			break;
 			
 		case UNION:
-			result =  union(c1.prune(b), c2.prune(b));
-			break;
-			
 		case INTERSECTION:
-			result = intersection(c1.prune(b), c2.prune(b));
+			result = rebuild(c1.prune(b, i), c2.prune(b, i));
 			break;
 			
 		default:
@@ -1313,4 +1575,15 @@ public class RrCSG
 		
 		return result;
 	}
+	
+	/**
+	 * Flatten the set into a program that evaluates points and boxes
+	 * without recursion (or allocation).  Worth it when the same set is
+	 * going to be evaluated or pruned more than once.
+	 * @return the program
+	 */
+	CSGProgram compile()
+	{
+		return new CSGProgram(this);
+	}
 }
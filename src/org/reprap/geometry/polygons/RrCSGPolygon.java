@@ -57,7 +57,13 @@ First version 14 November 2005
 package org.reprap.geometry.polygons;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.reprap.Attributes;
 import org.reprap.Preferences;
@@ -83,46 +89,87 @@ class snakeEnd
 	public int index;
 	
 	/**
-	 * Flag to prevent cyclic graphs going round forever
+	 * @param pl
+	 * @param hs
+	 * @param i
+	 */
+	public snakeEnd(RrPolygon pl, RrHalfPlane hs, int i)
+	{
+		p = pl;
+		h = hs;
+		index = i;
+	}
+}
+
+/**
+ * This class stores a piece of model edge for the hatch sweep: the
+ * stretch of a half-plane between two of its corners, and the range of
+ * hatch offsets it spans.
+ */
+class hatchEdge implements Comparable<hatchEdge>
+{
+	/**
+	 * The model half-plane the piece lies on
+	 */
+	public RrHalfPlane plane = null;
+
+	/**
+	 * The corner quads at each end of the piece
 	 */
-	private boolean beingDestroyed = false;
+	public RrCSGPolygon start = null, end = null;
 	
 	/**
-	 * Destroy me and all that I point to
+	 * Hatch offsets of each end
+	 */
+	public double a, b;
+
+	/**
+	 * Hatch offsets between which the piece is crossed [low, high)
+	 */
+	public double low, high;
+
+	/**
+	 * @param p
+	 * @param qa
+	 * @param qb
+	 * @param va
+	 * @param vb
 	 */
-	public void destroy() 
+	public hatchEdge(RrHalfPlane p, RrCSGPolygon qa, RrCSGPolygon qb, double va, double vb)
 	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		if(p != null)
-			p.destroy();
-		p = null;
-		if(h != null)
-			h.destroy();
-		h = null;
+		plane = p;
+		start = qa;
+		end = qb;
+		a = va;
+		b = vb;
+		low = Math.min(a, b);
+		high = Math.max(a, b);
 	}
 	
 	/**
-	 * Make just me go away
+	 * A corner quad to file a crossing at offset s under.  This is the one
+	 * at the far end of the piece, so that the other plane in the quad
+	 * is well away from the crossing and RrHalfPlane.getCSG() picks ours.
+	 * @param s
+	 * @return corner quad
 	 */
-	protected void finalize() throws Throwable
+	public RrCSGPolygon quad(double s)
 	{
-		p = null;
-		h = null;
-		super.finalize();
+		if(Math.abs(a - s) < Math.abs(b - s))
+			return end;
+		return start;
 	}
-	
-	/**
-	 * @param pl
-	 * @param hs
-	 * @param i
+
+	/* (non-Javadoc)
+	 * @see java.lang.Comparable#compareTo(java.lang.Object)
 	 */
-	public snakeEnd(RrPolygon pl, RrHalfPlane hs, int i)
+	public int compareTo(hatchEdge e)
 	{
-		p = pl;
-		h = hs;
-		index = i;
+		if(low < e.low)
+			return -1;
+		if(low > e.low)
+			return 1;
+		return 0;
 	}
 }
 
@@ -181,7 +228,7 @@ public class RrCSGPolygon
 	private boolean corner;         
 	
 	/**
-	 * Edge parametric intervals
+	 * Edge parametric intervals (made when the quad is evaluated)
 	 */
 	private RrInterval i1 = null, i2 = null;     
 	
@@ -196,75 +243,21 @@ public class RrCSGPolygon
 	private Attributes att = null;
 	
 	/**
-	 * Flag to prevent cyclic graphs going round forever
+	 * Sets simpler than this aren't worth dividing on more than one thread
 	 */
-	private boolean beingDestroyed = false;
+	private static final int parallelComplexity = 64;
 	
 	/**
-	 * Destroy me and all that I point to
+	 * When dividing in parallel, how many levels of the tree the calling
+	 * thread does itself before handing the quads (up to 4^forkLevels 
+	 * of them) to the pool
 	 */
-	public void destroy() 
-	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		if(csg != null)
-			csg.destroy();
-		csg = null;
-		if(box != null)
-			box.destroy();
-		box = null;
-		if(q1 != null)
-			q1.destroy();
-		q1 = null;
-		if(q2 != null)
-			q2.destroy();
-		q2 = null;
-		if(q3 != null)
-			q3.destroy();
-		q3 = null;
-		if(q4 != null)
-			q4.destroy();		
-		q4 = null;
-		if(parent != null)
-			parent.destroy();
-		parent = null;
-		if(i1 != null)
-			i1.destroy();
-		i1 = null;
-		if(i2 != null)
-			i2.destroy();
-		i2 = null;
-		if(vertex != null)
-			vertex.destroy();
-		vertex = null;
-		
-		// Don't destroy the attribute - that may be needed again
-		
-		//if(att != null)
-		//	att.destroy();
-		att = null;
-		beingDestroyed = false;
-	}
+	private static final int forkLevels = 3;
 	
 	/**
-	 * Destroy just me
+	 * The threads for that (shared by all polygons; made when first needed)
 	 */
-	protected void finalize() throws Throwable
-	{
-		csg = null;
-		box = null;
-		q1 = null;
-		q2 = null;
-		q3 = null;	
-		q4 = null;
-		parent = null;
-		i1 = null;
-		i2 = null;
-		vertex = null;
-		att = null;
-		super.finalize();
-	}
+	private static ExecutorService dividers = null;
 	
 	/**
 	 * Set one up
@@ -272,10 +265,26 @@ public class RrCSGPolygon
 	 * @param bx
 	 */
 	public RrCSGPolygon(RrCSG p, RrBox bx, Attributes a)
+	{
+		this(p, bx, a, true);
+	}
+	
+	/**
+	 * Set one up in a box that belongs to it alone (as the quads
+	 * divide_r() makes are), so the box doesn't need copying
+	 * @param p
+	 * @param bx
+	 * @param a
+	 * @param copy
+	 */
+	private RrCSGPolygon(RrCSG p, RrBox bx, Attributes a, boolean copy)
 	{
 		if(a == null)
 			System.err.println("RrCSGPolygon(): null attributes!");
-		box = new RrBox(bx);
+		if(copy)
+			box = new RrBox(bx);
+		else
+			box = bx;
 		att = a;
 		q1 = null;
 		q2 = null;
@@ -289,8 +298,6 @@ public class RrCSGPolygon
 		edgeCount = 0;
 		corner = false;
 		vertex = null;
-		i1 = new RrInterval();
-		i2 = new RrInterval();
 	}
 	
 	/**
@@ -308,8 +315,18 @@ public class RrCSGPolygon
 	public int edges() { return edgeCount; }
 	public boolean corner() { return corner; }
 	public Rr2Point vertex() { return vertex; }
-	public RrInterval interval1() { return i1; } 
-	public RrInterval interval2() { return i2; }
+	public RrInterval interval1() 
+	{ 
+		if(i1 == null)
+			return new RrInterval();
+		return i1; 
+	} 
+	public RrInterval interval2() 
+	{ 
+		if(i2 == null)
+			return new RrInterval();
+		return i2; 
+	}
 	public Attributes getAttributes() { return att; }
 	
 	/**
@@ -377,8 +394,14 @@ public class RrCSGPolygon
 	 * Quad-tree division - recursive internal call
 	 * @param res_2
 	 * @param swell
+	 * @param cross record the corners' crossings with RrHalfPlane.cross() as
+	 * they are found (if false, crossCorners() must be run afterwards)
+	 * @param levels how deep to go before stopping and putting the
+	 * quads still to be divided in frontier (-ve for all the way)
+	 * @param frontier
 	 */
-	private void divide_r(double res_2, double swell)
+	private void divide_r(double res_2, double swell, boolean cross, int levels, 
+			List<RrCSGPolygon> frontier)
 	{
 		resolution_2 = res_2;
 		sFactor = swell;
@@ -387,7 +410,7 @@ public class RrCSGPolygon
 		
 		if(csg.complexity() < 3)
 		{
-			evaluate();
+			evaluate(cross);
 			return;
 		}
 		
@@ -409,49 +432,132 @@ public class RrCSGPolygon
 			csg = csg.regularise();
 			if(csg.complexity() < 3)
 			{
-				evaluate();
+				evaluate(cross);
 				return;
 			}
 		}
 		
-		// Set up the quad-tree division
+		// Set up the quad-tree division; the boxes overlap by the swell
+		// factor
 		
-		Rr2Point sw = box.sw();
-		Rr2Point nw = box.nw();
-		Rr2Point ne = box.ne();
-		Rr2Point se = box.se();
-		Rr2Point cen = box.centre();
-		double addX = 0.5*(ne.x() - sw.x())*(sFactor - 1);
-		double addY = 0.5*(ne.y() - sw.y())*(sFactor - 1);
+		double xl = box.x().low(), xh = box.x().high();
+		double yl = box.y().low(), yh = box.y().high();
+		double xc = box.x().cen(), yc = box.y().cen();
+		double addX = 0.5*(xh - xl)*(sFactor - 1);
+		double addY = 0.5*(yh - yl)*(sFactor - 1);
 		
 		// Prune the set to the four boxes, and put the results in the children
 		
-		Rr2Point newSW = Rr2Point.mul(Rr2Point.add(sw, nw), 0.5);
-		Rr2Point newNE = Rr2Point.mul(Rr2Point.add(nw, ne), 0.5);
-		RrBox s = new RrBox(Rr2Point.add(newSW, new Rr2Point(0, -addY)), 
-				Rr2Point.add(newNE, new Rr2Point(addX, 0)));
-		q1 = new RrCSGPolygon(csg.prune(s), s, att);
+		CSGProgram program = csg.compile();
+		RrBox s = new RrBox(xl, yc - addY, xc + addX, yh);
+		q1 = new RrCSGPolygon(program.prune(s), s, att, false);
 		
-		s = new RrBox(Rr2Point.add(cen, new Rr2Point(-addX, -addY)), 
-				ne);
-		q2 = new RrCSGPolygon(csg.prune(s), s, att);
+		s = new RrBox(xc - addX, yc - addY, xh, yh);
+		q2 = new RrCSGPolygon(program.prune(s), s, att, false);
 		
-		newSW = Rr2Point.mul(Rr2Point.add(sw, se), 0.5);
-		newNE = Rr2Point.mul(Rr2Point.add(se, ne), 0.5);
-		s = new RrBox(Rr2Point.add(newSW, new Rr2Point(-addX, 0)), 
-				Rr2Point.add(newNE, new Rr2Point(0, addY)));		
-		q3 = new RrCSGPolygon(csg.prune(s), s, att);
+		s = new RrBox(xc - addX, yl, xh, yc + addY);		
+		q3 = new RrCSGPolygon(program.prune(s), s, att, false);
 		
-		s = new RrBox(sw, 
-				Rr2Point.add(cen, new Rr2Point(addX, addY)));		
-		q4 = new RrCSGPolygon(csg.prune(s), s, att);
+		s = new RrBox(xl, yl, xc + addX, yc + addY);		
+		q4 = new RrCSGPolygon(program.prune(s), s, att, false);
 		
 		// Recursively divide the children
 		
-		q1.divide_r(resolution_2, sFactor);
-		q2.divide_r(resolution_2, sFactor);
-		q3.divide_r(resolution_2, sFactor);
-		q4.divide_r(resolution_2, sFactor);
+		if(levels == 0)
+		{
+			frontier.add(q1);
+			frontier.add(q2);
+			frontier.add(q3);
+			frontier.add(q4);
+			return;
+		}
+		q1.divide_r(resolution_2, sFactor, cross, levels - 1, frontier);
+		q2.divide_r(resolution_2, sFactor, cross, levels - 1, frontier);
+		q3.divide_r(resolution_2, sFactor, cross, levels - 1, frontier);
+		q4.divide_r(resolution_2, sFactor, cross, levels - 1, frontier);
+	}
+	
+	/**
+	 * Divide a complicated set on several threads.  This thread does the
+	 * top of the tree, then the subtrees below that are divided at the same
+	 * time.  They share the half-planes, and RrHalfPlane.cross() only
+	 * records a corner that isn't in a list already, so which of two
+	 * overlapping quads gets it depends on the order they are done in.  So
+	 * the crossings are left until all the division is finished, then
+	 * recorded in the same order as dividing on one thread would have
+	 * recorded them.  The result is exactly the same.
+	 * @param res_2
+	 * @param swell
+	 */
+	private void divideParallel(final double res_2, final double swell)
+	{
+		List<RrCSGPolygon> frontier = new ArrayList<RrCSGPolygon>();
+		divide_r(res_2, swell, false, forkLevels, frontier);
+		
+		List<Future<?>> working = new ArrayList<Future<?>>();
+		for(int i = 0; i < frontier.size(); i++)
+		{
+			final RrCSGPolygon q = frontier.get(i);
+			working.add(dividers().submit(new Runnable()
+			{
+				public void run()
+				{
+					q.divide_r(res_2, swell, false, -1, null);
+				}
+			}));
+		}
+		for(int i = 0; i < working.size(); i++)
+		{
+			try
+			{
+				working.get(i).get();
+			} catch (ExecutionException ex)
+			{
+				Throwable cause = ex.getCause();
+				if(cause instanceof RuntimeException)
+					throw (RuntimeException)cause;
+				if(cause instanceof Error)
+					throw (Error)cause;
+				throw new RuntimeException(cause);
+			} catch (InterruptedException ex)
+			{
+				for(int j = i; j < working.size(); j++)
+					working.get(j).cancel(true);
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(ex);
+			}
+		}
+		
+		crossCorners();
+	}
+	
+	/**
+	 * Record the crossings of all the corners in the tree in 
+	 * depth-first (NW, NE, SE, SW) order
+	 */
+	private void crossCorners()
+	{
+		if(leaf())
+		{
+			if(corner)
+				corner = RrHalfPlane.cross(this);
+			return;
+		}
+		q1.crossCorners();
+		q2.crossCorners();
+		q3.crossCorners();
+		q4.crossCorners();
+	}
+	
+	/**
+	 * @return the threads that divide big sets
+	 */
+	private static synchronized ExecutorService dividers()
+	{
+		if(dividers == null)
+			dividers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), 
+					new DaemonThreads("Divider"));
+		return dividers;
 	}
 	
 	/**
@@ -466,7 +572,18 @@ public class RrCSGPolygon
 	{
 		csg = csg.simplify(Math.sqrt(res_2));
 		csg.clearCrossings();
-		divide_r(res_2, swell);
+		
+		boolean parallel = false;
+		try
+		{
+			parallel = Preferences.loadGlobalBool("ParallelDivision");
+		} catch (Exception e)
+		{}
+		if(parallel && csg.complexity() >= parallelComplexity && 
+				Runtime.getRuntime().availableProcessors() > 1)
+			divideParallel(res_2, swell);
+		else
+			divide_r(res_2, swell, true, -1, null);
 		csg.sortCrossings(true, this);
 	}
 	
@@ -474,6 +591,16 @@ public class RrCSGPolygon
 	 * Generate the edges (if any) in a leaf quad
 	 */
 	public void evaluate()
+	{
+		evaluate(true);
+	}
+	
+	/**
+	 * Generate the edges (if any) in a leaf quad
+	 * @param cross record a corner's crossings now (if false, corner is
+	 * left true for crossCorners() to do it)
+	 */
+	private void evaluate(boolean cross)
 	{
 		edgeCount = 0;
 		corner = false;
@@ -488,8 +615,10 @@ public class RrCSGPolygon
 			// One half-plane in the box:
 			
 		case LEAF:
-			i1 = RrInterval.bigInterval();
-			i1 = box.wipe(csg.plane().pLine(), i1);
+			if(i1 == null)
+				i1 = new RrInterval();
+			i1.set(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+			box.wipe(csg.plane().pLine(), i1, i1);
 			if(i1.empty()) 
 				return;
 			edgeCount = 1;
@@ -505,22 +634,26 @@ public class RrCSGPolygon
 					csg.complexity());
 				return;
 			}
-			i1 = RrInterval.bigInterval();
-			i1 = box.wipe(csg.c_1().plane().pLine(), i1);
+			if(i1 == null)
+				i1 = new RrInterval();
+			i1.set(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+			box.wipe(csg.c_1().plane().pLine(), i1, i1);
 			
-			i2 = RrInterval.bigInterval();
-			i2 = box.wipe(csg.c_2().plane().pLine(), i2);
+			if(i2 == null)
+				i2 = new RrInterval();
+			i2.set(Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+			box.wipe(csg.c_2().plane().pLine(), i2, i2);
 			
 			if(csg.operator() == RrCSGOp.INTERSECTION)
 			{
-				i2 = csg.c_1().plane().wipe(csg.c_2().plane().pLine(), i2);
-				i1 = csg.c_2().plane().wipe(csg.c_1().plane().pLine(), i1);
+				csg.c_1().plane().wipe(csg.c_2().plane().pLine(), i2, i2);
+				csg.c_2().plane().wipe(csg.c_1().plane().pLine(), i1, i1);
 			} else
 			{
-				i2 = csg.c_1().plane().complement().wipe(
-						csg.c_2().plane().pLine(), i2);
-				i1 = csg.c_2().plane().complement().wipe(
-						csg.c_1().plane().pLine(), i1);                    
+				csg.c_1().plane().wipeComplement(
+						csg.c_2().plane().pLine(), i2, i2);
+				csg.c_2().plane().wipeComplement(
+						csg.c_1().plane().pLine(), i1, i1);                    
 			}
 			
 			if(!i1.empty())
@@ -548,7 +681,7 @@ public class RrCSGPolygon
 			// NB if the corner was in another box and this one (because of swell
 			// overlap) only the first gets recorded.
 			
-			if(corner)
+			if(corner && cross)
 				corner = RrHalfPlane.cross(this);
 			return;
 			
@@ -966,6 +1099,50 @@ public class RrCSGPolygon
 		return result;
 	}
 	
+	/**
+	 * Collect each half-plane in a set once
+	 * @param c
+	 * @param planes
+	 * @param seen
+	 */
+	private static void modelPlanes(RrCSG c, List<RrHalfPlane> planes, 
+			IdentityHashMap<RrHalfPlane, RrHalfPlane> seen)
+	{
+		if(c.complexity() > 1)
+		{
+			modelPlanes(c.c_1(), planes, seen);
+			modelPlanes(c.c_2(), planes, seen);
+		} else if(c.operator() == RrCSGOp.LEAF)
+		{
+			if(seen.put(c.plane(), c.plane()) == null)
+				planes.add(c.plane());
+		}
+	}
+	
+	/**
+	 * The pieces of model edge (corner 2k to corner 2k+1 along each
+	 * half-plane, as meg() walks them) sorted by the hatch offset at which
+	 * they start, measured from hatch line first.
+	 * @param first
+	 * @return sorted pieces
+	 */
+	private List<hatchEdge> hatchEdges(RrHalfPlane first)
+	{
+		List<RrHalfPlane> planes = new ArrayList<RrHalfPlane>();
+		modelPlanes(csg, planes, new IdentityHashMap<RrHalfPlane, RrHalfPlane>());
+		
+		List<hatchEdge> edges = new ArrayList<hatchEdge>();
+		for(int i = 0; i < planes.size(); i++)
+		{
+			RrHalfPlane p = planes.get(i);
+			for(int j = 0; j + 1 < p.size(); j += 2)
+				edges.add(new hatchEdge(p, p.getQuad(j), p.getQuad(j + 1), 
+						first.value(p.getPoint(j)), first.value(p.getPoint(j + 1))));
+		}
+		Collections.sort(edges);
+		return edges;
+	}
+	
 	/**
 	 * Hatch a csg polygon parallel to line hp with index gap
 	 * @param hp
@@ -982,6 +1159,8 @@ public class RrCSGPolygon
 		Rr2Point orth = hp.normal();
 		
 		int quadPointing = (int)(2 + 2*Math.atan2(orth.y(), orth.x())/Math.PI);
+		if(quadPointing == 4)   // atan2() gives +pi as well as -pi
+			quadPointing = 0;
 		
 		Rr2Point org = big.ne();
 		
@@ -1011,12 +1190,44 @@ public class RrCSGPolygon
 
 		List<RrHalfPlane> hatches = new ArrayList<RrHalfPlane>();
 		
+		// Rather than query the quad tree for every hatch line, sort the
+		// pieces of model edge once by where they start along the hatch
+		// normal and sweep the lines across them.  Line k's value at a point
+		// is the first line's less s = (first offset - line k's offset), so a piece
+		// is crossed by every line whose s is in its [low, high).
+		
+		List<hatchEdge> edges = hatchEdges(hatcher);
+		List<hatchEdge> active = new ArrayList<hatchEdge>();
+		int next = 0;
+		double first = hatcher.offset();
+		
 		double g = 0;		
 		while (g < d)
 		{
-			lineIntersect(hatcher, RrInterval.bigInterval(), true);
+			double s = first - hatcher.offset();
+			while(next < edges.size() && edges.get(next).low <= s)
+				active.add(edges.get(next++));
+			int j = 0;
+			for(int i = 0; i < active.size(); i++)
+			{
+				hatchEdge e = active.get(i);
+				if(e.high <= s)
+					continue;
+				active.set(j++, e);
+				try
+				{
+					hatcher.addCrossing(e.plane.cross_t(hatcher.pLine()), e.quad(s));
+				} catch (RrParallelLineException ple)
+				{}
+			}
+			while(active.size() > j)
+				active.remove(active.size() - 1);
+			
 			if(hatcher.size() > 0)
+			{
+				hatcher.sort(true, this);
 				hatches.add(hatcher);
+			}
 			hatcher = hatcher.offset(gap);
 			g += gap;
 		}
@@ -10,6 +10,11 @@ import org.reprap.Extruder;
  * can be multiple polygons themselves) so that you each entry
  * can be one collection of polygons per material (attribute).
  * 
+ * With the scanline geometry backend (see STLSlice) the entries are
+ * ScanPolygons instead; offset(), megList() and hatch() work the same 
+ * either way.  size() counts both kinds, but get(i) only returns CSG
+ * ones (the first csgSize() of them); use isScan(i) to tell which is which.
+ * 
  * @author Adrian
  *
  */
@@ -20,54 +25,45 @@ public class RrCSGPolygonList {
 	List<RrCSGPolygon> csgPolygons = null;
 	
 	/**
-	 * Flag to prevent cyclic graphs going round forever
+	 * The list of scanline polygons (all the entries are one kind or the other)
 	 */
-	private boolean beingDestroyed = false;
+	List<ScanPolygon> scanPolygons = null;
 	
 	/**
-	 * Destroy me and all that I point to
+	 * 
 	 */
-	public void destroy() 
+	public RrCSGPolygonList()
 	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		if(csgPolygons != null)
-		{
-			for(int i = 0; i < csgPolygons.size(); i++)
-			{
-				csgPolygons.get(i).destroy();
-				csgPolygons.set(i, null);
-			}
-		}
-		csgPolygons = null;
-		beingDestroyed = false;
+		csgPolygons = new ArrayList<RrCSGPolygon>();
+		scanPolygons = new ArrayList<ScanPolygon>();
 	}
 	
 	/**
-	 * Destroy just me
+	 * Add polygon c
+	 * @param c
 	 */
-	protected void finalize() throws Throwable
+	public void add(RrCSGPolygon c)
 	{
-		csgPolygons = null;
-		super.finalize();
+		csgPolygons.add(c);
 	}
 	
 	/**
-	 * 
+	 * Add scanline polygon c
+	 * @param c
 	 */
-	public RrCSGPolygonList()
+	public void add(ScanPolygon c)
 	{
-		csgPolygons = new ArrayList<RrCSGPolygon>();
+		scanPolygons.add(c);
 	}
 	
 	/**
-	 * Add polygon c
-	 * @param c
+	 * Add all the entries of another list
+	 * @param l
 	 */
-	public void add(RrCSGPolygon c)
+	public void add(RrCSGPolygonList l)
 	{
-		csgPolygons.add(c);
+		csgPolygons.addAll(l.csgPolygons);
+		scanPolygons.addAll(l.scanPolygons);
 	}
 	
 	/**
@@ -77,18 +73,73 @@ public class RrCSGPolygonList {
 	 */
 	public RrCSGPolygon get(int i)
 	{
+		if(isScan(i))
+			throw new IndexOutOfBoundsException("RrCSGPolygonList.get(): entry " + i + 
+					" is a scanline polygon, not a CSG one (there are " + csgSize() + ")");
 		return csgPolygons.get(i);
 	}
 	
 	/**
-	 * How many polygons?
+	 * How many polygons (of either kind)?
 	 * @return
 	 */
 	public int size()
+	{
+		return csgPolygons.size() + scanPolygons.size();
+	}
+	
+	/**
+	 * How many CSG polygons?  These are the entries get() can return.
+	 * @return
+	 */
+	public int csgSize()
 	{
 		return csgPolygons.size();
 	}
 	
+	/**
+	 * @param i
+	 * @return true if the ith entry is a scanline polygon rather than a CSG one
+	 */
+	public boolean isScan(int i)
+	{
+		return i >= csgPolygons.size() && i < size();
+	}
+	
+	/**
+	 * @param i
+	 * @return the ith scanline polygon, counting after any CSG ones
+	 */
+	private ScanPolygon scan(int i)
+	{
+		return scanPolygons.get(i - csgPolygons.size());
+	}
+	
+	/**
+	 * @param i
+	 * @return the attributes of the ith entry, whichever kind it is
+	 */
+	private Attributes attributes(int i)
+	{
+		if(i < csgPolygons.size())
+			return get(i).getAttributes();
+		return scan(i).getAttributes();
+	}
+	
+	/**
+	 * Offset the ith entry, whichever kind it is, and add it to a list
+	 * @param result
+	 * @param i
+	 * @param d
+	 */
+	private void addOffset(RrCSGPolygonList result, int i, double d)
+	{
+		if(i < csgPolygons.size())
+			result.add(get(i).offset(d));
+		else
+			result.add(scan(i).offset(d));
+	}
+	
 	/**
 	 * The minimum enclosing rectangle
 	 * @return
@@ -96,8 +147,10 @@ public class RrCSGPolygonList {
 	public RrBox box()
 	{
 		RrBox result = new RrBox();
-		for(int i = 0; i < size(); i++)
+		for(int i = 0; i < csgPolygons.size(); i++)
 			result.expand(get(i).box());
+		for(int i = 0; i < scanPolygons.size(); i++)
+			result.expand(scanPolygons.get(i).box());
 		return result;
 	}
 	
@@ -112,7 +165,7 @@ public class RrCSGPolygonList {
 		RrCSGPolygonList result = new RrCSGPolygonList();
 		for(int i = 0; i < size(); i++)
 		{
-			Attributes att = get(i).getAttributes();
+			Attributes att = attributes(i);
 			if(att == null)
 				System.err.println("offset(): null attribute!");
 			else
@@ -122,14 +175,14 @@ public class RrCSGPolygonList {
 				if(outline)
 				{
 					for(int shell = 0; shell < shells; shell++)
-						result.add(get(i).offset(-((double)shell + 0.5)*e.getExtrusionSize()));
+						addOffset(result, i, -((double)shell + 0.5)*e.getExtrusionSize());
 				} else
 				{
 					// Must be a hatch.  Only do it if the gap is +ve
 					
 					if (e.getExtrusionInfillWidth(0, 1) > 0)  // Z valuesn't mattere here
-						result.add(get(i).offset(-((double)shells + 0.5)*e.getExtrusionSize() + 
-							e.getInfillOverlap()));
+						addOffset(result, i, -((double)shells + 0.5)*e.getExtrusionSize() + 
+							e.getInfillOverlap());
 				}
 			}
 		}
@@ -137,13 +190,13 @@ public class RrCSGPolygonList {
 	}
 	
 	/**
-	 * Recursively divide the lot
+	 * Recursively divide the lot (scanline polygons don't need it)
 	 * @param res_2
 	 * @param swell
 	 */
 	public void divide(double res_2, double swell)
 	{
-		for(int i = 0; i < size(); i++)
+		for(int i = 0; i < csgPolygons.size(); i++)
 			get(i).divide(res_2, swell);
 	}
 	
@@ -154,8 +207,10 @@ public class RrCSGPolygonList {
 	public RrPolygonList megList()
 	{
 		RrPolygonList result = new RrPolygonList();
-		for(int i = 0; i < size(); i++)
+		for(int i = 0; i < csgPolygons.size(); i++)
 			result.add(get(i).megList());
+		for(int i = 0; i < scanPolygons.size(); i++)
+			result.add(scanPolygons.get(i).megList());
 		return result;
 	}
 	
@@ -170,8 +225,11 @@ public class RrCSGPolygonList {
 		RrPolygonList result = new RrPolygonList();
 		for(int i = 0; i < size(); i++)
 		{
-			Attributes att = get(i).getAttributes();
-			result.add(get(i).hatch(hp, att.getExtruder(es).getExtrusionInfillWidth(z, zMax)));
+			double gap = attributes(i).getExtruder(es).getExtrusionInfillWidth(z, zMax);
+			if(i < csgPolygons.size())
+				result.add(get(i).hatch(hp, gap));
+			else
+				result.add(scan(i).hatch(hp, gap));
 		}
 		return result;
 	}
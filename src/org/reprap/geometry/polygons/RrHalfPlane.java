@@ -55,75 +55,6 @@
 
 package org.reprap.geometry.polygons;
 
-import java.util.ArrayList;
-import java.util.List;
-
-/**
- * Small class to hold parameter/quad pairs
- * @author Adrian
- *
- */
-class lineIntersection
-{
-	/**
-	 * The line's parameter 
-	 */
-	private double t;
-	
-	/**
-	 * Quad containing hit plane 
-	 */
-	private RrCSGPolygon quad = null;
-	
-	/**
-	 * Flag to prevent cyclic graphs going round forever
-	 */
-	private boolean beingDestroyed = false;
-	
-	/**
-	 * Destroy me and all that I point to
-	 */
-	public void destroy() 
-	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		if(quad != null)
-			quad.destroy();
-		quad = null;
-	}
-	
-	/**
-	 * Destroy just me
-	 */
-	protected void finalize() throws Throwable
-	{
-		quad = null;
-		super.finalize();
-	}
-	
-	/**
-	 * @param v
-	 * @param q
-	 */
-	public lineIntersection(double v, RrCSGPolygon q)
-	{
-		t = v;
-		quad = q;
-	}
-	
-	/**
-	 * @return
-	 */
-	public double parameter() { return t; }
-	
-	/**
-	 * @return
-	 */
-	public RrCSGPolygon quad() { return quad; }
-}
-
-
 /**
  * Class to hold and manipulate linear half-planes
  */
@@ -142,51 +73,19 @@ public class RrHalfPlane
 	private RrLine p = null;
 	
 	/**
-	 * List of intersections with others
+	 * Intersections with others: the parameter along this line of each,
+	 * and the quad containing the plane hit, in parallel arrays 
+	 * of which the first crossingCount entries are in use
 	 */
-	private List<lineIntersection> crossings = null;
+	private double[] crossingT = null;
+	private RrCSGPolygon[] crossingQuad = null;
+	private int crossingCount = 0;
 	
 	/**
-	 * Flag to prevent cyclic graphs going round forever
+	 * Shared by all planes until they get a crossing
 	 */
-	private boolean beingDestroyed = false;
-	
-	/**
-	 * Destroy me and all that I point to
-	 */
-	public void destroy() 
-	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		if(normal != null)
-			normal.destroy();
-		normal = null;
-		if(p != null)
-			p.destroy();
-		p = null;
-		if(crossings != null)
-		{
-			for(int i = 0; i < size(); i++)
-			{
-				crossings.get(i).destroy();
-				crossings.set(i, null);
-			}
-		}
-		crossings = null;
-		beingDestroyed = false;
-	}
-	
-	/**
-	 * Destroy just me
-	 */
-	protected void finalize() throws Throwable
-	{
-		normal = null;
-		p = null;
-		crossings = null;
-		super.finalize();
-	}
+	private static final double[] noT = new double[0];
+	private static final RrCSGPolygon[] noQuad = new RrCSGPolygon[0];
 	
 	/**
 	 * Convert a parametric line
@@ -198,7 +97,7 @@ public class RrHalfPlane
 		p.norm();
 		normal = new Rr2Point(-p.direction().y(), p.direction().x());
 		offset = -Rr2Point.mul(l.origin(), normal());
-		crossings = new ArrayList<lineIntersection>();
+		removeCrossings();
 	}
 	
 	/**
@@ -220,8 +119,22 @@ public class RrHalfPlane
 		normal = new Rr2Point(a.normal);
 		offset = a.offset;
 		p = new RrLine(a.p);
-		crossings = new ArrayList<lineIntersection>(); // No point in deep copy -
-		                             // No pointers would match
+		removeCrossings(); // No point in deep copy -
+		                   // No pointers would match
+	}
+	
+	/**
+	 * Put one back together exactly as it was written out (see SliceCache)
+	 * @param l its (normalised) line
+	 * @param n its normal
+	 * @param o its offset
+	 */
+	RrHalfPlane(RrLine l, Rr2Point n, double o)
+	{
+		p = l;
+		normal = n;
+		offset = o;
+		removeCrossings();
 	}
 	
 	/**
@@ -239,7 +152,7 @@ public class RrHalfPlane
 	 */
 	public int size()
 	{
-		return crossings.size();
+		return crossingCount;
 	}
 	
 	/**
@@ -249,7 +162,7 @@ public class RrHalfPlane
 	 */
 	public double getParameter(int i)
 	{
-		return (crossings.get(i)).parameter();
+		return crossingT[i];
 	}
 	
 	/**
@@ -269,7 +182,7 @@ public class RrHalfPlane
 	 */
 	public RrCSGPolygon getQuad(int i)
 	{
-		return (crossings.get(i)).quad();
+		return crossingQuad[i];
 	}
 	
 	/**
@@ -336,18 +249,18 @@ public class RrHalfPlane
 				if(v > 0)
 				{
 					if(tiny)
-						crossings.remove(i);
+						remove(i);
 					else
-						crossings.add(i, crossings.get(i));
+						insert(i, crossingT[i], crossingQuad[i]);
 				}
 			} else
 			{
 				if(v <= 0)
 				{
 					if(tiny)
-						crossings.remove(i);
+						remove(i);
 					else
-						crossings.add(i, crossings.get(i));
+						insert(i, crossingT[i], crossingQuad[i]);
 				}	
 			}
 			odd = !odd;
@@ -357,7 +270,7 @@ public class RrHalfPlane
 		{
 			System.err.println("RrHalfPlane.solidSet(): odd number of crossings: " +
 					size());
-			crossings.remove(size() - 1);
+			remove(size() - 1);
 		}
 	}
 
@@ -389,7 +302,7 @@ public class RrHalfPlane
 				{
 					if(me)
 					{
-						crossings.add(new lineIntersection(v, q));
+						insert(size(), v, q);
 						return true;						
 					} else
 					{
@@ -398,7 +311,7 @@ public class RrHalfPlane
 						double pot = q.csg().value(x);
 						if(pot > -r && pot < r)
 						{
-							crossings.add(new lineIntersection(v, q));
+							insert(size(), v, q);
 							return true;
 						}
 					}
@@ -451,6 +364,17 @@ public class RrHalfPlane
 		return false;
 	}
 	
+	/**
+	 * Add a crossing that the caller already knows lies on the
+	 * boundary in quad q (used by the hatch sweep).
+	 * @param v
+	 * @param q
+	 */
+	void addCrossing(double v, RrCSGPolygon q)
+	{
+		insert(size(), v, q);
+	}
+
 	/**
 	 * Add a crossing
 	 * @param qc
@@ -476,9 +400,9 @@ public class RrHalfPlane
 	 */
 	public int find(RrCSGPolygon q)
 	{	
-		for(int i = 0; i < size(); i++)
+		for(int i = 0; i < crossingCount; i++)
 		{
-			if(getQuad(i) == q)
+			if(crossingQuad[i] == q)
 				return i;
 		}
 		System.err.println("RrHalfPlane.find(): quad not found!");
@@ -502,11 +426,44 @@ public class RrHalfPlane
 	}
 	
 	/**
-	 * Remove all crossings
+	 * Remove all crossings.  The arrays are kept for the next lot, but
+	 * let go of the quads so they don't keep old quad trees alive.
 	 */
 	public void removeCrossings()
 	{
-		crossings = new ArrayList<lineIntersection>();
+		if(crossingQuad == null)
+		{
+			crossingT = noT;
+			crossingQuad = noQuad;
+		} else
+			java.util.Arrays.fill(crossingQuad, 0, crossingCount, null);
+		crossingCount = 0;
+	}
+	
+	/**
+	 * Put a crossing in the list at position i, moving those 
+	 * from i on up one
+	 * @param i
+	 * @param v
+	 * @param q
+	 */
+	private void insert(int i, double v, RrCSGPolygon q)
+	{
+		if(crossingCount == crossingT.length)
+		{
+			int n = Math.max(4, 2*crossingCount);
+			double[] t = new double[n];
+			RrCSGPolygon[] c = new RrCSGPolygon[n];
+			System.arraycopy(crossingT, 0, t, 0, crossingCount);
+			System.arraycopy(crossingQuad, 0, c, 0, crossingCount);
+			crossingT = t;
+			crossingQuad = c;
+		}
+		System.arraycopy(crossingT, i, crossingT, i + 1, crossingCount - i);
+		System.arraycopy(crossingQuad, i, crossingQuad, i + 1, crossingCount - i);
+		crossingT[i] = v;
+		crossingQuad[i] = q;
+		crossingCount++;
 	}
 		
 	/**
@@ -515,50 +472,105 @@ public class RrHalfPlane
 	 */
 	public void remove(int i)
 	{
-		crossings.remove(i);
+		if(i < 0 || i >= crossingCount)
+			throw new IndexOutOfBoundsException("RrHalfPlane.remove(): " + i + " of " + crossingCount);
+		crossingCount--;
+		System.arraycopy(crossingT, i + 1, crossingT, i, crossingCount - i);
+		System.arraycopy(crossingQuad, i + 1, crossingQuad, i, crossingCount - i);
+		crossingQuad[crossingCount] = null;
 	}
 	
 	/**
-	 * Sort on ascending parameter value.
-	 * @param up use an ascending sort when true, descending when false
+	 * Lists no longer than this get an insertion sort
 	 */
-	public void sort(boolean up, RrCSGPolygon q)
+	private static final int shortSort = 24;
+	
+	/**
+	 * Does parameter a go before parameter b?
+	 * @param a
+	 * @param b
+	 * @param up
+	 * @return true if it does
+	 */
+	private static boolean before(double a, double b, boolean up)
 	{
 		if(up)
+			return a < b;
+		return a > b;
+	}
+	
+	/**
+	 * Stable merge sort of crossings [lo, hi) in place, using t and q
+	 * as scratch space for the left halves
+	 * @param lo
+	 * @param hi
+	 * @param up
+	 * @param t
+	 * @param q
+	 */
+	private void sort(int lo, int hi, boolean up, double[] t, RrCSGPolygon[] q)
+	{
+		if(hi - lo <= shortSort)
 		{
-			java.util.Collections.sort(crossings, 
-					new java.util.Comparator() 
-					{
-				public int compare(Object a, Object b)
+			for(int i = lo + 1; i < hi; i++)
+			{
+				double v = crossingT[i];
+				RrCSGPolygon c = crossingQuad[i];
+				int j = i - 1;
+				while(j >= lo && before(v, crossingT[j], up))
 				{
-					if(((lineIntersection)a).parameter() < 
-							((lineIntersection)b).parameter())
-						return -1;
-					else if (((lineIntersection)a).parameter() > 
-					((lineIntersection)b).parameter())
-						return 1;
-					return 0;
+					crossingT[j + 1] = crossingT[j];
+					crossingQuad[j + 1] = crossingQuad[j];
+					j--;
 				}
-					}
-			);
-		} else
+				crossingT[j + 1] = v;
+				crossingQuad[j + 1] = c;
+			}
+			return;
+		}
+		
+		int mid = (lo + hi) >>> 1;
+		sort(lo, mid, up, t, q);
+		sort(mid, hi, up, t, q);
+		if(!before(crossingT[mid], crossingT[mid - 1], up))
+			return;  // Already in order
+		
+		System.arraycopy(crossingT, lo, t, lo, mid - lo);
+		System.arraycopy(crossingQuad, lo, q, lo, mid - lo);
+		int i = lo;
+		int j = mid;
+		int k = lo;
+		while(i < mid && j < hi)
 		{
-			java.util.Collections.sort(crossings, 
-					new java.util.Comparator() 
-					{
-				public int compare(Object a, Object b)
-				{
-					if(((lineIntersection)a).parameter() > 
-							((lineIntersection)b).parameter())
-						return -1;
-					else if (((lineIntersection)a).parameter() < 
-					((lineIntersection)b).parameter())
-						return 1;
-					return 0;
-				}
-					}
-			);
-		}		
+			if(before(crossingT[j], t[i], up))
+			{
+				crossingT[k] = crossingT[j];
+				crossingQuad[k++] = crossingQuad[j++];
+			} else
+			{
+				crossingT[k] = t[i];
+				crossingQuad[k++] = q[i++];
+			}
+		}
+		while(i < mid)
+		{
+			crossingT[k] = t[i];
+			crossingQuad[k++] = q[i++];
+		}
+	}
+	
+	/**
+	 * Sort on ascending parameter value.  Crossings with equal parameters
+	 * stay in the order they were added.
+	 * @param up use an ascending sort when true, descending when false
+	 */
+	public void sort(boolean up, RrCSGPolygon q)
+	{
+		if(crossingCount > shortSort)
+			sort(0, crossingCount, up, new double[crossingCount], 
+					new RrCSGPolygon[crossingCount]);
+		else
+			sort(0, crossingCount, up, null, null);
 		if(size()%2 != 0)
 		{
 			//System.err.println("RrHalfPlane.sort(): odd number of crossings: " +
@@ -653,8 +665,39 @@ public class RrHalfPlane
 	 */
 	public RrInterval value(RrBox b)
 	{
-		return RrInterval.add(RrInterval.add((RrInterval.mul(b.x(), normal.x())), 
-				(RrInterval.mul(b.y(), normal.y()))), offset);
+		RrInterval result = new RrInterval();
+		value(b, result);
+		return result;
+	}
+	
+	/**
+	 * Find the potential interval of a box without making a new interval
+	 * @param b
+	 * @param result set to the potential interval of box b
+	 */
+	public void value(RrBox b, RrInterval result)
+	{
+		double nx = normal.x(), ny = normal.y();
+		double l, h;
+		if(nx > 0)
+		{
+			l = b.x().low()*nx;
+			h = b.x().high()*nx;
+		} else
+		{
+			l = b.x().high()*nx;
+			h = b.x().low()*nx;
+		}
+		if(ny > 0)
+		{
+			l = l + b.y().low()*ny;
+			h = h + b.y().high()*ny;
+		} else
+		{
+			l = l + b.y().high()*ny;
+			h = h + b.y().low()*ny;
+		}
+		result.set(l + offset, h + offset);
 	}
 	
 	/**
@@ -710,42 +753,103 @@ public class RrHalfPlane
 	public RrInterval wipe(RrLine a, RrInterval range)
 	{
 		if(range.empty()) return range;
+		RrInterval result = new RrInterval(range);
+		wipe(normal.x(), normal.y(), offset, a, result);
+		return result;
+	}
+	
+	/**
+	 * As wipe(a, range), but the answer goes in result (which may be 
+	 * range) rather than a new interval
+	 * @param a
+	 * @param range
+	 * @param result
+	 */
+	public void wipe(RrLine a, RrInterval range, RrInterval result)
+	{
+		result.set(range);
+		wipe(normal.x(), normal.y(), offset, a, result);
+	}
+	
+	/**
+	 * As complement().wipe(a, range), but without making the complement
+	 * or a new interval
+	 * @param a
+	 * @param range
+	 * @param result
+	 */
+	public void wipeComplement(RrLine a, RrInterval range, RrInterval result)
+	{
+		result.set(range);
+		wipe(-normal.x(), -normal.y(), -offset, a, result);
+	}
+	
+	/**
+	 * Cut a range down as new RrHalfPlane(new Rr2Point(x0, y0), 
+	 * new Rr2Point(x1, y1)).wipe(a, range) would, but without making the
+	 * half-plane.  The arithmetic is the same as the constructor's.
+	 * @param x0
+	 * @param y0
+	 * @param x1
+	 * @param y1
+	 * @param a
+	 * @param range changed in place
+	 */
+	static void wipe(double x0, double y0, double x1, double y1, RrLine a, 
+			RrInterval range)
+	{
+		double dx = x1 + (-x0);
+		double dy = y1 + (-y0);
+		double f = 1/Math.sqrt(dx*dx + dy*dy);
+		double nx = -(dy*f);
+		double ny = dx*f;
+		wipe(nx, ny, -(x0*nx + y0*ny), a, range);
+	}
+	
+	/**
+	 * The working part of wipe() for the half-plane with normal (nx, ny)
+	 * and offset off
+	 * @param nx
+	 * @param ny
+	 * @param off
+	 * @param a
+	 * @param range changed in place
+	 */
+	private static void wipe(double nx, double ny, double off, RrLine a, 
+			RrInterval range)
+	{
+		if(range.empty()) return;
 		
 		// Which way is the line pointing relative to our normal?
 		
-		boolean wipe_down = (Rr2Point.mul(a.direction(), normal) >= 0);
+		double det = a.direction().x()*nx + a.direction().y()*ny;
+		boolean wipe_down = (det >= 0);
 		
-		double t;
+		double t = off + (nx*a.origin().x() + ny*a.origin().y());
 		
-		try
-		{
-			t = cross_t(a);
-			if (t >= range.high())
-			{
-				if(wipe_down)
-					return range;
-				else
-					return new RrInterval();
-			} else if (t <= range.low())
-			{
-				if(wipe_down)
-					return new RrInterval();
-				else
-					return range;                
-			} else
-			{
-				if(wipe_down)
-					return new RrInterval(range.low(), t);
-				else
-					return new RrInterval(t, range.high());                 
-			}
-		} catch (RrParallelLineException ple)
+		if(det == 0)
 		{
-			t = value(a.origin());
 			if(t <= 0)
-				return range;
+				return;
+			range.clear();
+			return;
+		}
+		
+		t = -t/det;
+		if (t >= range.high())
+		{
+			if(!wipe_down)
+				range.clear();
+		} else if (t <= range.low())
+		{
+			if(wipe_down)
+				range.clear();
+		} else
+		{
+			if(wipe_down)
+				range.set(range.low(), t);
 			else
-				return new RrInterval();  
+				range.set(t, range.high());                 
 		}
 	}
 }
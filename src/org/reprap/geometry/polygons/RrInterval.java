@@ -64,22 +64,6 @@ public class RrInterval
 	private double high;
 	private boolean empty;
 	
-	/**
-	 * Destroy me and all that I point to
-	 */
-	public void destroy() 
-	{
-		// I don't point to anything
-	}
-	
-	/**
-	 * Destroy just me
-	 */
-	protected void finalize() throws Throwable
-	{
-		super.finalize();
-	}
-	
 	public RrInterval()
 	{
 		empty = true;
@@ -115,6 +99,40 @@ public class RrInterval
 	public double high() { return high; }
 	public boolean empty() { return empty; }
 	
+	/**
+	 * Reset the ends, so an interval can be reused rather than making
+	 * a new one
+	 * @param l
+	 * @param h
+	 */
+	public void set(double l, double h)
+	{
+		low = l;
+		high = h;
+		empty = (low > high);
+	}
+	
+	/**
+	 * Make this the same as another interval
+	 * @param i
+	 */
+	public void set(RrInterval i)
+	{
+		low = i.low;
+		high = i.high;
+		empty = i.empty;
+	}
+	
+	/**
+	 * Make this the empty interval, as new RrInterval() is
+	 */
+	public void clear()
+	{
+		low = 0;
+		high = 0;
+		empty = true;
+	}
+	
 	/**
 	 * The biggest possible
 	 * @return biggest possible interval
@@ -413,6 +431,7 @@ public class RrInterval
 		if (a.high < b.high) result = new RrInterval(result.low, a.high);
 		return(result);
 	}
+
 	
 	
 	/**
@@ -71,38 +71,6 @@ public class RrLine
 	 */
 	private Rr2Point origin = null;
 	
-	/**
-	 * Flag to prevent cyclic graphs going round forever
-	 */
-	private boolean beingDestroyed = false;
-	
-	/**
-	 * Destroy me and all that I point to
-	 */
-	public void destroy() 
-	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		if(direction != null)
-			direction.destroy();
-		direction = null;
-		if(origin != null)
-			origin.destroy();
-		origin = null;
-		beingDestroyed = false;
-	}
-	
-	/**
-	 * Destroy just me
-	 */
-	protected void finalize() throws Throwable
-	{
-		direction = null;
-		origin = null;
-		super.finalize();
-	}
-	
 	/**
 	 * Line between two points
 	 * @param a
@@ -124,6 +92,20 @@ public class RrLine
 		direction = new Rr2Point(r.direction);
 	}
 	
+	/**
+	 * Line from an origin and a direction (rather than a second point), 
+	 * so that one written out can be read back in exactly (see SliceCache)
+	 * @param o
+	 * @param d
+	 * @return the line
+	 */
+	static RrLine fromDirection(Rr2Point o, Rr2Point d)
+	{
+		RrLine r = new RrLine(o, o);
+		r.direction = new Rr2Point(d);
+		return r;
+	}
+	
 	/**
 	 * Make from an implicit half-plane
 	 */
@@ -85,9 +85,12 @@ public class RrPolygon
 	private static Random rangen = new Random(918273);
 	
 	/**
-	 * The (X, Y) points rond the polygon as Rr2Points
+	 * The (X, Y) points round the polygon, packed into two arrays so going
+	 * round them doesn't mean chasing (or making) Rr2Points.  Only the
+	 * first pointCount entries are used.
 	 */
-	private List<Rr2Point> points = null;
+	private double[] xs = null, ys = null;
+	private int pointCount = 0;
 	
 	/**
 	 * The atributes of the STL object that this polygon represents
@@ -99,74 +102,97 @@ public class RrPolygon
 	 */
 	private RrBox box = null;
 	
+	
 	/**
-	 * Flag to prevent cyclic graphs going round forever
+	 * Make an empty polygon
 	 */
-	private boolean beingDestroyed = false;
+	public RrPolygon(Attributes a)
+	{
+		if(a == null)
+			System.err.println("RrPolygon(): null attributes!");
+		xs = new double[8];
+		ys = new double[8];
+		pointCount = 0;
+		//flags = null;
+		att = a;
+		box = new RrBox();
+	}
 	
 	/**
-	 * Destroy me and all that I point to
+	 * Get the data
+	 * @param i
+	 * @return i-th point object of polygon
 	 */
-	public void destroy() 
+	public Rr2Point point(int i)
 	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		if(points != null)
-		{
-			for(int i = 0; i < size(); i++)
-			{
-				points.get(i).destroy();
-				points.set(i, null);
-			}
-		}
-		points = null;
-
-		if(box != null)
-			box.destroy();
-		box = null;
-		
-		// Don't destroy the attribute - that may still be needed
-		
-		//if(att != null)
-		//	att.destroy();
-		att = null;
-		beingDestroyed = false;
+		check(i);
+		return new Rr2Point(xs[i], ys[i]);
 	}
 	
 	/**
-	 * Destroy just me
+	 * Get the data without making a point
+	 * @param i
+	 * @return X coordinate of the i-th point
 	 */
-	protected void finalize() throws Throwable
+	public double x(int i)
 	{
-		points = null;
-		att = null;
-		box = null;
-		super.finalize();
+		check(i);
+		return xs[i];
 	}
 	
+	/**
+	 * @param i
+	 * @return Y coordinate of the i-th point
+	 */
+	public double y(int i)
+	{
+		check(i);
+		return ys[i];
+	}
 	
 	/**
-	 * Make an empty polygon
+	 * Complain about a point index that is out of range (as the
+	 * list the points used to be kept in would)
+	 * @param i
 	 */
-	public RrPolygon(Attributes a)
+	private void check(int i)
 	{
-		if(a == null)
-			System.err.println("RrPolygon(): null attributes!");
-		points = new ArrayList<Rr2Point>();
-		//flags = null;
-		att = a;
-		box = new RrBox();
+		if(i < 0 || i >= pointCount)
+			throw new IndexOutOfBoundsException("RrPolygon: point " + i + 
+					" of " + pointCount);
 	}
 	
 	/**
-	 * Get the data
+	 * Make room for at least n points
+	 * @param n
+	 */
+	private void ensureCapacity(int n)
+	{
+		if(n <= xs.length)
+			return;
+		int c = Math.max(n, 2*xs.length);
+		double[] x = new double[c];
+		double[] y = new double[c];
+		System.arraycopy(xs, 0, x, 0, pointCount);
+		System.arraycopy(ys, 0, y, 0, pointCount);
+		xs = x;
+		ys = y;
+	}
+	
+	/**
+	 * Put a point in at position i, moving the ones after it up
 	 * @param i
-	 * @return i-th point object of polygon
+	 * @param x
+	 * @param y
 	 */
-	public Rr2Point point(int i)
+	private void insert(int i, double x, double y)
 	{
-		return new Rr2Point(points.get(i));
+		ensureCapacity(pointCount + 1);
+		System.arraycopy(xs, i, xs, i + 1, pointCount - i);
+		System.arraycopy(ys, i, ys, i + 1, pointCount - i);
+		xs[i] = x;
+		ys[i] = y;
+		pointCount++;
 	}
 	
 	/**
@@ -214,7 +240,7 @@ public class RrPolygon
 	 */
 	public int size()
 	{
-		return points.size();
+		return pointCount;
 	}
 	
 	/**
@@ -224,8 +250,25 @@ public class RrPolygon
 	public RrPolygon(RrPolygon p)
 	{
 		this(p.att);
-		for(int i = 0; i < p.size(); i++)
-			add(new Rr2Point(p.point(i))); //, new Integer((p.flag(i))));		
+		copyFrom(p, 0);
+	}
+	
+	/**
+	 * Set this (empty) polygon's points to p's, starting with p's point
+	 * start and going round, and make the box for them.
+	 * @param p
+	 * @param start
+	 */
+	private void copyFrom(RrPolygon p, int start)
+	{
+		ensureCapacity(p.pointCount);
+		int rest = p.pointCount - start;
+		System.arraycopy(p.xs, start, xs, 0, rest);
+		System.arraycopy(p.ys, start, ys, 0, rest);
+		System.arraycopy(p.xs, 0, xs, rest, start);
+		System.arraycopy(p.ys, 0, ys, rest, start);
+		pointCount = p.pointCount;
+		re_box();
 	}
 	
 	/**
@@ -235,9 +278,21 @@ public class RrPolygon
 	 */
 	public void add(Rr2Point p)
 	{
-		points.add(new Rr2Point(p));
-		//flags.add(new Integer(f));
-		box.expand(p);
+		add(p.x(), p.y());
+	}
+	
+	/**
+	 * Add a new point without needing an Rr2Point
+	 * @param x
+	 * @param y
+	 */
+	public void add(double x, double y)
+	{
+		ensureCapacity(pointCount + 1);
+		xs[pointCount] = x;
+		ys[pointCount] = y;
+		pointCount++;
+		box.expand(x, y);
 	}
 	
 	/**
@@ -259,11 +314,10 @@ public class RrPolygon
 	{
 		if(p.size() == 0)
 			return;
-		for(int i = 0; i < p.size(); i++)
-		{
-			points.add(new Rr2Point(p.point(i)));
-			//flags.add(new Integer(p.flag(i))); 
-		}
+		ensureCapacity(pointCount + p.pointCount);
+		System.arraycopy(p.xs, 0, xs, pointCount, p.pointCount);
+		System.arraycopy(p.ys, 0, ys, pointCount, p.pointCount);
+		pointCount += p.pointCount;
 		box.expand(p.box);
 	}
 	
@@ -274,7 +328,10 @@ public class RrPolygon
 	 */
 	public void remove(int i)
 	{
-		points.remove(i);
+		check(i);
+		System.arraycopy(xs, i + 1, xs, i, pointCount - i - 1);
+		System.arraycopy(ys, i + 1, ys, i, pointCount - i - 1);
+		pointCount--;
 //		if(flags != null)
 //			flags.remove(i);
 	}
@@ -285,10 +342,9 @@ public class RrPolygon
 	public void re_box()
 	{
 		box = new RrBox();
-		int leng = size();
-		for(int i = 0; i < leng; i++)
+		for(int i = 0; i < pointCount; i++)
 		{
-			box.expand(points.get(i)); 
+			box.expand(xs[i], ys[i]); 
 		}
 	}
 	
@@ -300,10 +356,9 @@ public class RrPolygon
 	public void svg(PrintStream opf)
 	{
 		opf.println("<polygon points=\"");
-		int leng = size();
-		for(int i = 0; i < leng; i++)
-			opf.println(Double.toString((point(i)).x()) + "," 
-					+ Double.toString((point(i)).y()));
+		for(int i = 0; i < pointCount; i++)
+			opf.println(Double.toString(xs[i]) + "," 
+					+ Double.toString(ys[i]));
 		opf.println("\" />");
 	}
 		
@@ -314,50 +369,43 @@ public class RrPolygon
 	public RrPolygon negate()
 	{
 		RrPolygon result = new RrPolygon(att);
-		int f;
-		for(int i = size() - 1; i >= 0; i--)
+		result.ensureCapacity(pointCount);
+		for(int i = 0; i < pointCount; i++)
 		{
-//			if(i > 0)
-//				f = flag(i-1);
-//			else
-//				f = flag(size() - 1);
-			result.add(point(i)); //, f);
+			result.xs[i] = xs[pointCount - 1 - i];
+			result.ys[i] = ys[pointCount - 1 - i];
 		}
+		result.pointCount = pointCount;
+		result.re_box();
 		return result;
 	}
 	
 	/**
-	 * @return same polygon starting at a random vertex
+	 * @param start
+	 * @return same polygon starting at vertex start
 	 */
-	public RrPolygon randomStart()
+	public RrPolygon startAt(int start)
 	{
 		RrPolygon result = new RrPolygon(att);
-		int i = rangen.nextInt(size());
-		for(int j = 0; j < size(); j++)
-		{
-			result.add(new Rr2Point(point(i))); //, new Integer((flag(i))));
-			i++;
-			if(i >= size())
-				i = 0;
-		}
+		if(pointCount > 0)
+			result.copyFrom(this, start%pointCount);
 		return result;
 	}
 	
+	/**
+	 * @return same polygon starting at a random vertex
+	 */
+	public RrPolygon randomStart()
+	{
+		return startAt(rangen.nextInt(size()));
+	}
+	
 	/**
 	 * @return same polygon starting at point incremented from last polgon
 	 */
 	public RrPolygon incrementedStart(int layerNumber)
 	{
-		RrPolygon result = new RrPolygon(att);
-		int i = layerNumber % size();
-		for(int j = 0; j < size(); j++)
-		{
-			result.add(new Rr2Point(point(i))); //, new Integer((flag(i))));
-			i++;
-			if(i >= size())
-				i = 0;
-		}
-		return result;
+		return startAt(layerNumber % size());
 	}
 	
 	/**
@@ -367,18 +415,46 @@ public class RrPolygon
 	public double area()
 	{
 		double a = 0;
-		Rr2Point p, q;
-		int j;
-		for(int i = 1; i < size() - 1; i++)
+		double px, py, qx, qy;
+		for(int i = 1; i < pointCount - 1; i++)
 		{
-			j = i + 1;
-			p = Rr2Point.sub(point(i), point(0));
-			q = Rr2Point.sub(point(j), point(0));
-			a += Rr2Point.op(q, p);
+			px = xs[i] - xs[0];
+			py = ys[i] - ys[0];
+			qx = xs[i + 1] - xs[0];
+			qy = ys[i + 1] - ys[0];
+			a += qx*py - qy*px;
 		} 
 		return a*0.5;
 	}
 	
+	/**
+	 * Length of the path from the first point to the last
+	 * @param closed if true, include the edge from the last point back to the first
+	 * @return the length
+	 */
+	public double length(boolean closed)
+	{
+		double sum = 0;
+		for(int i = 1; i < pointCount; i++)
+			sum += segment(i - 1, i);
+		if(closed && pointCount > 1)
+			sum += segment(pointCount - 1, 0);
+		return sum;
+	}
+	
+	/**
+	 * Distance between two points, as Rr2Point.d()
+	 * @param i
+	 * @param j
+	 * @return the distance between points i and j
+	 */
+	private double segment(int i, int j)
+	{
+		double dx = xs[i] - xs[j];
+		double dy = ys[i] - ys[j];
+		return Math.sqrt(dx*dx + dy*dy);
+	}
+	
 	/**
 	 * Backtrack a given distance, inserting a new point there and returning its index
 	 * @param distance to backtrack
@@ -386,70 +462,98 @@ public class RrPolygon
 	 */
 	public int backStep(double d, boolean outline)
 	{
-		Rr2Point last, p;
+		int last;
 		int start = size() - 1;
 		if(outline)
-			last = point(0);
+			last = 0;
 		else
 		{
-			last = point(start);
+			last = start;
 			start--;
 		}
 		double sum = 0;
 		for(int i = start; i >= 0; i--)
 		{
-			p = point(i);
-			sum += Rr2Point.d(p, last);
+			sum += segment(i, last);
 			if(sum > d)
 			{
 				sum = sum - d;
-				p = Rr2Point.sub(last, p);
-				sum = sum/p.mod();
-				p = Rr2Point.add(point(i), Rr2Point.mul(sum, p));
+				double dx = xs[last] - xs[i];
+				double dy = ys[last] - ys[i];
+				sum = sum/Math.sqrt(dx*dx + dy*dy);
 				int j = i + 1;
-				if(j < size())
-				{
-					points.add(j, p);
-					//flags.add(j, flags.get(i));
-				} else
-				{
-					points.add(p);
-					//flags.add(flags.get(i));					
-				}
+				insert(j, xs[i] + sum*dx, ys[i] + sum*dy);
 				return(j);
 			}
-			last = p;
+			last = i;
 		}
 		return 0;
 	}
 	
 	/**
-	 * @param v1
-	 * @param d2
-	 * @return ??
+	 * Squared distance of point k from the segment joining points i and j
+	 * @param i
+	 * @param j
+	 * @param k
+	 * @return squared distance
 	 */
-	private int findAngleStart(int v1, double d2)
+	private double segmentD2(int i, int j, int k)
 	{
-		int leng = size();
-		Rr2Point p1 = point(v1%leng);
-		int v2 = v1;
-		for(int i = 0; i <= leng; i++)
+		double vx = xs[j] - xs[i];
+		double vy = ys[j] - ys[i];
+		double wx = xs[k] - xs[i];
+		double wy = ys[k] - ys[i];
+		double v2 = vx*vx + vy*vy;
+		if(v2 > 0)
+		{
+			double t = (wx*vx + wy*vy)/v2;
+			if(t > 1)
+				t = 1;
+			if(t > 0)
+			{
+				wx -= t*vx;
+				wy -= t*vy;
+			}
+		}
+		return wx*wx + wy*wy;
+	}
+	
+	/**
+	 * The point furthest from point i
+	 * @param i
+	 * @return its index
+	 */
+	private int furthestFrom(int i)
+	{
+		int f = i;
+		double d2 = -1;
+		for(int k = 0; k < pointCount; k++)
 		{
-			v2++;
-			RrLine line = new RrLine(p1, point(v2%leng));
-			for (int j = v1+1; j < v2; j++)
+			double dx = xs[k] - xs[i];
+			double dy = ys[k] - ys[i];
+			double dk = dx*dx + dy*dy;
+			if(dk > d2)
 			{
-				if (line.d_2(point(j%leng)).x() > d2)
-					return v2 - 1;
-			}	
+				d2 = dk;
+				f = k;
+			}
 		}
-		System.err.println("RrPolygon.findAngleStart(): polygon is all one straight line!");
-		return -1;
+		return f;
 	}
 	
 	/**
 	 * Simplify a polygon by deleting points from it that
-	 * are closer than d to lines joining other points
+	 * are closer than d to lines joining other points.
+	 * 
+	 * A radial pass first drops points closer than d to the
+	 * last point kept; then Douglas-Peucker splits the polygon
+	 * between two extreme points and keeps splitting each chord
+	 * at the remaining point furthest from it until every original
+	 * point lies within d of its chord, and a last sweep drops kept
+	 * points that the chord joining their neighbours makes redundant.
+	 * So no point of this polygon ends up more than d from the result,
+	 * and the work is close to linear in the number of points for
+	 * smooth outlines.
 	 * @param d
 	 * @return simplified polygon object
 	 */
@@ -458,24 +562,143 @@ public class RrPolygon
 		int leng = size();
 		if(leng <= 3)
 			return new RrPolygon(this);
-		RrPolygon r = new RrPolygon(att);
 		double d2 = d*d;
-		int v1 = findAngleStart(0, d2);
-		// We get back -1 if the points are in a straight line.
-		if (v1<0)
-			return new RrPolygon(this);
-		r.add(point(v1%leng)); //, flag(v1%leng));
-		int v2 = v1;
-		while(true)
+		
+		// Work round the polygon from one extreme point, a, to 
+		// the other, b, and back; both are always kept.
+		
+		int a = furthestFrom(furthestFrom(0));
+		int b = furthestFrom(a);
+		
+		// Candidates (as offsets from a) are the points the radial pass keeps;
+		// every point it drops is within d of the candidate before it.
+		// The last one is a again, closing the polygon.
+		
+		int[] cand = new int[leng + 1];
+		int count = 0;
+		int last = a;
+		cand[count++] = 0;
+		for(int k = 1; k < leng; k++)
+		{
+			int i = (a + k)%leng;
+			double dx = xs[i] - xs[last];
+			double dy = ys[i] - ys[last];
+			if(i == b || dx*dx + dy*dy >= d2)
+			{
+				cand[count++] = k;
+				last = i;
+			}
+		}
+		cand[count++] = leng;
+		
+		// Douglas-Peucker over the candidates, with an explicit stack
+		// of chords (candidate index pairs) still to be checked
+		
+		boolean[] keep = new boolean[count];
+		keep[0] = true;
+		int[] stack = new int[2*count + 4];
+		int top = 0;
+		int bc = 0;
+		while(cand[bc] != (b - a + leng)%leng)
+			bc++;
+		if(bc > 0)
 		{
-			// We get back -1 if the points are in a straight line. 
-			v2 = findAngleStart(v2, d2);
-			if((v2 > leng)||(v2<0))
-				return(r);
-			r.add(point(v2%leng)); //, flag(v2%leng));
+			keep[bc] = true;
+			stack[top++] = 0;
+			stack[top++] = bc;
 		}
-		// The compiler is very clever to spot that no return
-		// is needed here...
+		stack[top++] = bc;
+		stack[top++] = count - 1;
+		while(top > 0)
+		{
+			int cj = stack[--top];
+			int ci = stack[--top];
+			if(cj - ci < 2)
+				continue;
+			int i = (a + cand[ci])%leng;
+			int j = (a + cand[cj])%leng;
+			
+			// All the original points between must be close enough,
+			// but only a candidate may be the split
+			
+			double worst = 0;
+			int split = ci + 1;
+			double splitD2 = -1;
+			int c = ci + 1;
+			for(int k = cand[ci] + 1; k < cand[cj]; k++)
+			{
+				double dk = segmentD2(i, j, (a + k)%leng);
+				if(dk > worst)
+					worst = dk;
+				if(k == cand[c])
+				{
+					if(dk > splitD2)
+					{
+						splitD2 = dk;
+						split = c;
+					}
+					c++;
+				}
+			}
+			if(worst <= d2)
+				continue;
+			keep[split] = true;
+			stack[top++] = ci;
+			stack[top++] = split;
+			stack[top++] = split;
+			stack[top++] = cj;
+		}
+		
+		// Douglas-Peucker can keep points (the two extreme ones especially)
+		// that turn out not to be needed once the rest are chosen; drop
+		// any kept point if the chord joining its neighbours is close enough.
+		
+		int kept = 0;
+		for(int c = 0; c < count - 1; c++)
+			if(keep[c])
+				kept++;
+		for(int ca = 0; ca < count - 1 && kept > 3; ca++)
+		{
+			if(!keep[ca])
+				continue;
+			int cp = ca;
+			do cp = (cp + count - 2)%(count - 1); while(!keep[cp]);
+			int cn = ca;
+			do cn = (cn + 1)%(count - 1); while(!keep[cn]);
+			int from = cand[cp];
+			int to = cand[cn];
+			if(to <= from)
+				to += leng;
+			int i = (a + from)%leng;
+			int j = (a + to)%leng;
+			boolean close = true;
+			for(int k = from + 1; k < to && close; k++)
+				close = segmentD2(i, j, (a + k)%leng) <= d2;
+			if(close)
+			{
+				keep[ca] = false;
+				kept--;
+			}
+		}
+		
+		RrPolygon r = new RrPolygon(att);
+		for(int c = 0; c < count - 1; c++)
+		{
+			if(keep[c])
+			{
+				int i = (a + cand[c])%leng;
+				r.add(xs[i], ys[i]);
+			}
+		}
+		
+		// Nothing left but a line (or a point)
+		
+		if(r.size() < 3)
+		{
+			System.err.println("RrPolygon.simplify(): polygon is all one straight line!");
+			return new RrPolygon(this);
+		}
+		return r;
 	}
 	
 	/**
@@ -532,9 +755,9 @@ public class RrPolygon
 	 * @param a
 	 * @return the point
 	 */
-	private Rr2Point listPoint(int i, List<Integer> a)
+	private Rr2Point listPoint(int i, int[] a)
 	{
-		return point((a.get(i)).intValue());
+		return point(a[i]);
 	}
 		
 	/**
@@ -552,15 +775,15 @@ public class RrPolygon
 	 * find the top (+y) point of a polygon point list
 	 * @return the index in the list of the point
 	 */
-	private int topPoint(List<Integer> a)
+	private int topPoint(int[] a)
 	{
 		int top = 0;
-		double yMax = listPoint(top, a).y();
+		double yMax = ys[a[top]];
 		double y;
 
-		for(int i = 1; i < a.size(); i++)
+		for(int i = 1; i < a.length; i++)
 		{
-			y = listPoint(i, a).y();
+			y = ys[a[i]];
 			if(y > yMax)
 			{
 				yMax = y;
@@ -575,15 +798,15 @@ public class RrPolygon
 	 * find the bottom (-y) point of a polygon point list
 	 * @return the index in the list of the point
 	 */
-	private int bottomPoint(List<Integer> a)
+	private int bottomPoint(int[] a)
 	{
 		int bot = 0;
-		double yMin = listPoint(bot, a).y();
+		double yMin = ys[a[bot]];
 		double y;
 
-		for(int i = 1; i < a.size(); i++)
+		for(int i = 1; i < a.length; i++)
 		{
-			y = listPoint(i, a).y();
+			y = ys[a[i]];
 			if(y < yMin)
 			{
 				yMin = y;
@@ -593,122 +816,180 @@ public class RrPolygon
 		
 		return bot;
 	}
-
-	/**
-	 * Put the points on a triangle (list a) in the right order
-	 * @param a
-	 */
-	private void clockWise(List<Integer> a)
-	{
-		if(a.size() == 3)
-		{
-			Rr2Point q = Rr2Point.sub(listPoint(1, a), listPoint(0, a));
-			Rr2Point r = Rr2Point.sub(listPoint(2, a), listPoint(0, a));
-			if(Rr2Point.op(q, r) > 0)
-			{
-				Integer k = a.get(0);
-				a.set(0, a.get(1));
-				a.set(1, k);
-			}
-		} else
-			System.err.println("clockWise(): not called for a triangle!");
-	}
-	
 	
 	/**
 	 * Turn the list of hull points into a CSG convex polygon
 	 * @param hullPoints
 	 * @return CSG representation
 	 */	
-	public RrCSG toCSGHull(List<Integer> hullPoints)
+	public RrCSG toCSGHull(int[] hullPoints)
 	{
 		Rr2Point p, q;
-		RrCSG hull = RrCSG.universe();
-		p = listPoint(hullPoints.size() - 1, hullPoints);
-		for(int i = 0; i < hullPoints.size(); i++)
+		List<RrCSG> edges = new ArrayList<RrCSG>(hullPoints.length);
+		p = listPoint(hullPoints.length - 1, hullPoints);
+		for(int i = 0; i < hullPoints.length; i++)
 		{
 			q = listPoint(i, hullPoints);
-			hull = RrCSG.intersection(hull, new RrCSG(new RrHalfPlane(p, q)));
+			edges.add(new RrCSG(new RrHalfPlane(p, q)));
 			p = q;
 		}
 
-		return hull;
+		return RrCSG.intersection(edges);
+	}
+	
+	/**
+	 * Is the point at position i in list a before the one at position j
+	 * in x, then y, then position?
+	 * @param i
+	 * @param j
+	 * @param a
+	 * @return true if it is
+	 */
+	private boolean beforeXY(int i, int j, int[] a)
+	{
+		int p = a[i], q = a[j];
+		if(xs[p] != xs[q])
+			return xs[p] < xs[q];
+		if(ys[p] != ys[q])
+			return ys[p] < ys[q];
+		return i < j;
+	}
+	
+	/**
+	 * Merge sort positions [lo, hi) of s with beforeXY()
+	 * @param s positions in list a
+	 * @param lo
+	 * @param hi
+	 * @param a
+	 * @param scratch
+	 */
+	private void sortXY(int[] s, int lo, int hi, int[] a, int[] scratch)
+	{
+		if(hi - lo < 2)
+			return;
+		int mid = (lo + hi) >>> 1;
+		sortXY(s, lo, mid, a, scratch);
+		sortXY(s, mid, hi, a, scratch);
+		System.arraycopy(s, lo, scratch, lo, mid - lo);
+		int i = lo, j = mid, k = lo;
+		while(i < mid && j < hi)
+		{
+			if(beforeXY(s[j], scratch[i], a))
+				s[k++] = s[j++];
+			else
+				s[k++] = scratch[i++];
+		}
+		while(i < mid)
+			s[k++] = scratch[i++];
 	}
 	
 	/**
-	 * Remove all the points in a list that are within or on the hull
-	 * @param inConsideration
+	 * Twice the signed area of the triangle of positions o, a and b in list l
+	 * (positive if they turn anticlockwise)
+	 * @param o
+	 * @param a
+	 * @param b
+	 * @param l
+	 * @return signed area x 2
+	 */
+	private double turn(int o, int a, int b, int[] l)
+	{
+		int po = l[o], pa = l[a], pb = l[b];
+		return (xs[pa] - xs[po])*(ys[pb] - ys[po]) - (ys[pa] - ys[po])*(xs[pb] - xs[po]);
+	}
+	
+	/**
+	 * Put position p into a hull (of positions in list a) on the edge 
+	 * that runs along the line y = p's y, unless it's already there.
 	 * @param hull
-	 */		
-	private void outsideHull(List<Integer> inConsideration, RrCSG hull)
+	 * @param p
+	 * @param a
+	 * @return the new hull
+	 */
+	private int[] onFlatEdge(int[] hull, int p, int[] a)
 	{
-		Rr2Point p;
-		double small = Math.sqrt(Preferences.tiny());
-		for(int i = inConsideration.size() - 1; i >= 0; i--)
+		double y = ys[a[p]];
+		int edge = hull.length - 1;
+		for(int i = 0; i < hull.length; i++)
+		{
+			if(hull[i] == p)
+				return hull;
+			int j = (i + 1)%hull.length;
+			if(ys[a[hull[i]]] == y && ys[a[hull[j]]] == y)
+				edge = i;
+		}
+		int[] result = new int[hull.length + 1];
+		System.arraycopy(hull, 0, result, 0, edge + 1);
+		result[edge + 1] = p;
+		System.arraycopy(hull, edge + 1, result, edge + 2, hull.length - edge - 1);
+		return result;
+	}
+	
+	/**
+	 * Put the points on a triangle (list a) in the right order
+	 * @param a
+	 */
+	private void clockWise(int[] a)
+	{
+		if(a.length == 3)
 		{
-			p = listPoint(i, inConsideration);
-			if(hull.value(p) <= small)	
+			if(turn(0, 1, 2, a) > 0)
 			{
-				inConsideration.remove(i);
+				int k = a[0];
+				a[0] = a[1];
+				a[1] = k;
 			}
-		}
+		} else
+			System.err.println("clockWise(): not called for a triangle!");
 	}
 	
 	/**
-	 * Compute the convex hull of all the points in the list
+	 * Compute the convex hull of all the points in the list the slow way, by 
+	 * repeatedly adding the point that's farthest outside it
 	 * @param points
-	 * @return list of point index pairs of the points on the hull
+	 * @return list of the points on the hull
 	 */
-	private List<Integer> convexHull(List<Integer> points)
-	{	
-		if(points.size() < 3)
-		{
-			System.err.println("convexHull(): attempt to compute hull for " + points.size() + " points!");
-			return new ArrayList<Integer>();
-		}
-		
-		List<Integer> inConsideration = new ArrayList<Integer>(points);
+	private int[] farthestOutsideHull(int[] points)
+	{
+		int[] inConsideration = new int[points.length];
+		System.arraycopy(points, 0, inConsideration, 0, points.length);
+		int left = points.length;
 		
-		int i;
-
 		// The top-most and bottom-most points must be on the hull
 		
-		List<Integer> result = new ArrayList<Integer>();
-		int t = topPoint(inConsideration);
-		int b = bottomPoint(inConsideration);
-		result.add(inConsideration.get(t));
-		result.add(inConsideration.get(b));
+		int[] result = new int[points.length];
+		int t = topPoint(points);
+		int b = bottomPoint(points);
+		result[0] = inConsideration[t];
+		result[1] = inConsideration[b];
+		int count = 2;
 		if(t > b)
 		{
-			inConsideration.remove(t);
-			inConsideration.remove(b);
+			left = removeAt(inConsideration, left, t);
+			left = removeAt(inConsideration, left, b);
 		} else
 		{
-			inConsideration.remove(b);
-			inConsideration.remove(t);			
+			left = removeAt(inConsideration, left, b);
+			left = removeAt(inConsideration, left, t);
 		}
-			
+		
 		// Repeatedly add the point that's farthest outside the current hull
 		
-		int corner, after;
-		RrCSG hull;
-		double v, vMax;
-		Rr2Point p, q;
-		RrHalfPlane hp;
-		while(inConsideration.size() > 0)
+		double small = Math.sqrt(Preferences.tiny());
+		while(left > 0)
 		{
-			vMax = 0;   // Need epsilon?
-			corner = -1;
-			after = -1;
-			for(int testPoint = inConsideration.size() - 1; testPoint >= 0; testPoint--)
+			double vMax = 0;   // Need epsilon?
+			int corner = -1;
+			int after = -1;
+			for(int testPoint = left - 1; testPoint >= 0; testPoint--)
 			{
-				p = listPoint(result.size() - 1, result);
-				for(i = 0; i < result.size(); i++)
+				Rr2Point p = point(result[count - 1]);
+				for(int i = 0; i < count; i++)
 				{
-					q = listPoint(i, result);
-					hp = new RrHalfPlane(p, q);
-					v = hp.value(listPoint(testPoint, inConsideration));
-					if(result.size() == 2)
+					Rr2Point q = point(result[i]);
+					RrHalfPlane hp = new RrHalfPlane(p, q);
+					double v = hp.value(point(inConsideration[testPoint]));
+					if(count == 2)
 						v = Math.abs(v);
 					if(v >= vMax)
 					{
@@ -720,27 +1001,180 @@ public class RrPolygon
 				}
 			}
 			
-			if(corner >= 0)
-			{
-				result.add(after, inConsideration.get(corner));
-				inConsideration.remove(corner);
-			} else if(inConsideration.size() > 0)
+			if(corner < 0)
 			{
 				System.err.println("convexHull(): points left, but none included!");
-				return result;
+				break;
 			}
+			System.arraycopy(result, after, result, after + 1, count - after);
+			result[after] = inConsideration[corner];
+			count++;
+			left = removeAt(inConsideration, left, corner);
 			
 			// Get the first triangle in the right order
 			
-			if(result.size() == 3)
-				clockWise(result);
-
-			// Remove all points within the current hull from further consideration
+			int[] hull = new int[count];
+			System.arraycopy(result, 0, hull, 0, count);
+			if(count == 3)
+			{
+				clockWise(hull);
+				System.arraycopy(hull, 0, result, 0, count);
+			}
 			
-			hull = toCSGHull(result);
-			outsideHull(inConsideration, hull);
+			// Remove all points within the current hull from further consideration
+
+			RrCSG h = toCSGHull(hull);
+			for(int i = left - 1; i >= 0; i--)
+			{
+				if(h.value(point(inConsideration[i])) <= small)	
+					left = removeAt(inConsideration, left, i);
+			}
+		}
+		
+		int[] hull = new int[count];
+		System.arraycopy(result, 0, hull, 0, count);
+		return hull;
+	}
+	
+	/**
+	 * Take entry i out of the first n of a
+	 * @param a
+	 * @param n
+	 * @param i
+	 * @return n - 1
+	 */
+	private static int removeAt(int[] a, int n, int i)
+	{
+		System.arraycopy(a, i + 1, a, i, n - i - 1);
+		return n - 1;
+	}
+	
+	/**
+	 * Compute the convex hull of all the points in the list.  This is Andrew's 
+	 * monotone chain, tuned to give the same points as the old method of
+	 * repeatedly adding the point farthest outside: the top-most and bottom-most 
+	 * points (the first in the list if there are several) are always included, 
+	 * points on the hull's edges or within sqrt(tiny) of them aren't, and 
+	 * the first of coincident points is the one used.  Sets of points all in a
+	 * line are left to the old method.
+	 * @param points
+	 * @return list of indices of the points on the hull, clockwise
+	 */
+	private int[] convexHull(int[] points)
+	{	
+		int n = points.length;
+		if(n < 3)
+		{
+			System.err.println("convexHull(): attempt to compute hull for " + n + " points!");
+			return new int[0];
+		}
+		
+		// The top-most and bottom-most points must be on the hull
+		
+		int t = topPoint(points);
+		int b = bottomPoint(points);
+		if(t == b)
+			return farthestOutsideHull(points);  // All on a horizontal line
+		
+		// Sort the positions in the list on x then y, so the 
+		// upper chain then the lower one run clockwise
+		
+		int[] s = new int[n];
+		for(int i = 0; i < n; i++)
+			s[i] = i;
+		sortXY(s, 0, n, points, new int[n]);
+		
+		// Of coincident points only the first in the list counts
+		
+		int u = 0;
+		for(int m = 0; m < n; m++)
+		{
+			if(u > 0 && xs[points[s[m]]] == xs[points[s[u - 1]]] &&
+					ys[points[s[m]]] == ys[points[s[u - 1]]])
+				continue;
+			s[u++] = s[m];
+		}
+		
+		// Upper chain left to right, then lower chain back, 
+		// keeping only right turns
+		
+		int[] chain = new int[2*u];
+		int k = 0;
+		for(int m = 0; m < u; m++)
+		{
+			while(k >= 2 && turn(chain[k - 2], chain[k - 1], s[m], points) >= 0)
+				k--;
+			chain[k++] = s[m];
+		}
+		int upper = k + 1;
+		for(int m = u - 2; m >= 0; m--)
+		{
+			while(k >= upper && turn(chain[k - 2], chain[k - 1], s[m], points) >= 0)
+				k--;
+			chain[k++] = s[m];
 		}
+		k--;   // The last point is the first one again
 		
+		// Only positions from here on
+		
+		int[] hull = new int[k];
+		System.arraycopy(chain, 0, hull, 0, k);
+		hull = onFlatEdge(hull, t, points);
+		hull = onFlatEdge(hull, b, points);
+		
+		// Drop corners within sqrt(tiny) of the line between their neighbours,
+		// looking again at the neighbours of each one dropped
+		
+		double small = Math.sqrt(Preferences.tiny());
+		int h = hull.length;
+		int[] before = new int[h];
+		int[] after = new int[h];
+		int[] stack = new int[2*h + 1];
+		int top = 0;
+		for(int i = 0; i < h; i++)
+		{
+			before[i] = (i + h - 1)%h;
+			after[i] = (i + 1)%h;
+			stack[top++] = h - 1 - i;
+		}
+		int count = h;
+		while(top > 0 && count > 2)
+		{
+			int i = stack[--top];
+			if(before[i] < 0 || hull[i] == t || hull[i] == b)
+				continue;
+			RrHalfPlane hp = new RrHalfPlane(listPoint(hull[before[i]], points), 
+					listPoint(hull[after[i]], points));
+			if(hp.value(listPoint(hull[i], points)) <= small)
+			{
+				after[before[i]] = after[i];
+				before[after[i]] = before[i];
+				stack[top++] = after[i];
+				stack[top++] = before[i];
+				before[i] = -1;
+				count--;
+			}
+		}
+		if(count < h)
+		{
+			int[] shorter = new int[count];
+			int j = 0;
+			for(int i = 0; i < h; i++)
+				if(before[i] >= 0)
+					shorter[j++] = hull[i];
+			hull = shorter;
+		}
+		
+		// All (nearly) in a line: what the old method makes of that depends on
+		// the order it meets the points in, so use it.  There are only ever a
+		// few of these.
+		
+		if(hull.length < 3)
+			return farthestOutsideHull(points);
+		
+		int[] result = new int[hull.length];
+		for(int i = 0; i < hull.length; i++)
+			result[i] = points[hull[i]];
 		return result;
 	}
 	
@@ -753,11 +1187,11 @@ public class RrPolygon
 	 * Construct a list of all the points in the polygon
 	 * @return list of indices of points in the polygons
 	 */
-	private List<Integer> allPoints()
+	private int[] allPoints()
 	{
-		List<Integer> points = new ArrayList<Integer>();
+		int[] points = new int[size()];
 		for(int i = 0; i < size(); i++)
-				points.add(new Integer(i));
+				points[i] = i;
 		return points;
 	}
 	
@@ -771,19 +1205,10 @@ public class RrPolygon
 	 * Set all the flag values in a list the same
 	 * @param f
 	 */
-	private void flagSet(int f, List<Integer> a, int[] flags)
+	private void flagSet(int f, int[] a, int[] flags)
 	{
-//		if(flags == null)
-//		{
-//			flags = new int[size()];
-//			for(int i = 0; i < a.size(); i++)
-//				flags[((Integer)a.get(i)).intValue()] = f;
-//		} else
-//		{
-			for(int i = 0; i < a.size(); i++)
-				flags[(a.get(i)).intValue()] = f;
-//		}
-
+		for(int i = 0; i < a.length; i++)
+			flags[a[i]] = f;
 	}	
 	
 	/**
@@ -792,16 +1217,16 @@ public class RrPolygon
 	 * @param level
 	 * @return the section (null for none left)
 	 */
-	private List<Integer> polSection(List<Integer> a, int level, int[] flags)
+	private int[] polSection(int[] a, int level, int[] flags)
 	{
 		int flag, oldi;
-		oldi = a.size() - 1;
-		int oldFlag = flags[((Integer)a.get(oldi)).intValue()];
+		oldi = a.length - 1;
+		int oldFlag = flags[a[oldi]];
 
 		int ptr = -1;
-		for(int i = 0; i < a.size(); i++)
+		for(int i = 0; i < a.length; i++)
 		{
-			flag = flags[((Integer)a.get(i)).intValue()];
+			flag = flags[a[i]];
 
 			if(flag < level && oldFlag >= level) 
 			{
@@ -815,21 +1240,29 @@ public class RrPolygon
 		if(ptr < 0)
 			return null;
 		
-		List<Integer> result = new ArrayList<Integer>();
-		result.add(a.get(ptr));
-		ptr++;
-		if(ptr > a.size() - 1)
-			ptr = 0;
-		while(flags[((Integer)a.get(ptr)).intValue()] < level)
+		// Count it first, then copy it out
+		
+		int count = 2;
+		int end = ptr + 1;
+		if(end > a.length - 1)
+			end = 0;
+		while(flags[a[end]] < level)
 		{
-			result.add(a.get(ptr));
+			count++;
+			end++;
+			if(end > a.length - 1)
+				end = 0;
+		}
+		
+		int[] result = new int[count];
+		for(int i = 0; i < count; i++)
+		{
+			result[i] = a[ptr];
 			ptr++;
-			if(ptr > a.size() - 1)
+			if(ptr > a.length - 1)
 				ptr = 0;
 		}
 
-		result.add(a.get(ptr));
-
 		return result;
 	}
 	
@@ -839,26 +1272,23 @@ public class RrPolygon
 	 * @param level
 	 * @return CSG representation
 	 */
-	private RrCSG toCSGRecursive(List<Integer> a, int level, boolean closed, int[] flags)
+	private RrCSG toCSGRecursive(int[] a, int level, boolean closed, int[] flags)
 	{	
 		flagSet(level, a, flags);	
 		level++;
-		List<Integer> ch = convexHull(a);
-		if(ch.size() < 3)
+		int[] ch = convexHull(a);
+		if(ch.length < 3)
 		{
-			System.err.println("toCSGRecursive() - null convex hull: " + ch.size() +
+			System.err.println("toCSGRecursive() - null convex hull: " + ch.length +
 					" points.");
 			return RrCSG.nothing();
 		}
 		
 		flagSet(level, ch, flags);
-		RrCSG hull;
-
-
-		if(level%2 == 1)
-			hull = RrCSG.universe();
-		else
-			hull = RrCSG.nothing();
+		
+		// Collect everything to be combined, then build it as a balanced tree
+		
+		List<RrCSG> parts = new ArrayList<RrCSG>();
 
 		// Set-theoretically combine all the real edges on the convex hull
 
@@ -866,7 +1296,7 @@ public class RrPolygon
 		
 		if(closed)
 		{
-			oldi = a.size() - 1;
+			oldi = a.length - 1;
 			start = 0;
 		} else
 		{
@@ -874,18 +1304,15 @@ public class RrPolygon
 			start = 1;
 		}
 		
-		for(i = start; i < a.size(); i++)
+		for(i = start; i < a.length; i++)
 		{
-			oldFlag = flags[((Integer)a.get(oldi)).intValue()]; //listFlag(oldi, a);
-			flag = flags[((Integer)a.get(i)).intValue()]; //listFlag(i, a);
+			oldFlag = flags[a[oldi]]; //listFlag(oldi, a);
+			flag = flags[a[i]]; //listFlag(i, a);
 
 			if(oldFlag == level && flag == level)
 			{
 				RrHalfPlane hp = new RrHalfPlane(listPoint(oldi, a), listPoint(i, a));
-				if(level%2 == 1)
-					hull = RrCSG.intersection(hull, new RrCSG(hp));
-				else
-					hull = RrCSG.union(hull, new RrCSG(hp));
+				parts.add(new RrCSG(hp));
 			} 
 			
 			oldi = i;
@@ -894,19 +1321,16 @@ public class RrPolygon
 		// Finally deal with the sections on polygons that form the hull that
 		// are not themselves on the hull.
 		
-		List<Integer> section = polSection(a, level, flags);
+		int[] section = polSection(a, level, flags);
 		while(section != null)
 		{
-			if(level%2 == 1)
-				hull = RrCSG.intersection(hull,
-						toCSGRecursive(section, level, false, flags));
-			else
-				hull = RrCSG.union(hull, 
-						toCSGRecursive(section, level, false, flags));
+			parts.add(toCSGRecursive(section, level, false, flags));
 			section = polSection(a, level, flags);
 		}
 		
-		return hull;
+		if(level%2 == 1)
+			return RrCSG.intersection(parts);
+		return RrCSG.union(parts);
 	}
 	
 	/**
@@ -921,7 +1345,7 @@ public class RrPolygon
 		if(copy.area() < 0)
 			copy = copy.negate();
 
-		List<Integer> all = copy.allPoints();
+		int[] all = copy.allPoints();
 		int [] flags = new int[copy.size()];
 		RrCSG expression = copy.toCSGRecursive(all, 0, true, flags);
 
@@ -77,22 +77,6 @@ class chPair
 	 */
 	public int vertex;
 	
-	/**
-	 * Destroy me and all I point to
-	 */
-	public void destroy()
-	{
-		// I don't point to anything
-	}
-	
-	/**
-	 * Destroy just me
-	 */
-	protected void finalize() throws Throwable
-	{
-		super.finalize();
-	}
-	
 	/**
 	 * @param p
 	 * @param v
@@ -126,43 +110,6 @@ class treeList
 	 */
 	private treeList parent = null;
 	
-	/**
-	 * Flag to prevent cyclic graphs going round forever
-	 */
-	private boolean beingDestroyed = false;
-	
-	/**
-	 * Destroy me and all that I point to
-	 */
-	public void destroy() 
-	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		if(children != null)
-		{
-			for(int i = 0; i < children.size(); i++)
-			{
-				children.get(i).destroy();
-				children.set(i, null);
-			}
-		}
-		children = null;
-		if(parent != null)
-			parent.destroy();
-		parent = null;	
-	}
-	
-	/**
-	 * Destroy just me
-	 */
-	protected void finalize() throws Throwable
-	{
-		children = null;
-		parent = null;	
-		super.finalize();
-	}
-	
 	/**
 	 * Constructor builds from a polygon index
 	 * @param i
@@ -294,15 +241,16 @@ class treeList
 		if(size() == 0)
 			return csgPols.get(index);
 		
-		RrCSG offspring = RrCSG.nothing();
+		List<RrCSG> children = new ArrayList<RrCSG>(size());
 		
 		for(int i = 0; i < size(); i++)
 		{
 			treeList iEntry = getChild(i);
-			RrCSG iCSG = iEntry.buildCSG(csgPols);
-			offspring = RrCSG.union(offspring, iCSG);
+			children.add(iEntry.buildCSG(csgPols));
 		}
 		
+		RrCSG offspring = RrCSG.union(children);
+		
 		if(index < 0)
 			return offspring;
 		else
@@ -357,44 +305,6 @@ public class RrPolygonList
 	 */
 	private RrBox box = null;
 	
-	/**
-	 * Flag to prevent cyclic graphs going round forever
-	 */
-	private boolean beingDestroyed = false;
-	
-	/**
-	 * Destroy me and all that I point to
-	 */
-	public void destroy() 
-	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		if(polygons != null)
-		{
-			for(int i = 0; i < size(); i++)
-			{
-				polygons.get(i).destroy();
-				polygons.set(i,null);
-			}
-			polygons = null;
-		}
-		if(box != null)
-			box.destroy();
-		box = null;
-		beingDestroyed = false;
-	}
-	
-	/**
-	 * Destroy just me
-	 */
-	protected void finalize() throws Throwable
-	{
-		polygons = null;
-		box = null;
-		super.finalize();
-	}
-	
 	/**
 	 * Empty constructor
 	 */
@@ -593,6 +503,21 @@ public class RrPolygonList
 		return r;
 	}
 	
+	/**
+	 * Squared distance from a point to one of a polygon's points, as
+	 * Rr2Point.dSquared(p, q.point(j)) but without making the point
+	 * @param p
+	 * @param q
+	 * @param j
+	 * @return squared distance
+	 */
+	private static double dSquared(Rr2Point p, RrPolygon q, int j)
+	{
+		double dx = p.x() - q.x(j);
+		double dy = p.y() - q.y(j);
+		return dx*dx + dy*dy;
+	}
+	
 	/**
 	 * Re-order and (if need be) reverse the order of the polygons
 	 * in a list so the end of the first is near the start of the second and so on.
@@ -617,22 +542,19 @@ public class RrPolygonList
 		double d = Double.POSITIVE_INFINITY;
 		double d2;
 		int near = -1;
-		Rr2Point e1;
 		
 		if(startNearHere != null)
 		{
 			for(i = 0; i < size(); i++)
 			{
-				e1 = r.polygon(i).point(0);
-				d2 = Rr2Point.dSquared(startNearHere, e1);
+				d2 = dSquared(startNearHere, r.polygon(i), 0);
 				if(d2 < d)
 				{
 					near = i;
 					d = d2;
 					neg = false;
 				}
-				e1 = r.polygon(i).point(r.polygon(i).size() - 1);
-				d2 = Rr2Point.dSquared(startNearHere, e1);
+				d2 = dSquared(startNearHere, r.polygon(i), r.polygon(i).size() - 1);
 				if(d2 < d)
 				{
 					near = i;
@@ -665,8 +587,7 @@ public class RrPolygonList
 			d = Double.POSITIVE_INFINITY;
 			for(i = pg+1; i < r.size(); i++)
 			{
-				e1 = r.polygon(i).point(0);
-				d2 = Rr2Point.dSquared(end, e1);
+				d2 = dSquared(end, r.polygon(i), 0);
 				if(d2 < d)
 				{
 					near = i;
@@ -674,8 +595,7 @@ public class RrPolygonList
 					neg = false;
 				}
 				
-				e1 = r.polygon(i).point(r.polygon(i).size() - 1);
-				d2 = Rr2Point.dSquared(end, e1);
+				d2 = dSquared(end, r.polygon(i), r.polygon(i).size() - 1);
 				if(d2 < d)
 				{
 					near = i;
@@ -729,16 +649,16 @@ public class RrPolygonList
 	 * (Check twice to make sure...)
 	 * @param i
 	 * @param j
-	 * @param csgPols
+	 * @param programs the CSG polygons, compiled
 	 * @return true if the polygon is inside the CSG polygon, false if otherwise
 	 */
-	private boolean inside(int i, int j, List<RrCSG> csgPols)
+	private boolean inside(int i, int j, CSGProgram[] programs)
 	{
-		RrCSG exp = csgPols.get(j);
-		Rr2Point p = polygon(i).point(0);
-		boolean a = (exp.value(p) <= 0);
-		p = polygon(i).point(polygon(i).size()/2);
-		boolean b = (exp.value(p) <= 0);
+		CSGProgram exp = programs[j];
+		RrPolygon p = polygon(i);
+		boolean a = (exp.value(p.x(0), p.y(0)) <= 0);
+		int m = p.size()/2;
+		boolean b = (exp.value(p.x(m), p.y(m)) <= 0);
 		if (a != b)
 			System.err.println("RrPolygonList:inside() - i is both inside and outside j!");
 		return a;
@@ -788,6 +708,27 @@ public class RrPolygonList
 //		return count;
 //	}
 	
+	/**
+	 * Binary search
+	 * @param sorted ascending values
+	 * @param v
+	 * @return the index of the first value in sorted that is >= v
+	 */
+	private static int firstAtLeast(double[] sorted, double v)
+	{
+		int lo = 0;
+		int hi = sorted.length;
+		while(lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(sorted[mid] < v)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+	
 	/**
 	 * Take a list of CSG expressions, each one corresponding with the entry of the same 
 	 * index in this class, classify each as being inside other(s)
@@ -801,35 +742,61 @@ public class RrPolygonList
 		int i, j;
 		
 		treeList universe = new treeList(-1);
-		universe.addChild(new treeList(0));
+		
+		// Every polygon gets tested against the others, so it's worth
+		// flattening them all first
+		
+		CSGProgram[] programs = new CSGProgram[csgPols.size()];
+		for(i = 0; i < programs.length; i++)
+			programs[i] = csgPols.get(i).compile();
+		
+		// Each polygon has its own list, hung off the universe in order
+		
+		treeList[] lists = new treeList[size()];
+		for(i = 0; i < size(); i++)
+		{
+			lists[i] = new treeList(i);
+			universe.addChild(lists[i]);
+		}
 		
 		// For each polygon construct a list of all the others that
-		// are inside it (if any).
+		// are inside it (if any).  inside() goes by a polygon's first point,
+		// and nothing solid lies outside the box toCSG() gives a polygon, so
+		// only the polygons whose first points fall in that box need testing.
+		// Sort the first points on x so those can be picked out by two binary 
+		// searches rather than by looking at every polygon.
+		
+		double[] firstX = new double[size()];
+		int[] byX = new int[size()];
+		for(i = 0; i < size(); i++)
+		{
+			firstX[i] = polygon(i).x(0);
+			byX[i] = i;
+		}
+		TriangleZIndex.sort(byX, 0, size(), firstX, true);
+		double[] sortedX = new double[size()];
+		for(i = 0; i < size(); i++)
+			sortedX[i] = firstX[byX[i]];
 		
-		for(i = 0; i < size() - 1; i++)
+		int[] candidates = new int[size()];
+		for(i = 0; i < size(); i++)
 		{
-			treeList isList = universe.walkFind(i);
-			if(isList == null)
+			RrBox b = polygon(i).getBox().scale(1.1);
+			int count = 0;
+			for(j = firstAtLeast(sortedX, b.x().low()); j < size() && sortedX[j] <= b.x().high(); j++)
 			{
-				isList = new treeList(i);
-				universe.addChild(isList);
+				int k = byX[j];
+				if(k != i && b.y().in(polygon(k).y(0)))
+					candidates[count++] = k;
 			}
-
-			for(j = i + 1; j < size(); j++)
+			
+			// Children go in in index order, as they always have
+			
+			java.util.Arrays.sort(candidates, 0, count);
+			for(j = 0; j < count; j++)
 			{
-				treeList jsList = universe.walkFind(j);
-				if(jsList == null)
-				{
-					jsList = new treeList(j);
-					universe.addChild(jsList);
-				}
-
-
-				if(inside(j, i, csgPols))  // j inside i?
-					isList.addChild(jsList);
-
-				if(inside(i, j, csgPols))  // i inside j?
-					jsList.addChild(isList);						
+				if(inside(candidates[j], i, programs))  // candidate inside i?
+					lists[i].addChild(lists[candidates[j]]);
 			}
 		}
 		
@@ -842,9 +809,7 @@ public class RrPolygonList
 		
 		for(i = 0; i < size(); i++)
 		{		
-			treeList isList = universe.walkFind(i);
-			if(isList == null)
-				System.err.println("RrPolygonList.resolveInsides() - can't find list for polygon " + i);
+			treeList isList = lists[i];
 			treeList parent = isList.getParent();
 			if(parent != null)
 			{
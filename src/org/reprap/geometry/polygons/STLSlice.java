@@ -54,10 +54,13 @@
 package org.reprap.geometry.polygons;
 
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import javax.media.j3d.*;
 import javax.vecmath.*;
-import com.sun.j3d.utils.geometry.GeometryInfo;
-import com.sun.j3d.utils.geometry.NormalGenerator;
 import org.reprap.gui.STLObject;
 import org.reprap.Attributes;
 import org.reprap.Preferences;
@@ -83,53 +86,6 @@ class LineSegment
 	 */
 	public Attributes att = null;
 	
-	/**
-	 * Flag to prevent cyclic graphs going round forever
-	 */
-	private boolean beingDestroyed = false;
-	
-	/**
-	 * Destroy me and all that I point to
-	 */
-	public void destroy() 
-	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		if(a != null)
-			a.destroy();
-		a = null;
-		if(b != null)
-			b.destroy();
-		b = null;
-		if(qa != null)
-			qa.destroyLayer();
-		qa = null;
-		if(qb != null)
-			qb.destroyLayer();
-		qb = null;
-		
-		// Don't destroy the attribute - it may be needed
-		
-		//if(att != null)
-		//	att.destroy();
-		att = null;
-		
-	}
-	
-	/**
-	 * Destroy just me
-	 */
-	protected void finalize() throws Throwable
-	{
-		a = null;
-		b = null;
-		qa = null;
-		qb = null;
-		att = null;
-		super.finalize();
-	}
-	
 	/**
 	 * Constructor takes two intersection points with an STL triangle edge.
 	 * @param p
@@ -192,42 +148,6 @@ class trackPolygon
 	public LineSegment nextE = null;
 	public Rr2Point here = null;
 	
-	/**
-	 * Flag to prevent cyclic graphs going round forever
-	 */
-	private boolean beingDestroyed = false;
-	
-	/**
-	 * Destroy me and all that I point to
-	 */
-	public void destroy() 
-	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		if(nextQ != null)
-			nextQ.destroyLayer();
-		nextQ = null;
-		if(nextE != null)
-			nextE.destroy();
-		nextE = null;
-		if(here != null)
-			here.destroy();
-		here = null;
-		
-	}
-	
-	/**
-	 * Destroy just me
-	 */
-	protected void finalize() throws Throwable
-	{
-		nextQ = null;
-		nextE = null;
-		here = null;
-		super.finalize();
-	}
-	
 	public trackPolygon()
 	{
 		nextQ = null;
@@ -236,140 +156,6 @@ class trackPolygon
 	}
 }
 
-/**
- * Very small class to hold attributes (i.e. material made from) and transforms for
- * the objects made from them.
- * @author ensab
- *
- */
-class AandT
-{
-	public Attributes att = null;
-	public Transform3D trans = null;
-	
-	/**
-	 * Flag to prevent cyclic graphs going round forever
-	 */
-	private boolean beingDestroyed = false;
-	
-	/**
-	 * Destroy me and all that I point to
-	 */
-	public void destroy() 
-	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		
-		// Both the attribute and transform may be needed again
-		
-		if(att != null)
-		//	att.destroy();
-		att = null;
-		//if(trans != null)
-		//	trans.destroy();
-		trans = null;
-	}
-	
-	/**
-	 * Destroy just me
-	 */
-	protected void finalize() throws Throwable
-	{
-		att = null;
-		trans = null;
-		super.finalize();
-	}
-	
-	public AandT(Attributes a, Transform3D t)
-	{
-		att = a;
-		trans = t;
-	}
-}
-
-/**
- * list of materials and transforms of the objects made from them.
- * @author ensab
- *
- */
-class MaterialLists
-{
-	private ArrayList<AandT> ats[] = null;
-	int extruderCount;
-	
-	/**
-	 * Flag to prevent cyclic graphs going round forever
-	 */
-	private boolean beingDestroyed = false;
-	
-	/**
-	 * Destroy me and all that I point to
-	 */
-	public void destroy() 
-	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		if(ats != null)
-		{
-			for(int i = 0; i < ats.length; i++)
-			{
-				for(int j = 0; j < ats[i].size(); j++)
-				{
-					ats[i].get(j).destroy();
-					ats[i].set(j, null);
-				}
-				ats[i] = null;
-			}
-			
-		}
-		ats = null;
-	}
-		
-	/**
-	 * Destroy just me
-	 */
-	protected void finalize() throws Throwable
-	{
-		ats = null;
-		super.finalize();
-	}	
-	
-	public MaterialLists()
-	{
-		extruderCount = 0;
-		
-		try
-		{
-			extruderCount = Preferences.loadGlobalInt("NumberOfExtruders");
-		} catch (Exception ex)
-		{
-			System.err.println("MaterialLists(): " + ex.toString());
-		}
-		
-		ats = new ArrayList[extruderCount]; // Javanonsense: Why can't this be ats = new ArrayList<AandT>[extruderCount]; then?
-		for(int i = 0; i < extruderCount; i++)
-			ats[i] = new ArrayList<AandT>();
-	}
-	
-	public void add(Attributes a, Transform3D t)
-	{
-		int i = NullExtruder.getNumberFromMaterial(a.getMaterial());
-		if(i < 0 || i >= extruderCount)
-			System.err.println("MaterialLists.add() - dud material: " + a.getMaterial());
-		else
-			ats[i].add(new AandT(a, t));
-	}
-	
-	public ArrayList<AandT> getAandTs(int i)
-	{
-		return ats[i];
-	}
-	
-	public int getExtruderCount() { return extruderCount; }
-}
-
 /**
  * Class to hold all the STL objects in the scene and to compute slices through them.
  * The slices are computed by dividing a rectangle (box) in a quad tree down to the point
@@ -379,9 +165,10 @@ class MaterialLists
 public class STLSlice 
 {
 	/**
-	 * Used to make unbiased but arbitrary decisions
+	 * Used to make unbiased but arbitrary decisions.  Each slicer has its own
+	 * so that slices don't depend on what any other thread is doing.
 	 */
-	private static Random rangen = new Random(739127);
+	private Random rangen = null;
 	
 	/**
 	 * The STL objects in 3D
@@ -404,29 +191,44 @@ public class STLSlice
 	private STLSlice q1 = null, q2 = null, q3 = null, q4 = null;
 	
 	/**
-	 * Lists of the x coordinates of the segment endpoints in this quad
+	 * The x and y coordinates of the segment endpoints in this quad
 	 */
-	private ArrayList<Double> xCoords = null;
+	private double[] xCoords = null;
+	private double[] yCoords = null;
 	
 	/**
-	 * Lists of the y coordinates of the segment endpoints in this quad
-	 */	
-	private ArrayList<Double> yCoords = null;
+	 * How many there are in xCoords and yCoords
+	 */
+	private int coordCount = 0;
+	
+	/**
+	 * The segments the slice plane makes, clicked to the grid, before they are
+	 * joined up; one bucket for each material.  They are only turned into 
+	 * LineSegments in edges if the quad tree is needed.
+	 */
+	private GridSegments[] segments = null;
+	
+	/**
+	 * The triangles the slice plane cuts, for each material.  Each is big
+	 * enough for all that material's triangles and is used for every layer.
+	 */
+	private int[][] hits = null;
 	
 	/**
 	 * Squared diagonal of the smallest box to go to 
 	 */
-	private static double resolution_2 = Preferences.tiny();
+	private double resolution_2 = Preferences.tiny();
 	
 	/**
 	 * Swell factor for division
 	 */
-	private static double sFactor = 1;
+	private double sFactor = 1;
 	
 	/**
-	 * All the STL triangles and part-triangles below slice-height, Z 
+	 * The part of each material's objects below slice-height, Z, kept
+	 * from one layer to the next for the simulation window
 	 */
-	private List<Point3d> triangles = null;
+	private LowerShell[] shells = null;
 	
 	/**
 	 * Made from the below-Z triangles 
@@ -448,99 +250,77 @@ public class STLSlice
 	private boolean generateLowerTriangles = true;
 	
 	/**
-	 * Flag to prevent cyclic graphs going round forever
+	 * Join segments up with a hash table (true) or the quad tree (false)?
+	 */
+	private boolean hashStitching = false;
+	
+	/**
+	 * Follow the slice round the triangles' neighbours (falling back to hash 
+	 * stitching, then the quad tree)?
+	 */
+	private boolean meshStitching = false;
+	
+	/**
+	 * Make each material's part of a slice a ScanPolygon (true), or an
+	 * RrCSGPolygon (false)?
+	 */
+	private boolean scanline = false;
+	
+	/**
+	 * If we are slicing layer after layer, keep track of the triangles cut
+	 * as we go (null if not; each material has its own)
+	 */
+	private TriangleSweep[] sweeps = null;
+	
+	/**
+	 * Slices kept on disk from earlier runs (null if not wanted)
+	 */
+	private SliceCache cache = null;
+	
+	/**
+	 * Join up the materials' segments on several threads at once?
 	 */
-	private boolean beingDestroyed = false;
+	private boolean parallelMaterials = true;
 	
 	/**
-	 * Destroy me and (almost) all that I point to,
-	 * setting things up for the next layer
+	 * The threads that do that (shared by all slicers; made when first needed)
+	 */
+	private static ExecutorService materialPool = null;
+	
+	/**
+	 * Let go of the working state of the last slice (the edges, quad tree
+	 * and so on), setting things up for the next layer.  Nothing is
+	 * taken apart: once dropped here the whole lot becomes garbage
+	 * together.  The shells, below and the material lists are kept - we
+	 * need them next time.
 	 */
 	public void destroyLayer() 
 	{
-		if(beingDestroyed) // Prevent infinite loop
-			return;
-		beingDestroyed = true;
-		
-		// Don't destroy the shapeList - we need it for the next layer
-		
-//		if(shapeList != null)
-//		{
-//			for(int i = 0; i < shapeList.size(); i++)
-//			{
-//				shapeList.get(i).destroy();
-//				shapeList.set(i, null);
-//			}
-//		}
-//		shapeList = null;
-		
-		if(edges != null)
+		clearQuads();
+		if(segments != null)
 		{
-			for(int i = 0; i < edges.size(); i++)
-			{
-				edges.get(i).destroy();
-				edges.set(i, null);
-			}
+			for(int i = 0; i < segments.length; i++)
+				segments[i].clear();
 		}
-		edges = null;
-		if(box != null)
-			box.destroy();
-		box = null;
-		if(q1 != null)
-			q1.destroyLayer();
-		q1 = null;
-		if(q2 != null)
-			q2.destroyLayer();
-		q2 = null;
-		if(q3 != null)
-			q3.destroyLayer();
-		q3 = null;
-		if(q4 != null)
-			q4.destroyLayer();
-		q4 = null;
-		xCoords = null;
-		yCoords = null;
-		triangles = null;
-		
-		// We need below
-		//below = null;
-		
-		// We need the material lists next time
-		
-		//if(mls != null)
-		//	mls.destroy();
-		//mls = null;
-		
-		qp = null;		
-		
-		edges = new ArrayList<LineSegment>();
-		xCoords = new ArrayList<Double>();
-		yCoords = new ArrayList<Double>();
-		box = new RrBox();
-		triangles = new ArrayList<Point3d>();
-		beingDestroyed = false;
 	}
 	
 	/**
-	 * Destroy just me
+	 * Let go of the quad tree and the edges it was built from
 	 */
-	protected void finalize() throws Throwable
+	private void clearQuads()
 	{
-		shapeList = null;
-		edges = null;
-		box = null;
 		q1 = null;
 		q2 = null;
 		q3 = null;
 		q4 = null;
-		xCoords = null;
-		yCoords = null;
-		triangles = null;
-		below = null;
-		mls = null;
-		qp = null;				
-		super.finalize();
-	}	
+		qp = null;		
+		
+		edges = new ArrayList<LineSegment>();
+		xCoords = new double[16];
+		yCoords = new double[16];
+		coordCount = 0;
+		box = new RrBox();
+	}
 	
 	/**
 	 * Initialises a few things
@@ -552,10 +332,12 @@ public class STLSlice
 		q2 = null;
 		q3 = null;
 		q4 = null;
-		xCoords = new ArrayList<Double>();
-		yCoords = new ArrayList<Double>();
+		xCoords = new double[16];
+		yCoords = new double[16];
+		coordCount = 0;
 		box = new RrBox();
-		triangles = new ArrayList<Point3d>();
+		segments = null;
+		hits = null;
 	}
 	
 	/**
@@ -565,6 +347,7 @@ public class STLSlice
 	public STLSlice(List<STLObject> s)
 	{
 		setUp();
+		rangen = new Random(739127);
 		shapeList = s;
 		mls = new MaterialLists();
 		try
@@ -572,6 +355,19 @@ public class STLSlice
 			generateLowerTriangles = Preferences.loadGlobalBool("DisplaySimulation");
 		} catch (Exception e)
 		{}
+		String stitching = "quadtree";
+		try
+		{
+			stitching = Preferences.loadGlobalString("SliceStitching");
+			meshStitching = stitching.equalsIgnoreCase("mesh");
+			hashStitching = meshStitching || stitching.equalsIgnoreCase("hash");
+		} catch (Exception e)
+		{}
+		try
+		{
+			scanline = Preferences.loadGlobalString("GeometryBackend").equalsIgnoreCase("scanline");
+		} catch (Exception e)
+		{}
 		
 		// For each object, record its material and transform
 		
@@ -594,6 +390,74 @@ public class STLSlice
 	        	}
 	        }
 		}
+		mls.buildIndices();
+		if(meshStitching)
+			mls.buildMeshes();
+		
+		boolean sweep = true;
+		try
+		{
+			sweep = Preferences.loadGlobalBool("SweepSlicing");
+		} catch (Exception e)
+		{}
+		if(sweep)
+			sweeps = mls.sweeps();
+		
+		try
+		{
+			parallelMaterials = Preferences.loadGlobalBool("ParallelMaterials");
+		} catch (Exception e)
+		{}
+		if(Runtime.getRuntime().availableProcessors() < 2)
+			parallelMaterials = false;  // Nothing to be gained
+		
+		boolean caching = false;
+		int cacheSize = 100;
+		try
+		{
+			caching = Preferences.loadGlobalBool("SliceCache");
+			cacheSize = Preferences.loadGlobalInt("SliceCacheSize(MB)");
+		} catch (Exception e)
+		{}
+		if(caching && !scanline)  // The cache only holds CSG
+		{
+			try
+			{
+				cache = new SliceCache(mls, stitching, cacheSize);
+			} catch (Exception e)
+			{
+				System.err.println("STLSlice(): not caching slices: " + e);
+			}
+		}
+	}
+	
+	/**
+	 * Make a slicer for a single layer that shares the (read-only) objects
+	 * and triangle indices of s but has all its own working state.  Different
+	 * threads can then slice different layers at the same time.
+	 * @param s
+	 */
+	private STLSlice(STLSlice s)
+	{
+		setUp();
+		rangen = new Random(739127);
+		shapeList = s.shapeList;
+		mls = s.mls;
+		generateLowerTriangles = false;  // The shells stay with s (see shellBelow())
+		hashStitching = s.hashStitching;
+		meshStitching = s.meshStitching;
+		scanline = s.scanline;
+		sweeps = null;  // Layers may come in any order
+		cache = s.cache;
+		parallelMaterials = s.parallelMaterials;
+	}
+	
+	/**
+	 * @return a new slicer for one layer of the same objects as this
+	 */
+	public STLSlice layerSlicer()
+	{
+		return new STLSlice(this);
 	}
 	
 	/**
@@ -613,14 +477,31 @@ public class STLSlice
 	 */
 	public void add(Rr2Point p, Rr2Point q, Attributes att)
 	{
-		xCoords.add(new Double(p.x()));
-		xCoords.add(new Double(q.x()));
-		yCoords.add(new Double(p.y()));
-		yCoords.add(new Double(q.y()));
-		
+		addCoordinates(p);
+		addCoordinates(q);
 		edges.add(new LineSegment(p, q, att));
 	}
 	
+	/**
+	 * Record the coordinates of a segment end
+	 * @param p
+	 */
+	private void addCoordinates(Rr2Point p)
+	{
+		if(coordCount >= xCoords.length)
+		{
+			double[] bigger = new double[2*xCoords.length];
+			System.arraycopy(xCoords, 0, bigger, 0, coordCount);
+			xCoords = bigger;
+			bigger = new double[2*yCoords.length];
+			System.arraycopy(yCoords, 0, bigger, 0, coordCount);
+			yCoords = bigger;
+		}
+		xCoords[coordCount] = p.x();
+		yCoords[coordCount] = p.y();
+		coordCount++;
+	}
+	
 	/**
 	 * Return the box
 	 * @return 
@@ -686,53 +567,43 @@ public class STLSlice
 	 * @param x
 	 * @return grid value nearest x
 	 */
-	private double toGrid(double x)
+	static double toGrid(double x)
 	{
 		//return x;
-		return (double)((int)(x*Preferences.grid() + 0.5))*Preferences.gridRes();
+		return GridSegments.fromGrid(GridSegments.toGrid(x));
 	}
 	
 	/**
-	 * Add the edge where the plane z cuts the triangle (p, q, r) (if it does).
-	 * Also update the triangulation of the object below the current slice used
-	 * for the simulation window.
-	 * @param p
-	 * @param q
-	 * @param r
+	 * Add the edge where the plane z cuts triangle t (if it does).
+	 * The triangle's corners are the nine doubles starting at c[9*t].
+	 * @param c
+	 * @param t
 	 * @param z
+	 * @param att
+	 * @param bucket where to put the edge
 	 */
-	private void addEdge(Point3d p, Point3d q, Point3d r, double z, Attributes att)
+	private static void addEdge(double[] c, int t, double z, Attributes att, GridSegments bucket)
 	{
-		Point3d odd = null, even1 = null, even2 = null;
+		int p = 9*t, q = p + 3, r = p + 6;
+		int odd = 0, even1 = 0, even2 = 0;
 		int pat = 0;
-		boolean twoBelow = false;
 		
-		if(p.z < z)
+		if(c[p+2] < z)
 			pat = pat | 1;
-		if(q.z < z)
+		if(c[q+2] < z)
 			pat = pat | 2;
-		if(r.z < z)
+		if(c[r+2] < z)
 			pat = pat | 4;
 		
 		switch(pat)
 		{
-		// All above
+		// All above or all below
 		case 0:
-			return;
-			
-		// All below
 		case 7:
-			if(generateLowerTriangles)
-			{
-				triangles.add(new Point3d(p));
-				triangles.add(new Point3d(q));
-				triangles.add(new Point3d(r));
-			}
 			return;
 			
 		// q, r below, p above	
 		case 6:
-			twoBelow = true;
 		// p below, q, r above
 		case 1:
 			odd = p;
@@ -742,7 +613,6 @@ public class STLSlice
 			
 		// p, r below, q above	
 		case 5:
-			twoBelow = true;
 		// q below, p, r above	
 		case 2:
 			odd = q;
@@ -752,7 +622,6 @@ public class STLSlice
 
 		// p, q below, r above	
 		case 3:
-			twoBelow = true;
 		// r below, p, q above	
 		case 4:
 			odd = r;
@@ -762,131 +631,47 @@ public class STLSlice
 			
 		default:
 			System.err.println("addEdge(): the | function doesn't seem to work...");
+			return;
 		}
 		
 		// Work out the intersection line segment (e1 -> e2) between the z plane and the triangle
 		
-		even1.sub((Tuple3d)odd);
-		even2.sub((Tuple3d)odd);
-		double t = (z - odd.z)/even1.z;	
-		Rr2Point e1 = new Rr2Point(odd.x + t*even1.x, odd.y + t*even1.y);	
-		Point3d e3_1 = new Point3d(e1.x(), e1.y(), z);
-		e1 = new Rr2Point(toGrid(e1.x()), toGrid(e1.y()));
-		t = (z - odd.z)/even2.z;
-		Rr2Point e2 = new Rr2Point(odd.x + t*even2.x, odd.y + t*even2.y);
-		Point3d e3_2 = new Point3d(e2.x(), e2.y(), z);
-		e2 = new Rr2Point(toGrid(e2.x()), toGrid(e2.y()));
+		double ox = c[odd];
+		double oy = c[odd+1];
+		double oz = c[odd+2];
+		double s = (z - oz)/(c[even1+2] - oz);
+		double x1 = ox + s*(c[even1] - ox);
+		double y1 = oy + s*(c[even1+1] - oy);
+		s = (z - oz)/(c[even2+2] - oz);
+		double x2 = ox + s*(c[even2] - ox);
+		double y2 = oy + s*(c[even2+1] - oy);
 		
-		// Too short?
-		if(!Rr2Point.same(e1, e2, Preferences.lessGridSquare()))
-		{
-			add(e1, e2, att);
-			box.expand(e1);
-			box.expand(e2);
-		}
-		
-		// Sort out the bits of triangle to add to the shape under the z plane
+		// (Ones that are too short get dropped)
 		
-		if(twoBelow)
-		{
-			even1.add((Tuple3d)odd);
-			even2.add((Tuple3d)odd);
-			if(generateLowerTriangles)
-			{
-				triangles.add(new Point3d(even1));
-				triangles.add(new Point3d(even2));
-				triangles.add(new Point3d(e3_1));
-				triangles.add(new Point3d(e3_2));
-				triangles.add(new Point3d(e3_1));
-				triangles.add(new Point3d(even2));
-			}
-		} else if(generateLowerTriangles)
-		{
-			triangles.add(new Point3d(odd));
-			triangles.add(new Point3d(e3_1));
-			triangles.add(new Point3d(e3_2));
-		}
+		bucket.add(GridSegments.toGrid(x1), GridSegments.toGrid(y1), 
+				GridSegments.toGrid(x2), GridSegments.toGrid(y2), att);
 	}
 	
-
-	
-	/**
-	 * Run through a Shape3D and set edges from it at plane z
-	 * Apply the transform first
-	 * @param shape
-	 * @param trans
-	 * @param z
-	 */
-	private void addAllEdges(Shape3D shape, Transform3D trans, double z, Attributes att)
-    {
-        GeometryArray g = (GeometryArray)shape.getGeometry();
-        Point3d p1 = new Point3d();
-        Point3d p2 = new Point3d();
-        Point3d p3 = new Point3d();
-        Point3d q1 = new Point3d();
-        Point3d q2 = new Point3d();
-        Point3d q3 = new Point3d();
-        
-        if(g.getVertexCount()%3 != 0)
-        {
-        	System.err.println("addAllEdges(): shape3D with vertices not a multiple of 3!");
-        }
-        if(g != null)
-        {
-            for(int i = 0; i < g.getVertexCount(); i+=3) 
-            {
-                g.getCoordinate(i, p1);
-                g.getCoordinate(i+1, p2);
-                g.getCoordinate(i+2, p3);
-                trans.transform(p1, q1);
-                trans.transform(p2, q2);
-                trans.transform(p3, q3);
-                addEdge(q1, q2, q3, z, att);
-            }
-        }
-    }
-	
-	/**
-	 * Unpack the Shape3D(s) from value and set edges from them
-	 * @param value
-	 * @param trans
-	 * @param z
-	 */
-	private void recursiveSetEdges(Object value, Transform3D trans, double z, Attributes att) 
-    {
-        if(value instanceof SceneGraphObject) 
-        {
-            SceneGraphObject sg = (SceneGraphObject)value;
-            if(sg instanceof Group) 
-            {
-                Group g = (Group)sg;
-                java.util.Enumeration enumKids = g.getAllChildren( );
-                while(enumKids.hasMoreElements())
-                    recursiveSetEdges(enumKids.nextElement(), trans, z, att);
-            } else if (sg instanceof Shape3D) 
-            {
-                addAllEdges((Shape3D)sg, trans, z, att);
-            }
-        }
-    }
-	
 	/**
 	 * Constructor for building a branch quad in the division
 	 * @param pgl
 	 * @param b
-	 * @param res
-	 * @param fac
+	 * @param parent the quad being divided
 	 */
-	private STLSlice(List<LineSegment> pgl, RrBox b)
+	private STLSlice(List<LineSegment> pgl, RrBox b, STLSlice parent)
 	{
 		edges = pgl;
 		box = b;
+		rangen = parent.rangen;
+		resolution_2 = parent.resolution_2;
+		sFactor = parent.sFactor;
 		q1 = null;
 		q2 = null;
 		q3 = null;
 		q4 = null;
-		xCoords = new ArrayList<Double>();
-		yCoords = new ArrayList<Double>();
+		xCoords = new double[16];
+		yCoords = new double[16];
+		coordCount = 0;
 	}
 	
 	/**
@@ -909,16 +694,10 @@ public class STLSlice
 				result.add(segment(i));
 
 			if(aIn)
-			{
-				xCoords.add(new Double(aa.x()));
-				yCoords.add(new Double(aa.y()));
-			}
+				addCoordinates(aa);
 			
 			if(bIn)
-			{
-				xCoords.add(new Double(bb.x()));
-				yCoords.add(new Double(bb.y()));
-			}
+				addCoordinates(bb);
 		}
 				
 		edges = result;
@@ -931,24 +710,24 @@ public class STLSlice
 	 * @param i
 	 * @return
 	 */
-	private static double findGap(ArrayList<Double> coords, RrInterval i)
+	private double findGap(double[] coords, RrInterval i)
 	{
 		double g, v;
 		
-		Collections.sort(coords);
+		Arrays.sort(coords, 0, coordCount);
 		
-		int middle = coords.size()/2;
-		double vpOld = coords.get(middle).doubleValue();
+		int middle = coordCount/2;
+		double vpOld = coords[middle];
 		double vmOld = vpOld;
 		int p = middle + 1;
 		int m = middle - 1;
 		RrInterval biggest = new RrInterval(0, 0);
 		
-		while(p < coords.size() || m  >= 0)
+		while(p < coordCount || m  >= 0)
 		{
-			if(p < coords.size())
+			if(p < coordCount)
 			{
-				v = coords.get(p).doubleValue();
+				v = coords[p];
 				g = v - vpOld;
 				if(g > Preferences.gridRes()*0.1)
 				{
@@ -962,7 +741,7 @@ public class STLSlice
 			
 			if(m >= 0)
 			{
-				v = coords.get(m).doubleValue();
+				v = coords[m];
 				g = vmOld - v;
 				if(g > Preferences.gridRes()*0.1)
 				{
@@ -980,7 +759,7 @@ public class STLSlice
 		else
 		{
 			do
-				v = coords.get(0) + (rangen.nextDouble() - 0.5)*i.length();
+				v = coords[0] + (rangen.nextDouble() - 0.5)*i.length();
 			while(!i.in(v));
 			return v;
 		}
@@ -997,8 +776,8 @@ public class STLSlice
 		
 		// Not needed any more
 		
-		//xCoords = new ArrayList<Double>();
-		//yCoords = new ArrayList<Double>();
+		//xCoords = null;
+		//yCoords = null;
 		
 		// Sanity check
 		
@@ -1030,19 +809,19 @@ public class STLSlice
 //		 Put the results in the children
 		
 		RrBox b = new RrBox(nw, new Rr2Point(e, s));
-		q1 = new STLSlice(edges, b);
+		q1 = new STLSlice(edges, b, this);
 		q1.prune();
 		
 		b = new RrBox(ne, new Rr2Point(w, s));
-		q2 = new STLSlice(edges, b);
+		q2 = new STLSlice(edges, b, this);
 		q2.prune();
 		
 		b = new RrBox(se, new Rr2Point(w, n));
-		q3 = new STLSlice(edges, b);
+		q3 = new STLSlice(edges, b, this);
 		q3.prune();
 		
 		b = new RrBox(sw, new Rr2Point(e, n));
-		q4 = new STLSlice(edges, b);
+		q4 = new STLSlice(edges, b, this);
 		q4.prune();
 	}
 	
@@ -1281,6 +1060,16 @@ public class STLSlice
 	}
     
 
+	/**
+	 * @return how often the slice cache, mesh and hash stitching have worked, and 
+	 * how often they have had to fall back to the next method
+	 */
+	public static String slicingStatistics()
+	{
+		return SliceCache.statistics() + "; " + TriangleMesh.statistics() + "; " + 
+			SegmentStitcher.statistics();
+	}
+	
 	/**
 	 * Find the maximum height of the object(s) to be built
 	 * @return that height
@@ -1303,87 +1092,291 @@ public class STLSlice
 	/**
 	 * build a 2D polygon list of all edges in the plane z
 	 * from all the objects in shapeList then turn it in CSG form.
+	 * All the triangles are cut in one pass, with the segments going
+	 * into a bucket for each material; then the buckets are joined up,
+	 * at the same time if there is more than one.
 	 * @param z
 	 * @return a CSG representation of all the polygons in the slice
 	 */
 	public RrCSGPolygonList slice(double z)
 	{
-		RrCSGPolygonList rl = new RrCSGPolygonList();
-
+		// Have we done this one before?  If so there's no geometry to
+		// do, except for the simulation if that's wanted.
+		
+		if(cache != null)
+		{
+			RrCSGPolygonList cached = cache.get(z);
+			if(cached != null)
+			{
+				destroyLayer();
+				shellBelow(z);
+				return cached;
+			}
+		}
+		
 		if(generateLowerTriangles)
 			below = new BranchGroup();
 		else
 			below = null;
 		
-		for(int mat = 0; mat < mls.getExtruderCount(); mat++)
+		int materials = mls.getExtruderCount();
+		if(segments == null || segments.length != materials)
+		{
+			segments = new GridSegments[materials];
+			for(int mat = 0; mat < materials; mat++)
+				segments[mat] = new GridSegments();
+		}
+		if(hits == null || hits.length != materials)
+			hits = new int[materials][];
+		destroyLayer();
+		
+		int[] cuts = new int[materials];
+		int buckets = 0;
+		
+		for(int mat = 0; mat < materials; mat++)
 		{
-			destroyLayer();
-			ArrayList<AandT> aats = mls.getAandTs(mat);
+			if(mls.getAandTs(mat).size() <= 0)
+				continue;
+			
+			IndexedTriangles it = mls.getTriangles(mat);
+			double[] coords = it.coordinates();
 
-			if(aats.size() > 0)
-			{
-				Appearance ap = aats.get(0).att.getAppearance();
+			// Only the triangles that the plane cuts can contribute edges
+
+			cuts[mat] = spanning(mat, z);
+			for(int i = 0; i < cuts[mat]; i++)
+				addEdge(coords, hits[mat][i], z, it.attributes(hits[mat][i]), segments[mat]);
 
-				for(int obj = 0; obj < aats.size(); obj++)
+			if(generateLowerTriangles)
+				addShell(mat, z, cuts[mat]);
+			
+			if(cuts[mat] > 0)
+				buckets++;
+		}
+		
+		// Join up each material's segments.  Each one done on another
+		// thread needs a quad tree of its own in case it comes to that.
+		
+		RrCSGPolygonList[] joined = new RrCSGPolygonList[materials];
+		if(parallelMaterials && buckets > 1)
+		{
+			ArrayList<Future<RrCSGPolygonList>> futures = new ArrayList<Future<RrCSGPolygonList>>();
+			for(int mat = 0; mat < materials; mat++)
+			{
+				if(cuts[mat] <= 0)
 				{
-					AandT aat = aats.get(obj);
-					Transform3D trans = aat.trans;
-					Attributes attr = aat.att;
-					recursiveSetEdges(attr.getPart(), trans, z, attr);
+					futures.add(null);
+					continue;
 				}
-
-				if(generateLowerTriangles)
+				final STLSlice worker = layerSlicer();
+				final IndexedTriangles it = mls.getTriangles(mat);
+				final GridSegments bucket = segments[mat];
+				final double zf = z;
+				final int[] h = hits[mat];
+				final int cut = cuts[mat];
+				futures.add(materialPool().submit(new Callable<RrCSGPolygonList>()
 				{
-					if(triangles.size() > 0)
+					public RrCSGPolygonList call()
 					{
-						GeometryInfo gi = new GeometryInfo(GeometryInfo.TRIANGLE_ARRAY);
-						Point3d t_array[] = new Point3d[triangles.size()];
-
-						for(int i = 0; i < triangles.size(); i++)
-							t_array[i] = triangles.get(i);
-
-						gi.setCoordinates(t_array);
-
-						NormalGenerator normalGenerator = new NormalGenerator();
-						normalGenerator.generateNormals(gi);
-
-						below.addChild(new Shape3D(gi.getGeometryArray(), ap));
-
-						triangles = new ArrayList<Point3d>();
+						return worker.join(it, bucket, zf, h, cut);
 					}
-				}
+				}));
+			}
+			for(int mat = 0; mat < materials; mat++)
+			{
+				if(futures.get(mat) != null)
+					joined[mat] = waitFor(futures.get(mat));
+			}
+		} else
+		{
+			for(int mat = 0; mat < materials; mat++)
+			{
+				if(cuts[mat] > 0)
+					joined[mat] = join(mls.getTriangles(mat), segments[mat], z, hits[mat], cuts[mat]);
+			}
+		}
+		
+		RrCSGPolygonList rl = new RrCSGPolygonList();
+		for(int mat = 0; mat < materials; mat++)
+		{
+			if(joined[mat] != null)
+				rl.add(joined[mat]);
+		}
 
+		if(cache != null)
+			cache.put(z, rl);
+		return rl;
+	}
+	
+	/**
+	 * Find the triangles of one material that the plane z cuts, and put them in hits[]
+	 * @param mat the material
+	 * @param z
+	 * @return how many there are
+	 */
+	private int spanning(int mat, double z)
+	{
+		TriangleZIndex zi = mls.getTriangles(mat).index();
+		if(hits[mat] == null || hits[mat].length < zi.size())
+			hits[mat] = new int[zi.size()];
+		if(sweeps != null)
+			return sweeps[mat].spanning(z, hits[mat]);
+		return zi.spanning(z, hits[mat]);
+	}
+	
+	/**
+	 * The simulation also needs everything underneath the plane z; only
+	 * the new band since the last layer has to be added to the shell.
+	 * @param mat the material
+	 * @param z
+	 * @param cut how many triangles (at the start of hits[mat]) the plane cuts
+	 */
+	private void addShell(int mat, double z, int cut)
+	{
+		if(shells == null)
+			shells = new LowerShell[mls.getExtruderCount()];
+		if(shells[mat] == null)
+			shells[mat] = new LowerShell(mls.getTriangles(mat), 
+					mls.getAandTs(mat).get(0).att.getAppearance());
+		shells[mat].addTo(below, z, hits[mat], cut);
+	}
+	
+	/**
+	 * Build the simulation's view of everything below z for a layer that was
+	 * sliced by one of this slicer's layerSlicer() copies (or that came out
+	 * of the cache).  The shells are kept
+	 * here and grow from one layer to the next, so this should be called for 
+	 * the layers in order, on one thread, just like slice().
+	 * @param z
+	 * @return the triangulation below z (null if the simulation isn't wanted)
+	 */
+	public BranchGroup shellBelow(double z)
+	{
+		if(!generateLowerTriangles)
+		{
+			below = null;
+			return null;
+		}
+		below = new BranchGroup();
+		int materials = mls.getExtruderCount();
+		if(hits == null || hits.length != materials)
+			hits = new int[materials][];
+		for(int mat = 0; mat < materials; mat++)
+		{
+			if(mls.getAandTs(mat).size() > 0)
+				addShell(mat, z, spanning(mat, z));
+		}
+		return below;
+	}
+	
+	/**
+	 * Join one material's segments up into polygons and turn them into CSG
+	 * (or a ScanPolygon).  This uses (and leaves behind) the quad tree of 
+	 * this slicer if it has to fall back to that.
+	 * @param it the material's triangles
+	 * @param bucket its segments
+	 * @param z
+	 * @param hits the triangles the plane cuts
+	 * @param cut how many of them there are
+	 * @return a list of the one polygon made (empty if there's nothing sensible)
+	 */
+	private RrCSGPolygonList join(IndexedTriangles it, GridSegments bucket, double z, int[] hits, int cut)
+	{
+		// If we can, join the ends up by looking them up in a hash table.
+		
+		RrPolygonList pgl = null;
+		if(meshStitching && it.mesh().closed())
+			pgl = it.mesh().contours(z, hits, cut, it);
+		if(pgl == null && hashStitching)
+			pgl = SegmentStitcher.stitch(bucket);
+		
+		if(pgl == null)
+		{
+			// The quad tree needs the segments as objects
+			
+			clearQuads();
+			for(int i = 0; i < bucket.size(); i++)
+			{
+				Rr2Point e1 = bucket.point(2*i);
+				Rr2Point e2 = bucket.point(2*i + 1);
+				add(e1, e2, bucket.attributes(i));
+				box.expand(e1);
+				box.expand(e2);
+			}
+			
+			// Make sure nothing falls down the cracks.
 
-				// Make sure nothing falls down the cracks.
+			sFactor = Preferences.swell();
+			box = box.scale(sFactor);
+			resolution_2 = box.dSquared()*Preferences.tiny();
 
-				sFactor = Preferences.swell();
-				box = box.scale(sFactor);
-				resolution_2 = box.dSquared()*Preferences.tiny();
+			// Recursively generate the quad tree.  The aim is to have each
+			// leaf quad containing either 0 or 2 ends of different line
+			// segments.  Then we just run round joining up all the pairs of
+			// ends.
 
-				// Recursively generate the quad tree.  The aim is to have each
-				// leaf quad containing either 0 or 2 ends of different line
-				// segments.  Then we just run round joining up all the pairs of
-				// ends.
+			divide();
 
-				divide();
-				
-				// Run round joining up all the pairs of ends...
+			// Run round joining up all the pairs of ends...
 
-				RrPolygonList pgl = conquer(this); //, fg, fs);
+			pgl = conquer(this); //, fg, fs);
+		}
 
-				// Remove wrinkles
+		// Remove wrinkles
 
-				pgl = pgl.simplify(Preferences.gridRes()*1.5);
-				
-				//RrGraphics g = new RrGraphics(pgl, false);
+		pgl = pgl.simplify(Preferences.gridRes()*1.5);
+		
+		//RrGraphics g = new RrGraphics(pgl, false);
 
-				// Check for a silly result.
-				
-				if(pgl.size() > 0)
-					rl.add(pgl.toCSG(Preferences.tiny()));
-			}
+		// Check for a silly result.
+		
+		RrCSGPolygonList result = new RrCSGPolygonList();
+		if(pgl.size() > 0)
+		{
+			if(scanline)
+				result.add(new ScanPolygon(pgl));
+			else
+				result.add(pgl.toCSG(Preferences.tiny()));
 		}
-
-		return rl;
+		return result;
+	}
+	
+	/**
+	 * @param f
+	 * @return what f worked out, once it has
+	 */
+	private static RrCSGPolygonList waitFor(Future<RrCSGPolygonList> f)
+	{
+		try
+		{
+			return f.get();
+		} catch (ExecutionException ex)
+		{
+			Throwable cause = ex.getCause();
+			if(cause instanceof RuntimeException)
+				throw (RuntimeException)cause;
+			if(cause instanceof Error)
+				throw (Error)cause;
+			throw new RuntimeException(cause);
+		} catch (InterruptedException ex)
+		{
+			f.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(ex);
+		}
+	}
+	
+	/**
+	 * @return the threads that join up materials' segments
+	 */
+	private static synchronized ExecutorService materialPool()
+	{
+		if(materialPool == null)
+		{
+			int threads = Runtime.getRuntime().availableProcessors();
+			materialPool = Executors.newFixedThreadPool(threads, new DaemonThreads("Material"));
+			Debug.d("STLSlice.materialPool(): " + threads + " threads");
+		}
+		return materialPool;
 	}
 }
@@ -0,0 +1,492 @@
+/*
+ 
+ RepRap
+ ------
+ 
+ The Replicating Rapid Prototyper Project
+ 
+ 
+ Copyright (C) 2005
+ Adrian Bowyer & The University of Bath
+ 
+ http://reprap.org
+ 
+ Principal author:
+ 
+ Adrian Bowyer
+ Department of Mechanical Engineering
+ Faculty of Engineering and Design
+ University of Bath
+ Bath BA2 7AY
+ U.K.
+ 
+ e-mail: A.Bowyer@bath.ac.uk
+ 
+ RepRap is free; you can redistribute it and/or
+ modify it under the terms of the GNU Library General Public
+ Licence as published by the Free Software Foundation; either
+ version 2 of the Licence, or (at your option) any later version.
+ 
+ RepRap is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Library General Public Licence for more details.
+ 
+ For this purpose the words "software" and "library" in the GNU Library
+ General Public Licence are taken to mean any and all computer programs
+ computer files data results documents and other copyright information
+ available from the RepRap project.
+ 
+ You should have received a copy of the GNU Library General Public
+ Licence along with RepRap; if not, write to the Free
+ Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA,
+ or see
+ 
+ http://www.gnu.org/
+ 
+ =====================================================================
+ 
+ ScanPolygon: one material's part of a layer held as integer boundary loops
+ 
+ First version 18 October 2026
+ 
+ */
+
+package org.reprap.geometry.polygons;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.reprap.Attributes;
+
+/**
+ * Where a hatch line crosses the boundary of a ScanPolygon: the line
+ * parameter of each crossing and the loop and edge crossed, in order
+ * along the line.  Crossings are removed as the hatch uses them up.
+ */
+class scanLine
+{
+	/**
+	 * The hatch line
+	 */
+	RrHalfPlane plane;
+	
+	/**
+	 * The first hatch line, and how far past it this one is.  Which side 
+	 * of this line things are is always worked out from the first, so the
+	 * crossings and the boundary following agree exactly.
+	 */
+	private RrHalfPlane first;
+	double shift;
+	
+	private double[] t = new double[8];
+	private int[] loop = new int[8];
+	private int[] edge = new int[8];
+	private int size = 0;
+	
+	scanLine(RrHalfPlane h, RrHalfPlane f)
+	{
+		plane = h;
+		first = f;
+		shift = f.offset() - h.offset();
+	}
+	
+	/**
+	 * @param p
+	 * @return how far p is past this line
+	 */
+	double value(Rr2Point p)
+	{
+		return first.value(p) - shift;
+	}
+	
+	int size() { return size; }
+	int loop(int i) { return loop[i]; }
+	int edge(int i) { return edge[i]; }
+	Rr2Point point(int i) { return plane.pLine().point(t[i]); }
+	
+	void add(double tt, int l, int e)
+	{
+		if(size >= t.length)
+		{
+			double[] tb = new double[2*size];
+			System.arraycopy(t, 0, tb, 0, size);
+			t = tb;
+			int[] b = new int[2*size];
+			System.arraycopy(loop, 0, b, 0, size);
+			loop = b;
+			b = new int[2*size];
+			System.arraycopy(edge, 0, b, 0, size);
+			edge = b;
+		}
+		t[size] = tt;
+		loop[size] = l;
+		edge[size] = e;
+		size++;
+	}
+	
+	/**
+	 * Put the crossings in order along the line
+	 */
+	void sort()
+	{
+		for(int i = 1; i < size; i++)
+		{
+			for(int j = i; j > 0 && t[j - 1] > t[j]; j--)
+			{
+				double tt = t[j];
+				t[j] = t[j - 1];
+				t[j - 1] = tt;
+				int s = loop[j];
+				loop[j] = loop[j - 1];
+				loop[j - 1] = s;
+				s = edge[j];
+				edge[j] = edge[j - 1];
+				edge[j - 1] = s;
+			}
+		}
+	}
+	
+	void remove(int i)
+	{
+		size--;
+		System.arraycopy(t, i + 1, t, i, size - i);
+		System.arraycopy(loop, i + 1, loop, i, size - i);
+		System.arraycopy(edge, i + 1, edge, i, size - i);
+	}
+	
+	/**
+	 * @param l
+	 * @param e
+	 * @return the index of the crossing with edge e of loop l (-1 if none)
+	 */
+	int find(int l, int e)
+	{
+		for(int i = 0; i < size; i++)
+		{
+			if(loop[i] == l && edge[i] == e)
+				return i;
+		}
+		return -1;
+	}
+}
+
+/**
+ * One material's part of a layer, as the scanline geometry backend holds it:
+ * the loops of its boundary, with corners as whole numbers of steps of 
+ * 1/ScanlineClipper.scale mm and the solid on the left of each loop.  
+ * 
+ * It does the same jobs as an RrCSGPolygon - offsetting, finding the
+ * boundary polygons and hatching - straight from the polygons that 
+ * the slicer joins up, without making a CSG expression or dividing 
+ * anything into quads.  The offset is the geometric one, with each edge
+ * moved and the corners mitred; the CSG offset, which moves the half planes
+ * of the convex hull decomposition, can be slightly different where the
+ * hulls' extra edges are.  The hatching runs just like RrCSGPolygon.hatch()
+ * (the same lines, and the same zig-zags along the boundary between them).
+ */
+public class ScanPolygon
+{
+	/**
+	 * The boundary: x0, y0, x1, y1 ... for each loop
+	 */
+	private long[][] loops;
+	
+	/**
+	 * Its box (made the same way as an RrCSGPolygon's)
+	 */
+	private RrBox box;
+	
+	private Attributes att;
+	
+	/**
+	 * Make one from the polygons that a slice gives.  Each point is in 
+	 * the set if it is inside an odd number of them (as RrPolygonList.toCSG()
+	 * has it); their directions don't matter.
+	 * @param pgl
+	 */
+	public ScanPolygon(RrPolygonList pgl)
+	{
+		long[][] raw = new long[pgl.size()][];
+		for(int i = 0; i < pgl.size(); i++)
+		{
+			RrPolygon p = pgl.polygon(i);
+			raw[i] = new long[2*p.size()];
+			for(int j = 0; j < p.size(); j++)
+			{
+				raw[i][2*j] = Math.round(p.point(j).x()*ScanlineClipper.scale);
+				raw[i][2*j + 1] = Math.round(p.point(j).y()*ScanlineClipper.scale);
+			}
+		}
+		loops = ScanlineClipper.union(raw, true);
+		box = pgl.getBox().scale(1.1);
+		att = pgl.polygon(0).getAttributes();
+	}
+	
+	private ScanPolygon(long[][] l, RrBox b, Attributes a)
+	{
+		loops = l;
+		box = b;
+		att = a;
+	}
+	
+	public RrBox box() { return box; }
+	public Attributes getAttributes() { return att; }
+	
+	/**
+	 * @return the number of loops in the boundary
+	 */
+	public int loops() { return loops.length; }
+	
+	/**
+	 * Offset by a distance; grow or shrink the box by the same amount.
+	 * If we shrink out of existence an empty one is returned.
+	 * @param d
+	 * @return the offset set
+	 */
+	public ScanPolygon offset(double d)
+	{
+		if(-d >= 0.5*box.x().length() || -d >= 0.5*box.y().length())
+			return new ScanPolygon(new long[0][], 
+					new RrBox(new Rr2Point(0,0), new Rr2Point(1,1)), att);
+		Rr2Point p = new Rr2Point(d, d);
+		RrBox b = new RrBox(Rr2Point.sub(box.sw(), p), Rr2Point.add(box.ne(), p));
+		return new ScanPolygon(ScanlineClipper.offset(loops, d*ScanlineClipper.scale), b, att);
+	}
+	
+	/**
+	 * @param l
+	 * @param i
+	 * @return corner i of loop l in mm
+	 */
+	private Rr2Point point(long[] l, int i)
+	{
+		return new Rr2Point(l[2*i]/ScanlineClipper.scale, l[2*i + 1]/ScanlineClipper.scale);
+	}
+	
+	/**
+	 * The boundary as polygons.  They go round the same way as 
+	 * RrCSGPolygon.megList()'s, with the solid on the right (so outlines 
+	 * clockwise and holes anticlockwise).
+	 * @return the polygons
+	 */
+	public RrPolygonList megList()
+	{
+		RrPolygonList result = new RrPolygonList();
+		for(int i = 0; i < loops.length; i++)
+		{
+			RrPolygon p = new RrPolygon(att);
+			for(int j = loops[i].length/2 - 1; j >= 0; j--)
+				p.add(point(loops[i], j));
+			result.add(p);
+		}
+		return result;
+	}
+	
+	/**
+	 * Hatch parallel to line hp with gap between the lines.  The lines
+	 * start from the same corner of the box as RrCSGPolygon.hatch() uses.
+	 * @param hp
+	 * @param gap
+	 * @return a polygon list of hatch zig-zags
+	 */
+	public RrPolygonList hatch(RrHalfPlane hp, double gap)
+	{
+		RrPolygonList snakes = new RrPolygonList();
+		if(loops.length <= 0)
+			return snakes;
+		
+		RrBox big = box.scale(1.1);
+		double d = Math.sqrt(big.dSquared());
+		Rr2Point orth = hp.normal();
+		int quadPointing = (int)(2 + 2*Math.atan2(orth.y(), orth.x())/Math.PI);
+		if(quadPointing == 4)   // atan2() gives +pi as well as -pi
+			quadPointing = 0;
+		Rr2Point org = big.ne();
+		switch(quadPointing)
+		{
+		case 0:
+			break;
+			
+		case 1:
+			org = big.nw();
+			break;
+			
+		case 2:
+			org = big.sw(); 
+			break;
+			
+		case 3:
+			org = big.se();
+			break;
+			
+		default:
+			System.err.println("ScanPolygon.hatch(): The atan2 function doesn't seem to work...");
+		}
+		
+		RrHalfPlane first = new RrHalfPlane(org, Rr2Point.add(org, hp.pLine().direction()));
+		List<scanLine> all = new ArrayList<scanLine>();
+		RrHalfPlane hatcher = first;
+		double g = 0;
+		while (g < d)
+		{
+			all.add(new scanLine(hatcher, first));
+			hatcher = hatcher.offset(gap);
+			g += gap;
+		}
+		
+		// Each edge crosses the lines whose shifts are between the values
+		// at its ends (an end exactly on a line counts as behind it)
+		
+		for(int i = 0; i < loops.length; i++)
+		{
+			long[] l = loops[i];
+			int n = l.length/2;
+			Rr2Point a = point(l, n - 1);
+			double va = first.value(a);
+			for(int j = 0; j < n; j++)
+			{
+				Rr2Point b = point(l, j);
+				double vb = first.value(b);
+				double lo = Math.min(va, vb);
+				double hi = Math.max(va, vb);
+				int k = firstLine(all, lo);
+				while(k < all.size() && all.get(k).shift < hi)
+				{
+					scanLine s = all.get(k);
+					double f = (va - s.shift)/(va - vb);
+					Rr2Point c = Rr2Point.add(a, Rr2Point.mul(Rr2Point.sub(b, a), f));
+					s.add(s.plane.pLine().nearest(c), i, (j + n - 1)%n);
+					k++;
+				}
+				a = b;
+				va = vb;
+			}
+		}
+		
+		// Only lines that cross something count as hatches
+		
+		List<scanLine> hatches = new ArrayList<scanLine>();
+		for(int k = 0; k < all.size(); k++)
+		{
+			if(all.get(k).size() > 0)
+			{
+				all.get(k).sort();
+				hatches.add(all.get(k));
+			}
+		}
+		
+		int segment;
+		do
+		{
+			segment = -1;
+			for(int i = 0; i < hatches.size(); i++)
+			{
+				if(hatches.get(i).size() > 0)
+				{
+					segment = i;
+					break;
+				}
+			}
+			if(segment >= 0)
+				snakes.add(snakeGrow(hatches, segment, 0));
+		} while(segment >= 0);
+		
+		return snakes;
+	}
+	
+	/**
+	 * @param lines
+	 * @param v
+	 * @return the index of the first line whose shift is at least v
+	 */
+	private static int firstLine(List<scanLine> lines, double v)
+	{
+		int lo = 0;
+		int hi = lines.size();
+		while(lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(lines.get(mid).shift < v)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+	
+	/**
+	 * Take the start of a zig-zag hatch polyline and grow it as far as possible
+	 * (as RrCSGPolygon.snakeGrow())
+	 * @param hatches
+	 * @param thisHatch
+	 * @param thisPt
+	 * @return zigzag hatch polygon
+	 */
+	private RrPolygon snakeGrow(List<scanLine> hatches, int thisHatch, int thisPt) 
+	{
+		RrPolygon result = new RrPolygon(att);
+		scanLine h = hatches.get(thisHatch);
+		result.add(h.point(thisPt));
+		int jump;
+		do
+		{
+			h.remove(thisPt);
+			if(thisPt%2 != 0)
+				thisPt--;
+			result.add(h.point(thisPt));
+			thisHatch++;
+			RrPolygon path = new RrPolygon(att);
+			if(thisHatch < hatches.size())
+				jump = goToLine(h, thisPt, hatches.get(thisHatch), path);
+			else
+				jump = -1;
+			h.remove(thisPt);
+			if(jump >= 0)
+			{
+				result.add(path);
+				h = hatches.get(thisHatch);
+				thisPt = jump;
+			}
+		} while(jump >= 0);
+		return result;
+	}
+	
+	/**
+	 * Follow the boundary from a crossing on one hatch line to the next line,
+	 * going the way that leads away from the first (as 
+	 * RrCSGPolygon.megGoToPlane()).  It fails if the boundary comes back over 
+	 * the first line before it gets there, or the crossing there has 
+	 * already been used.
+	 * @param h the line we're on
+	 * @param i the crossing on it
+	 * @param target the next line
+	 * @param path the boundary corners passed and the crossing arrived at are added to this
+	 * @return the index of that crossing on target (-1 if we can't get there)
+	 */
+	private int goToLine(scanLine h, int i, scanLine target, RrPolygon path)
+	{
+		int l = h.loop(i);
+		long[] loop = loops[l];
+		int n = loop.length/2;
+		int e = h.edge(i);
+		boolean forward = h.value(point(loop, (e + 1)%n)) > 0;
+		int v = forward ? (e + 1)%n : e;
+		for(int step = 0; step < n; step++)
+		{
+			if(target.value(point(loop, v)) > 0)
+			{
+				int j = target.find(l, forward ? (v + n - 1)%n : v);
+				if(j >= 0)
+					path.add(target.point(j));
+				return j;
+			}
+			if(h.value(point(loop, v)) <= 0)
+				return -1;
+			path.add(point(loop, v));
+			v = forward ? (v + 1)%n : (v + n - 1)%n;
+		}
+		return -1;
+	}
+	
+}
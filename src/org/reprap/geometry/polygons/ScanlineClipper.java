@@ -0,0 +1,848 @@
+/*
+ 
+ RepRap
+ ------
+ 
+ The Replicating Rapid Prototyper Project
+ 
+ 
+ Copyright (C) 2005
+ Adrian Bowyer & The University of Bath
+ 
+ http://reprap.org
+ 
+ Principal author:
+ 
+ Adrian Bowyer
+ Department of Mechanical Engineering
+ Faculty of Engineering and Design
+ University of Bath
+ Bath BA2 7AY
+ U.K.
+ 
+ e-mail: A.Bowyer@bath.ac.uk
+ 
+ RepRap is free; you can redistribute it and/or
+ modify it under the terms of the GNU Library General Public
+ Licence as published by the Free Software Foundation; either
+ version 2 of the Licence, or (at your option) any later version.
+ 
+ RepRap is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Library General Public Licence for more details.
+ 
+ For this purpose the words "software" and "library" in the GNU Library
+ General Public Licence are taken to mean any and all computer programs
+ computer files data results documents and other copyright information
+ available from the RepRap project.
+ 
+ You should have received a copy of the GNU Library General Public
+ Licence along with RepRap; if not, write to the Free
+ Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA,
+ or see
+ 
+ http://www.gnu.org/
+ 
+ =====================================================================
+ 
+ ScanlineClipper: polygon union and offsetting in whole numbers, a scan beam at a time
+ 
+ First version 18 October 2026
+ 
+ */
+
+package org.reprap.geometry.polygons;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.reprap.Preferences;
+import org.reprap.utilities.Debug;
+
+/**
+ * Boolean operations and offsetting on polygons whose corners are whole
+ * numbers of steps of 1/scale mm, in the manner of Vatti's algorithm.
+ * A polygon (which may be several loops, with holes) is held as a long[]
+ * per loop: x0, y0, x1, y1, ... with the last corner joined to the first.
+ * 
+ * union() works in three passes.  A sweep up the y axis finds everywhere
+ * that edges cross or touch, and cuts them there.  A second sweep steps from
+ * one corner height to the next; in each scan beam between two heights no
+ * edges cross, so sorting the ones spanning it along x gives the winding
+ * number on either side of each.  That says which edges (and which bits of
+ * each height, where the beams below and above differ) are boundary.
+ * Finally those are joined up end to end.  The only rounding is where two 
+ * edges cross.
+ * 
+ * Everything here is static and keeps nothing between calls, so different
+ * threads can use it at once.
+ */
+class ScanlineClipper
+{
+	/**
+	 * Steps per mm: a thousand to each Preferences.grid() step, so coordinates
+	 * of a few metres still leave cross products well inside a long
+	 */
+	static final double scale = 1000.0*Preferences.grid();
+	
+	/**
+	 * If the outward normals either side of a corner make (1 + cos angle) less
+	 * than this the edges nearly double back, and the offset corner is
+	 * cut off square rather than mitred (the mitre would go off to infinity)
+	 */
+	private static final double spike = 1.0e-3;
+	
+	/**
+	 * Static methods only
+	 */
+	private ScanlineClipper() {}
+	
+	/**
+	 * A growable list of edges, each with a winding count
+	 */
+	private static class Edges
+	{
+		/**
+		 * x1, y1, x2, y2 of each edge in turn
+		 */
+		long[] c = new long[64];
+		
+		/**
+		 * The winding count of each
+		 */
+		int[] w = new int[16];
+		
+		/**
+		 * How many there are
+		 */
+		int n = 0;
+		
+		void add(long x1, long y1, long x2, long y2, int wind)
+		{
+			if(n >= w.length)
+			{
+				long[] cc = new long[2*c.length];
+				System.arraycopy(c, 0, cc, 0, 4*n);
+				c = cc;
+				int[] ww = new int[2*w.length];
+				System.arraycopy(w, 0, ww, 0, n);
+				w = ww;
+			}
+			c[4*n] = x1;
+			c[4*n + 1] = y1;
+			c[4*n + 2] = x2;
+			c[4*n + 3] = y2;
+			w[n] = wind;
+			n++;
+		}
+		
+		/**
+		 * Add an edge so it goes up the y axis, turning it round (and 
+		 * negating its winding count) if need be.  Horizontal edges
+		 * make no difference to winding numbers, so they are left out.
+		 */
+		void addRising(long x1, long y1, long x2, long y2, int wind)
+		{
+			if(y1 < y2)
+				add(x1, y1, x2, y2, wind);
+			else if(y1 > y2)
+				add(x2, y2, x1, y1, -wind);
+		}
+		
+		/**
+		 * As addRising(), but keep horizontal edges (going along x, with 
+		 * no winding count).  The winding number changes across them, so
+		 * the edges they cross have to be cut there, even though they are
+		 * dropped after that.
+		 */
+		void addAll(long x1, long y1, long x2, long y2, int wind)
+		{
+			if(y1 != y2)
+				addRising(x1, y1, x2, y2, wind);
+			else if(x1 != x2)
+				add(Math.min(x1, x2), y1, Math.max(x1, x2), y2, 0);
+		}
+		
+		long x1(int i) { return c[4*i]; }
+		long y1(int i) { return c[4*i + 1]; }
+		long x2(int i) { return c[4*i + 2]; }
+		long y2(int i) { return c[4*i + 3]; }
+		
+		/**
+		 * @param i
+		 * @param y
+		 * @return where rising edge i is at height y
+		 */
+		double xAt(int i, long y)
+		{
+			if(y == y1(i))
+				return x1(i);
+			if(y == y2(i))
+				return x2(i);
+			return x1(i) + (double)(x2(i) - x1(i))*(double)(y - y1(i))/(double)(y2(i) - y1(i));
+		}
+		
+		/**
+		 * @return the edges in order of their first ends (y, then x),
+		 * then of their second ends
+		 */
+		Integer[] order()
+		{
+			Integer[] result = new Integer[n];
+			for(int i = 0; i < n; i++)
+				result[i] = Integer.valueOf(i);
+			Arrays.sort(result, new Comparator<Integer>()
+			{
+				public int compare(Integer a, Integer b)
+				{
+					int i = a.intValue();
+					int j = b.intValue();
+					int r = compare(y1(i), y1(j));
+					if(r == 0)
+						r = compare(x1(i), x1(j));
+					if(r == 0)
+						r = compare(y2(i), y2(j));
+					if(r == 0)
+						r = compare(x2(i), x2(j));
+					return r;
+				}
+				
+				private int compare(long p, long q)
+				{
+					return p < q ? -1 : (p > q ? 1 : 0);
+				}
+			});
+			return result;
+		}
+	}
+	
+	/**
+	 * Work out the set of points that a list of loops goes round.
+	 * @param loops
+	 * @param evenOdd if true the set is where the loops go round an odd number
+	 * of times; if false it's where they go round anticlockwise more often
+	 * than clockwise
+	 * @return the set's boundary as loops with the set on their left (so outlines
+	 * go anticlockwise and holes clockwise), with no corners in straight lines
+	 */
+	static long[][] union(long[][] loops, boolean evenOdd)
+	{
+		Edges edges = new Edges();
+		for(int i = 0; i < loops.length; i++)
+		{
+			long[] l = loops[i];
+			int n = l.length/2;
+			for(int j = 0; j < n; j++)
+			{
+				int k = (j + 1)%n;
+				edges.addAll(l[2*j], l[2*j + 1], l[2*k], l[2*k + 1], 1);
+			}
+		}
+		edges = merge(split(edges));
+		return link(classify(edges, evenOdd));
+	}
+	
+	/**
+	 * Move every edge of a set (as union() returns them) out by a distance,
+	 * mitring the corners, and work out the set that the result goes round.
+	 * At corners that the move makes the edges overlap (convex ones when
+	 * shrinking, concave ones when growing) the moved loop goes back through
+	 * the old corner instead of mitring.  The little loop that makes goes
+	 * round backwards and cancels out, leaving the mitre, and any part of
+	 * the set that is shrunk away altogether cancels out the same way.
+	 * @param loops the set, on the left of its loops
+	 * @param d how far in steps (-ve shrinks)
+	 * @return the offset set
+	 */
+	static long[][] offset(long[][] loops, double d)
+	{
+		long[][] moved = new long[loops.length][];
+		for(int i = 0; i < loops.length; i++)
+		{
+			long[] l = loops[i];
+			int n = l.length/2;
+			long[] m = new long[2*n + 6];
+			int k = 0;
+			for(int j = 0; j < n; j++)
+			{
+				int p = (j + n - 1)%n;
+				int q = (j + 1)%n;
+				
+				// Outward (right hand) normals of the edges in and out
+				
+				double ax = l[2*j] - l[2*p];
+				double ay = l[2*j + 1] - l[2*p + 1];
+				double len = Math.sqrt(ax*ax + ay*ay);
+				double n1x = ay/len;
+				double n1y = -ax/len;
+				double bx = l[2*q] - l[2*j];
+				double by = l[2*q + 1] - l[2*j + 1];
+				len = Math.sqrt(bx*bx + by*by);
+				double n2x = by/len;
+				double n2y = -bx/len;
+				
+				double c = 1 + n1x*n2x + n1y*n2y;
+				m = room(m, k);
+				if((ax*by - ay*bx)*d < 0)
+				{
+					m[k++] = Math.round(l[2*j] + d*n1x);
+					m[k++] = Math.round(l[2*j + 1] + d*n1y);
+					m[k++] = l[2*j];
+					m[k++] = l[2*j + 1];
+					m[k++] = Math.round(l[2*j] + d*n2x);
+					m[k++] = Math.round(l[2*j + 1] + d*n2y);
+				} else if(c > spike)
+				{
+					m[k++] = Math.round(l[2*j] + d*(n1x + n2x)/c);
+					m[k++] = Math.round(l[2*j + 1] + d*(n1y + n2y)/c);
+				} else
+				{
+					m[k++] = Math.round(l[2*j] + d*n1x);
+					m[k++] = Math.round(l[2*j + 1] + d*n1y);
+					m[k++] = Math.round(l[2*j] + d*n2x);
+					m[k++] = Math.round(l[2*j + 1] + d*n2y);
+				}
+			}
+			moved[i] = new long[k];
+			System.arraycopy(m, 0, moved[i], 0, k);
+		}
+		
+		// Where edges have swept past each other the moved loops go round
+		// backwards (and so don't count) or twice (and still count once)
+		
+		return union(moved, false);
+	}
+	
+	/**
+	 * @param m
+	 * @param k
+	 * @return m, or a copy of it that has room for six more after k
+	 */
+	private static long[] room(long[] m, int k)
+	{
+		if(k + 6 <= m.length)
+			return m;
+		long[] bigger = new long[2*m.length + 6];
+		System.arraycopy(m, 0, bigger, 0, k);
+		return bigger;
+	}
+	
+	/**
+	 * @return which side of the line p->q that r is on (+1 left, -1 right, 0 on it)
+	 */
+	private static int side(long px, long py, long qx, long qy, long rx, long ry)
+	{
+		long s = (qx - px)*(ry - py) - (qy - py)*(rx - px);
+		return s > 0 ? 1 : (s < 0 ? -1 : 0);
+	}
+	
+	/**
+	 * Cut every edge everywhere another crosses it or has an end on it,
+	 * sweeping up y and only looking at pairs that overlap in y.
+	 * @param e rising and horizontal edges
+	 * @return the pieces, without the horizontal ones
+	 */
+	private static Edges split(Edges e)
+	{
+		int n = e.n;
+		long[][] cuts = new long[n][];
+		int[] cutCount = new int[n];
+		Integer[] order = e.order();
+		int[] active = new int[16];
+		int count = 0;
+		for(int k = 0; k < n; k++)
+		{
+			int i = order[k].intValue();
+			long y = e.y1(i);
+			int m = 0;
+			for(int a = 0; a < count; a++)
+			{
+				int j = active[a];
+				if(e.y2(j) > y)
+				{
+					active[m++] = j;
+					cross(e, i, j, cuts, cutCount);
+				}
+			}
+			count = m;
+			if(count >= active.length)
+			{
+				int[] bigger = new int[2*active.length];
+				System.arraycopy(active, 0, bigger, 0, count);
+				active = bigger;
+			}
+			active[count++] = i;
+		}
+		
+		Edges result = new Edges();
+		for(int i = 0; i < n; i++)
+		{
+			if(e.y1(i) == e.y2(i))
+				continue;
+			if(cutCount[i] == 0)
+			{
+				result.add(e.x1(i), e.y1(i), e.x2(i), e.y2(i), e.w[i]);
+				continue;
+			}
+			
+			// Put the cuts in order along the edge
+			
+			long[] p = cuts[i];
+			int pc = cutCount[i];
+			double dx = e.x2(i) - e.x1(i);
+			double dy = e.y2(i) - e.y1(i);
+			double[] t = new double[pc];
+			for(int j = 0; j < pc; j++)
+				t[j] = (p[2*j] - e.x1(i))*dx + (p[2*j + 1] - e.y1(i))*dy;
+			for(int j = 1; j < pc; j++)
+			{
+				for(int l = j; l > 0 && t[l - 1] > t[l]; l--)
+				{
+					double tt = t[l];
+					t[l] = t[l - 1];
+					t[l - 1] = tt;
+					long s = p[2*l];
+					p[2*l] = p[2*l - 2];
+					p[2*l - 2] = s;
+					s = p[2*l + 1];
+					p[2*l + 1] = p[2*l - 1];
+					p[2*l - 1] = s;
+				}
+			}
+			long x = e.x1(i);
+			long y = e.y1(i);
+			for(int j = 0; j <= pc; j++)
+			{
+				long nx = j < pc ? p[2*j] : e.x2(i);
+				long ny = j < pc ? p[2*j + 1] : e.y2(i);
+				if(nx != x || ny != y)
+				{
+					result.addRising(x, y, nx, ny, e.w[i]);
+					x = nx;
+					y = ny;
+				}
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Record where edges i and j cross or touch
+	 */
+	private static void cross(Edges e, int i, int j, long[][] cuts, int[] cutCount)
+	{
+		long ax1 = e.x1(i), ay1 = e.y1(i), ax2 = e.x2(i), ay2 = e.y2(i);
+		long bx1 = e.x1(j), by1 = e.y1(j), bx2 = e.x2(j), by2 = e.y2(j);
+		if(Math.max(ax1, ax2) < Math.min(bx1, bx2) || Math.max(bx1, bx2) < Math.min(ax1, ax2))
+			return;
+		if(ay2 <= by1 || by2 <= ay1)
+			return;
+		
+		int d1 = side(bx1, by1, bx2, by2, ax1, ay1);
+		int d2 = side(bx1, by1, bx2, by2, ax2, ay2);
+		int d3 = side(ax1, ay1, ax2, ay2, bx1, by1);
+		int d4 = side(ax1, ay1, ax2, ay2, bx2, by2);
+		
+		// An end of one on the other (this also cuts up edges lying along each other)
+		
+		if(d1 == 0 && ay1 > by1 && ay1 < by2)
+			cut(e, j, ax1, ay1, cuts, cutCount);
+		if(d2 == 0 && ay2 > by1 && ay2 < by2)
+			cut(e, j, ax2, ay2, cuts, cutCount);
+		if(d3 == 0 && by1 > ay1 && by1 < ay2)
+			cut(e, i, bx1, by1, cuts, cutCount);
+		if(d4 == 0 && by2 > ay1 && by2 < ay2)
+			cut(e, i, bx2, by2, cuts, cutCount);
+		
+		// A proper crossing
+		
+		if(d1*d2 < 0 && d3*d4 < 0)
+		{
+			double dax = ax2 - ax1;
+			double day = ay2 - ay1;
+			double dbx = bx2 - bx1;
+			double dby = by2 - by1;
+			double t = ((bx1 - ax1)*dby - (by1 - ay1)*dbx)/(dax*dby - day*dbx);
+			long x = Math.round(ax1 + t*dax);
+			long y = Math.round(ay1 + t*day);
+			cut(e, i, x, y, cuts, cutCount);
+			cut(e, j, x, y, cuts, cutCount);
+		}
+	}
+	
+	/**
+	 * Note that edge i needs cutting at (x, y), unless that's one of its ends
+	 */
+	private static void cut(Edges e, int i, long x, long y, long[][] cuts, int[] cutCount)
+	{
+		if((x == e.x1(i) && y == e.y1(i)) || (x == e.x2(i) && y == e.y2(i)))
+			return;
+		if(cuts[i] == null)
+			cuts[i] = new long[4];
+		else if(2*cutCount[i] + 2 > cuts[i].length)
+		{
+			long[] bigger = new long[2*cuts[i].length];
+			System.arraycopy(cuts[i], 0, bigger, 0, 2*cutCount[i]);
+			cuts[i] = bigger;
+		}
+		cuts[i][2*cutCount[i]] = x;
+		cuts[i][2*cutCount[i] + 1] = y;
+		cutCount[i]++;
+	}
+	
+	/**
+	 * Now that no two edges cross, ones lying on top of each other are the
+	 * same; make each such lot one edge with the sum of their windings.
+	 * @param e
+	 * @return the edges, in order of their lower ends, with none repeated
+	 */
+	private static Edges merge(Edges e)
+	{
+		Integer[] order = e.order();
+		Edges result = new Edges();
+		int k = 0;
+		while(k < e.n)
+		{
+			int i = order[k].intValue();
+			int wind = e.w[i];
+			k++;
+			while(k < e.n)
+			{
+				int j = order[k].intValue();
+				if(e.x1(j) != e.x1(i) || e.y1(j) != e.y1(i) || e.x2(j) != e.x2(i) || e.y2(j) != e.y2(i))
+					break;
+				wind += e.w[j];
+				k++;
+			}
+			if(wind != 0)
+				result.add(e.x1(i), e.y1(i), e.x2(i), e.y2(i), wind);
+		}
+		return result;
+	}
+	
+	/**
+	 * @param wind
+	 * @param evenOdd
+	 * @return is a point with that winding number in the set?
+	 */
+	private static boolean inside(int wind, boolean evenOdd)
+	{
+		if(evenOdd)
+			return (wind & 1) != 0;
+		return wind > 0;
+	}
+	
+	/**
+	 * Sweep up the scan beams working out the winding number on each side
+	 * of every edge, and so find the boundary of the set.
+	 * @param e edges that don't cross, in order of their lower ends
+	 * @param evenOdd
+	 * @return the boundary edges, each with the set on its left
+	 */
+	private static Edges classify(Edges e, boolean evenOdd)
+	{
+		int n = e.n;
+		Edges result = new Edges();
+		if(n <= 0)
+			return result;
+		
+		long[] levels = new long[2*n];
+		for(int i = 0; i < n; i++)
+		{
+			levels[2*i] = e.y1(i);
+			levels[2*i + 1] = e.y2(i);
+		}
+		Arrays.sort(levels);
+		int levelCount = 1;
+		for(int i = 1; i < levels.length; i++)
+		{
+			if(levels[i] != levels[levelCount - 1])
+				levels[levelCount++] = levels[i];
+		}
+		
+		int[] left = new int[n];
+		int[] above = new int[n];
+		int[] below = new int[n];
+		double[] key = new double[n];
+		int na = 0;
+		int next = 0;
+		for(int k = 0; k < levelCount; k++)
+		{
+			long y = levels[k];
+			
+			// The last beam's edges are now the ones below this height
+			
+			int[] swap = below;
+			below = above;
+			above = swap;
+			int nb = na;
+			
+			// Those of them that carry on, then those that start here
+			
+			na = 0;
+			for(int i = 0; i < nb; i++)
+			{
+				if(e.y2(below[i]) > y)
+					above[na++] = below[i];
+			}
+			while(next < n && e.y1(next) == y)
+				above[na++] = next++;
+			
+			// Sort the beam above along x half way up it (they were nearly in 
+			// order already) and count the windings across it
+			
+			if(k + 1 < levelCount && na > 0)
+			{
+				long dy = levels[k + 1] - y;
+				for(int i = 0; i < na; i++)
+				{
+					int a = above[i];
+					key[i] = e.x1(a) + (double)(e.x2(a) - e.x1(a))*
+						(y - e.y1(a) + 0.5*dy)/(double)(e.y2(a) - e.y1(a));
+				}
+				for(int i = 1; i < na; i++)
+				{
+					for(int j = i; j > 0 && key[j - 1] > key[j]; j--)
+					{
+						double kk = key[j];
+						key[j] = key[j - 1];
+						key[j - 1] = kk;
+						int a = above[j];
+						above[j] = above[j - 1];
+						above[j - 1] = a;
+					}
+				}
+				int wind = 0;
+				for(int i = 0; i < na; i++)
+				{
+					int a = above[i];
+					if(e.y1(a) == y)
+						left[a] = wind;
+					wind -= e.w[a];
+				}
+			}
+			
+			horizontals(e, below, nb, above, na, y, evenOdd, result);
+		}
+		
+		for(int i = 0; i < n; i++)
+		{
+			boolean l = inside(left[i], evenOdd);
+			if(l != inside(left[i] - e.w[i], evenOdd))
+			{
+				if(l)
+					result.add(e.x1(i), e.y1(i), e.x2(i), e.y2(i), 1);
+				else
+					result.add(e.x2(i), e.y2(i), e.x1(i), e.y1(i), 1);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Find the boundary along height y: the stretches where the set is on
+	 * one side but not the other.
+	 * @param e
+	 * @param below the edges in the beam below, in order
+	 * @param nb how many
+	 * @param above the edges in the beam above, in order
+	 * @param na how many
+	 * @param y
+	 * @param evenOdd
+	 * @param result the boundary edges found are added to this
+	 */
+	private static void horizontals(Edges e, int[] below, int nb, int[] above, int na, 
+			long y, boolean evenOdd, Edges result)
+	{
+		int i = 0;
+		int j = 0;
+		int windBelow = 0;
+		int windAbove = 0;
+		boolean on = false;
+		boolean up = false;
+		double start = 0;
+		while(i < nb || j < na)
+		{
+			double xb = i < nb ? e.xAt(below[i], y) : Double.POSITIVE_INFINITY;
+			double xa = j < na ? e.xAt(above[j], y) : Double.POSITIVE_INFINITY;
+			double x = Math.min(xb, xa);
+			while(i < nb && e.xAt(below[i], y) == x)
+			{
+				windBelow -= e.w[below[i]];
+				i++;
+			}
+			while(j < na && e.xAt(above[j], y) == x)
+			{
+				windAbove -= e.w[above[j]];
+				j++;
+			}
+			boolean inAbove = inside(windAbove, evenOdd);
+			boolean nowOn = inside(windBelow, evenOdd) != inAbove;
+			if(on && (!nowOn || up != inAbove))
+			{
+				long xs = Math.round(start);
+				long xe = Math.round(x);
+				if(xs != xe)
+				{
+					if(up)
+						result.add(xs, y, xe, y, 1);
+					else
+						result.add(xe, y, xs, y, 1);
+				}
+			}
+			if(nowOn && (!on || up != inAbove))
+			{
+				start = x;
+				up = inAbove;
+			}
+			on = nowOn;
+		}
+	}
+	
+	/**
+	 * Join the boundary edges up end to end.  Where more than one edge
+	 * leaves a corner the one turning furthest left is taken, so sets that
+	 * just touch at a corner come out as separate loops.
+	 * @param b the boundary edges
+	 * @return the loops
+	 */
+	private static long[][] link(final Edges b)
+	{
+		int n = b.n;
+		Integer[] order = b.order();
+		int[] edge = new int[n];
+		for(int i = 0; i < n; i++)
+			edge[i] = order[i].intValue();
+		boolean[] used = new boolean[n];
+		List<long[]> loops = new ArrayList<long[]>();
+		long[] points = new long[64];
+		int dropped = 0;
+		
+		for(int s = 0; s < n; s++)
+		{
+			if(used[s])
+				continue;
+			long sx = b.x1(edge[s]);
+			long sy = b.y1(edge[s]);
+			int count = 0;
+			int k = s;
+			boolean closed = false;
+			while(true)
+			{
+				used[k] = true;
+				int e = edge[k];
+				if(2*count + 2 > points.length)
+				{
+					long[] bigger = new long[2*points.length];
+					System.arraycopy(points, 0, bigger, 0, 2*count);
+					points = bigger;
+				}
+				points[2*count] = b.x1(e);
+				points[2*count + 1] = b.y1(e);
+				count++;
+				long ex = b.x2(e);
+				long ey = b.y2(e);
+				if(ex == sx && ey == sy)
+				{
+					closed = true;
+					break;
+				}
+				
+				// The edges leaving this corner start at the first with its y and x
+				
+				int lo = 0;
+				int hi = n;
+				while(lo < hi)
+				{
+					int mid = (lo + hi) >>> 1;
+					int m = edge[mid];
+					if(b.y1(m) < ey || (b.y1(m) == ey && b.x1(m) < ex))
+						lo = mid + 1;
+					else
+						hi = mid;
+				}
+				double dx = ex - b.x1(e);
+				double dy = ey - b.y1(e);
+				int best = -1;
+				double bestTurn = 0;
+				for(int c = lo; c < n && b.x1(edge[c]) == ex && b.y1(edge[c]) == ey; c++)
+				{
+					if(used[c])
+						continue;
+					double ux = b.x2(edge[c]) - ex;
+					double uy = b.y2(edge[c]) - ey;
+					double turn = Math.atan2(dx*uy - dy*ux, dx*ux + dy*uy);
+					if(best < 0 || turn > bestTurn)
+					{
+						best = c;
+						bestTurn = turn;
+					}
+				}
+				if(best < 0)
+					break;
+				k = best;
+			}
+			
+			if(!closed)
+			{
+				dropped++;
+				continue;
+			}
+			long[] loop = clean(points, count);
+			if(loop != null)
+				loops.add(loop);
+		}
+		
+		if(dropped > 0)
+			Debug.d("ScanlineClipper.link(): " + dropped + " boundaries didn't join up");
+		
+		long[][] result = new long[loops.size()][];
+		for(int i = 0; i < result.length; i++)
+			result[i] = loops.get(i);
+		return result;
+	}
+	
+	/**
+	 * Take out the corners of a loop that are in line with their neighbours
+	 * (the cuts leave lots of them).
+	 * @param points
+	 * @param count how many corners
+	 * @return the loop, or null if there's nothing left of it
+	 */
+	private static long[] clean(long[] points, int count)
+	{
+		long[] p = new long[2*count];
+		System.arraycopy(points, 0, p, 0, 2*count);
+		boolean changed = true;
+		while(changed && count >= 3)
+		{
+			changed = false;
+			int m = 0;
+			for(int i = 0; i < count; i++)
+			{
+				// The one before is the last kept (or, for the first, the last of all)
+				
+				int q = (i + 1)%count;
+				long px = m > 0 ? p[2*m - 2] : p[2*count - 2];
+				long py = m > 0 ? p[2*m - 1] : p[2*count - 1];
+				if(side(px, py, p[2*i], p[2*i + 1], p[2*q], p[2*q + 1]) == 0)
+				{
+					changed = true;
+					continue;
+				}
+				p[2*m] = p[2*i];
+				p[2*m + 1] = p[2*i + 1];
+				m++;
+			}
+			count = m;
+		}
+		if(count < 3)
+			return null;
+		long[] result = new long[2*count];
+		System.arraycopy(p, 0, result, 0, 2*count);
+		return result;
+	}
+}
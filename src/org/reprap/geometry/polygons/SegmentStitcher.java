@@ -0,0 +1,297 @@
+/*
+ 
+ RepRap
+ ------
+ 
+ The Replicating Rapid Prototyper Project
+ 
+ 
+ Copyright (C) 2005
+ Adrian Bowyer & The University of Bath
+ 
+ http://reprap.org
+ 
+ Principal author:
+ 
+ Adrian Bowyer
+ Department of Mechanical Engineering
+ Faculty of Engineering and Design
+ University of Bath
+ Bath BA2 7AY
+ U.K.
+ 
+ e-mail: A.Bowyer@bath.ac.uk
+ 
+ RepRap is free; you can redistribute it and/or
+ modify it under the terms of the GNU Library General Public
+ Licence as published by the Free Software Foundation; either
+ version 2 of the Licence, or (at your option) any later version.
+ 
+ RepRap is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Library General Public Licence for more details.
+ 
+ For this purpose the words "software" and "library" in the GNU Library
+ General Public Licence are taken to mean any and all computer programs
+ computer files data results documents and other copyright information
+ available from the RepRap project.
+ 
+ You should have received a copy of the GNU Library General Public
+ Licence along with RepRap; if not, write to the Free
+ Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA,
+ or see
+ 
+ http://www.gnu.org/
+ 
+ =====================================================================
+ 
+ SegmentStitcher: join slice line segments into polygons by hashing their ends
+ 
+ First version 18 October 2026
+ 
+ */
+
+package org.reprap.geometry.polygons;
+
+import org.reprap.utilities.Debug;
+
+/**
+ * The ends of the line segments that STLSlice makes are all clicked onto the
+ * Preferences.grid() (see GridSegments), so the end of one segment and the start 
+ * of the next fall in the same (or, after rounding, an adjacent) grid cell.  This joins them
+ * up with a hash table keyed on those cells, which takes time proportional to the 
+ * number of segments rather than building the quad tree that STLSlice.divide() 
+ * and STLSlice.conquer() use.  The polygon corners are placed at the mid-points
+ * of the pairs of ends joined, just as conquer() places them.
+ * 
+ * If an end can't be paired with exactly one other (as happens with non-manifold
+ * STLs) stitch() gives up and returns null, and the quad tree has to be used.
+ * 
+ * @author ensab
+ *
+ */
+class SegmentStitcher 
+{
+	/**
+	 * Counts of slices joined up here, and of those that had to go to the quad tree.
+	 * These are for all threads and all jobs.
+	 */
+	private static int stitched = 0;
+	private static int fallBacks = 0;
+	
+	/**
+	 * Cell keys in the hash table; the table size is a power of 2
+	 */
+	private long[] keys = null;
+	
+	/**
+	 * First end in each cell of the table (-1 for empty)
+	 */
+	private int[] heads = null;
+	
+	/**
+	 * Next end in the same cell as each end (-1 for none)
+	 */
+	private int[] next = null;
+	
+	/**
+	 * The end each end is joined to (-1 if not yet known)
+	 */
+	private int[] partner = null;
+	
+	/**
+	 * The segments.  End 2i is the a end of segment i, end 2i + 1 is its b end.
+	 */
+	private GridSegments edges = null;
+	
+	/**
+	 * Why we gave up (for debugging)
+	 */
+	private String failure = null;
+	
+	private SegmentStitcher(GridSegments e)
+	{
+		edges = e;
+		int ends = 2*edges.size();
+		int size = 16;
+		while(size < 2*ends)
+			size = size << 1;
+		keys = new long[size];
+		heads = new int[size];
+		for(int i = 0; i < size; i++)
+			heads[i] = -1;
+		next = new int[ends];
+		partner = new int[ends];
+		
+		for(int i = 0; i < ends; i++)
+		{
+			partner[i] = -1;
+			int h = slot(edges.x(i), edges.y(i), true);
+			next[i] = heads[h];
+			heads[h] = i;
+		}
+	}
+	
+	/**
+	 * Find the table slot for a cell
+	 * @param x
+	 * @param y
+	 * @param claim if true, take an empty slot for the cell if it's not there
+	 * @return the slot, or -1 if the cell isn't there and claim is false
+	 */
+	private int slot(int x, int y, boolean claim)
+	{
+		long key = GridSegments.key(x, y);
+		int mask = heads.length - 1;
+		int h = (int)((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+		while(heads[h] >= 0)
+		{
+			if(keys[h] == key)
+				return h;
+			h = (h + 1) & mask;
+		}
+		if(!claim)
+			return -1;
+		keys[h] = key;
+		return h;
+	}
+	
+	/**
+	 * Find the one end that end e joins to
+	 * @param e
+	 * @return the other end, or -1 if there isn't exactly one
+	 */
+	private int findPartner(int e)
+	{
+		// Look in the cell the end is in first, then in the eight round it
+		
+		int ex = edges.x(e);
+		int ey = edges.y(e);
+		int found = -1;
+		int count = 0;
+		for(int ring = 0; ring < 2 && count == 0; ring++)
+		{
+			for(int x = ex - ring; x <= ex + ring; x++)
+			{
+				for(int y = ey - ring; y <= ey + ring; y++)
+				{
+					if(ring > 0 && x == ex && y == ey)
+						continue;
+					int h = slot(x, y, false);
+					if(h < 0)
+						continue;
+					for(int o = heads[h]; o >= 0; o = next[o])
+					{
+						if((o >> 1) != (e >> 1))
+						{
+							found = o;
+							count++;
+						}
+					}
+				}
+			}
+		}
+		if(count != 1)
+		{
+			failure = "end " + edges.point(e).toString() + " has " + count + " possible partners";
+			return -1;
+		}
+		return found;
+	}
+	
+	/**
+	 * Pair up all the ends
+	 * @return false if some end couldn't be paired
+	 */
+	private boolean pair()
+	{
+		for(int e = 0; e < partner.length; e++)
+		{
+			if(partner[e] >= 0)
+				continue;
+			int o = findPartner(e);
+			if(o < 0)
+				return false;
+			if(partner[o] >= 0 || findPartner(o) != e)
+			{
+				if(failure == null)
+					failure = "end " + edges.point(e).toString() + " is not paired both ways";
+				return false;
+			}
+			partner[e] = o;
+			partner[o] = e;
+		}
+		return true;
+	}
+	
+	/**
+	 * Run round the paired ends making polygons
+	 * @return the polygons
+	 */
+	private RrPolygonList walk()
+	{
+		RrPolygonList pgl = new RrPolygonList();
+		boolean[] done = new boolean[edges.size()];
+		for(int s = 0; s < done.length; s++)
+		{
+			if(done[s])
+				continue;
+			RrPolygon pg = new RrPolygon(edges.attributes(s));
+			int leave = 2*s + 1;
+			do
+			{
+				done[leave >> 1] = true;
+				int arrive = partner[leave];
+				double x = GridSegments.fromGrid(edges.x(leave)) + GridSegments.fromGrid(edges.x(arrive));
+				double y = GridSegments.fromGrid(edges.y(leave)) + GridSegments.fromGrid(edges.y(arrive));
+				pg.add(new Rr2Point(0.5*x, 0.5*y));
+				leave = arrive ^ 1;
+			} while(!done[leave >> 1]);
+			
+			if(pg.size() > 2)  // Throw away "noise"...
+				pgl.add(pg);
+		}
+		return pgl;
+	}
+	
+	/**
+	 * Join up line segments into polygons.
+	 * @param edges the segments
+	 * @return the polygons, or null if the segments don't join up unambiguously
+	 */
+	public static RrPolygonList stitch(GridSegments edges)
+	{
+		if(edges.size() <= 0)
+			return new RrPolygonList();
+		SegmentStitcher ss = new SegmentStitcher(edges);
+		if(!ss.pair())
+		{
+			Debug.d("SegmentStitcher.stitch(): using the quad tree - " + ss.failure);
+			count(false);
+			return null;
+		}
+		count(true);
+		return ss.walk();
+	}
+	
+	/**
+	 * Keep count of what happened
+	 * @param ok
+	 */
+	private static synchronized void count(boolean ok)
+	{
+		if(ok)
+			stitched++;
+		else
+			fallBacks++;
+	}
+	
+	/**
+	 * @return how many slices have been stitched here, and how many had to go to the quad tree
+	 */
+	public static synchronized String statistics()
+	{
+		return "hash-stitched slices: " + stitched + ", quad-tree fall-backs: " + fallBacks;
+	}
+}
@@ -0,0 +1,533 @@
+/*
+ 
+ RepRap
+ ------
+ 
+ The Replicating Rapid Prototyper Project
+ 
+ 
+ Copyright (C) 2005
+ Adrian Bowyer & The University of Bath
+ 
+ http://reprap.org
+ 
+ Principal author:
+ 
+ Adrian Bowyer
+ Department of Mechanical Engineering
+ Faculty of Engineering and Design
+ University of Bath
+ Bath BA2 7AY
+ U.K.
+ 
+ e-mail: A.Bowyer@bath.ac.uk
+ 
+ RepRap is free; you can redistribute it and/or
+ modify it under the terms of the GNU Library General Public
+ Licence as published by the Free Software Foundation; either
+ version 2 of the Licence, or (at your option) any later version.
+ 
+ RepRap is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Library General Public Licence for more details.
+ 
+ For this purpose the words "software" and "library" in the GNU Library
+ General Public Licence are taken to mean any and all computer programs
+ computer files data results documents and other copyright information
+ available from the RepRap project.
+ 
+ You should have received a copy of the GNU Library General Public
+ Licence along with RepRap; if not, write to the Free
+ Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA,
+ or see
+ 
+ http://www.gnu.org/
+ 
+ =====================================================================
+ 
+ SliceCache: keeps the CSG of sliced layers on disk so that the same plate
+ doesn't have to be sliced again next time
+ 
+ First version 18 October 2026
+ 
+ */
+
+package org.reprap.geometry.polygons;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.reprap.Attributes;
+import org.reprap.Preferences;
+import org.reprap.utilities.Debug;
+
+/**
+ * An on-disk cache of sliced layers.  Each layer's RrCSGPolygonList is written
+ * to its own small binary file under ~/.reprap/slicecache.  The file name is
+ * made from a digest of everything the slice depends on (the world coordinates 
+ * of every triangle - so the STL contents and each object's transform - 
+ * the material of each set of triangles, the grid and tolerance constants in
+ * Preferences and the stitching method) together with the slice height.
+ * 
+ * The least recently used files are deleted when the cache gets bigger than
+ * its budget.  A file's modification time is its last use, so the order
+ * survives from one run to the next.
+ * 
+ * It's safe for the layer slicers of a ParallelSlicer to share one of these.
+ */
+class SliceCache
+{
+	/**
+	 * Change this if the file layout, or anything about how slices are
+	 * worked out, changes; old files will then just never be found.
+	 */
+	private static final int version = 3;
+	
+	/**
+	 * Starts every file
+	 */
+	private static final int magic = 0x52725343; // "RrSC"
+	
+	/**
+	 * Tree node codes
+	 */
+	private static final byte nullSet = 0, universe = 1, leaf = 2, union = 3, intersection = 4;
+	
+	/**
+	 * Counts for all caches, for the statistics
+	 */
+	private static int hits = 0, misses = 0, evictions = 0;
+	
+	/**
+	 * Where the files go
+	 */
+	private File folder = null;
+	
+	/**
+	 * The digest of this plate in hex; starts every file name
+	 */
+	private String key = null;
+	
+	/**
+	 * The attributes to give polygons of each material when they are read back
+	 */
+	private Map<String, Attributes> materials = new HashMap<String, Attributes>();
+	
+	/**
+	 * Every file in the cache and its length, least recently used first
+	 */
+	private LinkedHashMap<String, Long> files = new LinkedHashMap<String, Long>(16, 0.75f, true);
+	
+	/**
+	 * Total length of all the files and how big that's allowed to get
+	 */
+	private long total = 0;
+	private long budget;
+	
+	/**
+	 * Set up the cache for one plate of objects
+	 * @param mls the objects' triangles, sorted by material (indices built)
+	 * @param stitching how slices are stitched together (see STLSlice)
+	 * @param megabytes how much disk the cache may use
+	 * @throws IOException if the cache folder can't be used
+	 */
+	SliceCache(MaterialLists mls, String stitching, int megabytes) throws IOException
+	{
+		budget = (long)megabytes*1024*1024;
+		folder = new File(System.getProperty("user.home") + File.separatorChar + 
+				".reprap" + File.separatorChar + "slicecache");
+		if(!folder.isDirectory() && !folder.mkdirs())
+			throw new IOException("can't make " + folder);
+		
+		key = digest(mls, stitching);
+		
+		for(int mat = 0; mat < mls.getExtruderCount(); mat++)
+		{
+			if(mls.getAandTs(mat).size() > 0)
+			{
+				Attributes att = mls.getAandTs(mat).get(0).att;
+				materials.put(String.valueOf(att.getMaterial()), att);
+			}
+		}
+		
+		// Find out what's there already, oldest first
+		
+		File[] fs = folder.listFiles();
+		if(fs == null)
+			throw new IOException("can't list " + folder);
+		Arrays.sort(fs, new Comparator<File>()
+				{
+					public int compare(File a, File b)
+					{
+						long d = a.lastModified() - b.lastModified();
+						return d < 0 ? -1 : (d > 0 ? 1 : 0);
+					}
+				});
+		for(int i = 0; i < fs.length; i++)
+		{
+			if(fs[i].getName().endsWith(".slice"))
+			{
+				files.put(fs[i].getName(), Long.valueOf(fs[i].length()));
+				total += fs[i].length();
+			}
+		}
+		trim();
+		Debug.d("SliceCache(): " + files.size() + " layers, " + total + " bytes in " + folder);
+	}
+	
+	/**
+	 * Look up a slice
+	 * @param z the slice height
+	 * @return the slice, or null if it isn't in the cache
+	 */
+	RrCSGPolygonList get(double z)
+	{
+		String name = fileName(z);
+		synchronized(this)
+		{
+			if(files.get(name) == null)
+			{
+				count(false);
+				return null;
+			}
+		}
+		
+		File f = new File(folder, name);
+		RrCSGPolygonList result = null;
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)));
+			try
+			{
+				result = read(in);
+			} finally
+			{
+				in.close();
+			}
+			f.setLastModified(System.currentTimeMillis());
+		} catch (Exception ex)
+		{
+			System.err.println("SliceCache.get(): dropping " + f + ": " + ex);
+			synchronized(this)
+			{
+				forget(name);
+			}
+			f.delete();
+		}
+		count(result != null);
+		return result;
+	}
+	
+	/**
+	 * Add a slice to the cache, throwing out old ones if there's no room.
+	 * @param z the slice height
+	 * @param rl the slice
+	 */
+	void put(double z, RrCSGPolygonList rl)
+	{
+		String name = fileName(z);
+		File f = new File(folder, name);
+		File temp = new File(folder, name + "." + Thread.currentThread().getId() + ".tmp");
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(bytes);
+			write(out, rl);
+			out.flush();
+			
+			FileOutputStream fo = new FileOutputStream(temp);
+			try
+			{
+				bytes.writeTo(fo);
+			} finally
+			{
+				fo.close();
+			}
+			
+			synchronized(this)
+			{
+				forget(name);
+				f.delete();
+				if(!temp.renameTo(f))
+					throw new IOException("can't rename " + temp);
+				files.put(name, Long.valueOf(f.length()));
+				total += f.length();
+				trim();
+			}
+		} catch (IOException ex)
+		{
+			System.err.println("SliceCache.put(): " + ex);
+			temp.delete();
+		}
+	}
+	
+	/**
+	 * Delete the least recently used files until the cache is within its
+	 * budget (call when synchronized)
+	 */
+	private void trim()
+	{
+		Iterator<Map.Entry<String, Long>> it = files.entrySet().iterator();
+		while(total > budget && it.hasNext())
+		{
+			Map.Entry<String, Long> e = it.next();
+			total -= e.getValue().longValue();
+			it.remove();
+			new File(folder, e.getKey()).delete();
+			evicted();
+		}
+	}
+	
+	/**
+	 * Drop a file from the index (call when synchronized)
+	 * @param name
+	 */
+	private void forget(String name)
+	{
+		Long length = files.remove(name);
+		if(length != null)
+			total -= length.longValue();
+	}
+	
+	/**
+	 * @param z
+	 * @return the name of the file for the slice at z
+	 */
+	private String fileName(double z)
+	{
+		return key + "-" + Long.toHexString(Double.doubleToLongBits(z)) + ".slice";
+	}
+	
+	/**
+	 * Digest everything a slice of these objects depends on
+	 * @param mls
+	 * @param stitching
+	 * @return the digest in hex
+	 * @throws IOException
+	 */
+	private static String digest(MaterialLists mls, String stitching) throws IOException
+	{
+		MessageDigest md;
+		try
+		{
+			md = MessageDigest.getInstance("SHA-1");
+		} catch (Exception ex)
+		{
+			throw new IOException("no SHA-1: " + ex);
+		}
+		
+		ByteBuffer b = ByteBuffer.allocate(8*4096);
+		b.putInt(version);
+		b.putInt(Preferences.grid());
+		b.putDouble(Preferences.gridRes());
+		b.putDouble(Preferences.lessGridSquare());
+		b.putDouble(Preferences.tiny());
+		b.putDouble(Preferences.swell());
+		md.update(b.array(), 0, b.position());
+		md.update(stitching.toLowerCase().getBytes("UTF-8"));
+		
+		for(int mat = 0; mat < mls.getExtruderCount(); mat++)
+		{
+			IndexedTriangles it = mls.getTriangles(mat);
+			int n = 9*it.size();
+			b.clear();
+			b.putInt(mat);
+			b.putInt(n);
+			md.update(b.array(), 0, b.position());
+			if(it.size() > 0)
+				md.update(String.valueOf(it.attributes(0).getMaterial()).getBytes("UTF-8"));
+			
+			double[] c = it.coordinates();
+			int i = 0;
+			while(i < n)
+			{
+				b.clear();
+				while(i < n && b.remaining() >= 8)
+					b.putDouble(c[i++]);
+				md.update(b.array(), 0, b.position());
+			}
+		}
+		
+		byte[] d = md.digest();
+		StringBuffer hex = new StringBuffer();
+		for(int i = 0; i < d.length; i++)
+		{
+			hex.append(Character.forDigit((d[i] >> 4) & 0xf, 16));
+			hex.append(Character.forDigit(d[i] & 0xf, 16));
+		}
+		return hex.toString();
+	}
+	
+	/**
+	 * Write a slice out
+	 * @param out
+	 * @param rl
+	 * @throws IOException
+	 */
+	private static void write(DataOutputStream out, RrCSGPolygonList rl) throws IOException
+	{
+		out.writeInt(magic);
+		out.writeInt(version);
+		out.writeInt(rl.size());
+		for(int i = 0; i < rl.size(); i++)
+		{
+			RrCSGPolygon p = rl.get(i);
+			out.writeUTF(String.valueOf(p.getAttributes().getMaterial()));
+			RrBox b = p.box();
+			out.writeDouble(b.x().low());
+			out.writeDouble(b.x().high());
+			out.writeDouble(b.y().low());
+			out.writeDouble(b.y().high());
+			write(out, p.csg());
+		}
+	}
+	
+	/**
+	 * Write a CSG expression out, parents before children
+	 * @param out
+	 * @param c
+	 * @throws IOException
+	 */
+	private static void write(DataOutputStream out, RrCSG c) throws IOException
+	{
+		switch(c.operator())
+		{
+		case NULL:
+			out.writeByte(nullSet);
+			break;
+			
+		case UNIVERSE:
+			out.writeByte(universe);
+			break;
+			
+		case LEAF:
+			out.writeByte(leaf);
+			RrHalfPlane h = c.plane();
+			RrLine l = h.pLine();
+			out.writeDouble(l.origin().x());
+			out.writeDouble(l.origin().y());
+			out.writeDouble(l.direction().x());
+			out.writeDouble(l.direction().y());
+			out.writeDouble(h.normal().x());
+			out.writeDouble(h.normal().y());
+			out.writeDouble(h.offset());
+			break;
+			
+		case UNION:
+		case INTERSECTION:
+			out.writeByte(c.operator() == RrCSGOp.UNION ? union : intersection);
+			write(out, c.c_1());
+			write(out, c.c_2());
+			break;
+		}
+	}
+	
+	/**
+	 * Read a slice back in
+	 * @param in
+	 * @return the slice
+	 * @throws IOException
+	 */
+	private RrCSGPolygonList read(DataInputStream in) throws IOException
+	{
+		if(in.readInt() != magic || in.readInt() != version)
+			throw new IOException("not a slice file");
+		RrCSGPolygonList result = new RrCSGPolygonList();
+		int n = in.readInt();
+		for(int i = 0; i < n; i++)
+		{
+			String material = in.readUTF();
+			Attributes att = materials.get(material);
+			if(att == null)
+				throw new IOException("unknown material " + material);
+			double xLow = in.readDouble();
+			double xHigh = in.readDouble();
+			double yLow = in.readDouble();
+			double yHigh = in.readDouble();
+			RrBox b = new RrBox(new Rr2Point(xLow, yLow), new Rr2Point(xHigh, yHigh));
+			result.add(new RrCSGPolygon(read(in, 0), b, att));
+		}
+		return result;
+	}
+	
+	/**
+	 * Read a CSG expression back in
+	 * @param in
+	 * @param depth how far down the tree we are
+	 * @return the expression
+	 * @throws IOException
+	 */
+	private static RrCSG read(DataInputStream in, int depth) throws IOException
+	{
+		if(depth > 10000)
+			throw new IOException("CSG expression too deep");
+		byte code = in.readByte();
+		switch(code)
+		{
+		case nullSet:
+			return RrCSG.nothing();
+			
+		case universe:
+			return RrCSG.universe();
+			
+		case leaf:
+			Rr2Point o = new Rr2Point(in.readDouble(), in.readDouble());
+			Rr2Point d = new Rr2Point(in.readDouble(), in.readDouble());
+			Rr2Point normal = new Rr2Point(in.readDouble(), in.readDouble());
+			double offset = in.readDouble();
+			return new RrCSG(new RrHalfPlane(RrLine.fromDirection(o, d), normal, offset));
+			
+		case union:
+			return RrCSG.union(read(in, depth + 1), read(in, depth + 1));
+			
+		case intersection:
+			return RrCSG.intersection(read(in, depth + 1), read(in, depth + 1));
+			
+		default:
+			throw new IOException("dud CSG code " + code);
+		}
+	}
+	
+	/**
+	 * Keep count of hits and misses
+	 * @param hit
+	 */
+	private static synchronized void count(boolean hit)
+	{
+		if(hit)
+			hits++;
+		else
+			misses++;
+	}
+	
+	/**
+	 * Keep count of files thrown out
+	 */
+	private static synchronized void evicted()
+	{
+		evictions++;
+	}
+	
+	/**
+	 * @return how well the cache has been doing
+	 */
+	static synchronized String statistics()
+	{
+		return "slice cache hits: " + hits + ", misses: " + misses + ", evictions: " + evictions;
+	}
+}
@@ -171,9 +171,292 @@ public class TestMain
 	
 	
 	
+	/**
+	 * Time sorting, searching and clearing half-plane crossing lists 
+	 * about the size of the ones hatching and edge-following make
+	 */
+	public static void crossingBench()
+	{
+		int lists = 20000;
+		int crossings = 64;
+		RrBox b = new RrBox(new Rr2Point(0, 0), new Rr2Point(1, 1));
+		Attributes a = new Attributes(null, null, null, null);
+		RrCSGPolygon[] quads = new RrCSGPolygon[crossings];
+		for(int i = 0; i < crossings; i++)
+			quads[i] = new RrCSGPolygon(RrCSG.universe(), b, a);
+		RrHalfPlane h = new RrHalfPlane(new Rr2Point(0, 0), new Rr2Point(1, 1));
+		java.util.Random r = new java.util.Random(1);
+		
+		for(int round = 0; round < 5; round++)
+		{
+			long sort = 0, find = 0, clear = 0, t;
+			int found = 0;
+			for(int i = 0; i < lists; i++)
+			{
+				for(int j = 0; j < crossings; j++)
+					h.addCrossing(r.nextDouble(), quads[j]);
+				t = System.nanoTime();
+				h.sort(true, null);
+				sort += System.nanoTime() - t;
+				t = System.nanoTime();
+				for(int j = 0; j < crossings; j++)
+					found += h.find(quads[j]);
+				find += System.nanoTime() - t;
+				t = System.nanoTime();
+				h.removeCrossings();
+				clear += System.nanoTime() - t;
+			}
+			System.out.println("Crossings: " + lists + " lists of " + crossings + 
+					" - sort " + sort/1000000 + "ms, find " + find/1000000 + 
+					"ms, removeCrossings " + clear/1000000 + "ms (" + found + ")");
+		}
+	}
+	
+	/**
+	 * Time evaluating a CSG expression at a grid of points over its box
+	 * @param c
+	 * @return time in ms
+	 */
+	private static long valueTime(RrCSGPolygon c)
+	{
+		RrBox b = c.box();
+		double sum = 0;
+		long t = System.nanoTime();
+		for(int i = 0; i < 100; i++)
+			for(int j = 0; j < 100; j++)
+				sum += c.csg().value(new Rr2Point(b.x().low() + b.x().length()*i/99, 
+						b.y().low() + b.y().length()*j/99));
+		t = System.nanoTime() - t;
+		if(Double.isNaN(sum))
+			System.err.println("valueTime(): NaN!");
+		return t/1000000;
+	}
+	
+	/**
+	 * Time turning finely-divided curved contours, and a plate with 
+	 * lots of holes, into CSG
+	 * @param maxVertices the biggest contour to try
+	 */
+	public static void hullBench(int maxVertices)
+	{
+		Attributes a = new Attributes(null, null, null, null);
+		for(int n = 250; n <= maxVertices; n *= 4)
+		{
+			for(int lobes = 0; lobes <= 12; lobes += 12)
+			{
+				RrPolygon p = new RrPolygon(a);
+				for(int i = 0; i < n; i++)
+				{
+					double theta = 2*Math.PI*i/n;
+					double r = 10 + 2*Math.sin(lobes*theta);
+					p.add(new Rr2Point(50 + r*Math.cos(theta), 40 + r*Math.sin(theta)));
+				}
+				long t = System.nanoTime();
+				RrCSGPolygon c = p.toCSG(1.0e-4);
+				System.out.println((lobes == 0 ? "Circle" : "Wavy circle") + " of " + n + 
+						" vertices to CSG: " + (System.nanoTime() - t)/1000000 + 
+						"ms (" + c.csg().complexity() + " planes, depth " + 
+						c.csg().depth() + "), 10000 values: " + valueTime(c) + "ms");
+			}
+		}
+		
+		for(int g = 4; g <= 32; g *= 2)
+		{
+			RrPolygonList l = new RrPolygonList();
+			RrPolygon p = new RrPolygon(a);
+			p.add(new Rr2Point(0, 0));
+			p.add(new Rr2Point(10*g + 10, 0));
+			p.add(new Rr2Point(10*g + 10, 10*g + 10));
+			p.add(new Rr2Point(0, 10*g + 10));
+			l.add(p);
+			for(int i = 0; i < g; i++)
+				for(int j = 0; j < g; j++)
+				{
+					p = new RrPolygon(a);
+					p.add(new Rr2Point(10 + 10*i, 10 + 10*j));
+					p.add(new Rr2Point(10 + 10*i, 16 + 10*j));
+					p.add(new Rr2Point(16 + 10*i, 16 + 10*j));
+					p.add(new Rr2Point(16 + 10*i, 10 + 10*j));
+					l.add(p);
+				}
+			long t = System.nanoTime();
+			RrCSGPolygon c = l.toCSG(1.0e-4);
+			System.out.println("Plate with " + g*g + " holes to CSG: " + 
+					(System.nanoTime() - t)/1000000 + "ms (" + c.csg().complexity() + 
+					" planes, depth " + c.csg().depth() + "), 10000 values: " + 
+					valueTime(c) + "ms");
+		}
+	}
+	
+	/**
+	 * Time going round a big polygon point by point against the bulk 
+	 * operations on its packed coordinates
+	 * @param vertices
+	 */
+	public static void polygonBench(int vertices)
+	{
+		Attributes a = new Attributes(null, null, null, null);
+		RrPolygon p = new RrPolygon(a);
+		for(int i = 0; i < vertices; i++)
+		{
+			double theta = 2*Math.PI*i/vertices;
+			double r = 10 + 2*Math.sin(12*theta);
+			p.add(r*Math.cos(theta), r*Math.sin(theta));
+		}
+		for(int round = 0; round < 5; round++)
+		{
+			long t = System.nanoTime();
+			double viaPoints = 0;
+			Rr2Point last = p.point(0);
+			for(int i = 1; i < p.size(); i++)
+			{
+				Rr2Point n = p.point(i);
+				viaPoints += Rr2Point.d(last, n);
+				last = n;
+			}
+			long pointTime = System.nanoTime() - t;
+			t = System.nanoTime();
+			double bulk = p.length(false);
+			long lengthTime = System.nanoTime() - t;
+			t = System.nanoTime();
+			double area = p.area();
+			long areaTime = System.nanoTime() - t;
+			t = System.nanoTime();
+			p.re_box();
+			long boxTime = System.nanoTime() - t;
+			t = System.nanoTime();
+			RrPolygon q = p.negate().startAt(vertices/3);
+			long copyTime = System.nanoTime() - t;
+			System.out.println(vertices + " vertices - length via point(): " + pointTime/1000 + 
+					"us, length(): " + lengthTime/1000 + "us (same: " + (viaPoints == bulk) + 
+					"), area(): " + areaTime/1000 + "us, re_box(): " + boxTime/1000 + 
+					"us, negate().startAt(): " + copyTime/1000 + "us (" + area + ", " + q.size() + ")");
+		}
+	}
+	
+	/**
+	 * Distance from (x, y) to the segment (x0, y0) - (x1, y1)
+	 */
+	private static double segmentDistance(double x0, double y0, double x1, double y1, 
+			double x, double y)
+	{
+		double vx = x1 - x0;
+		double vy = y1 - y0;
+		double wx = x - x0;
+		double wy = y - y0;
+		double v2 = vx*vx + vy*vy;
+		double t = v2 > 0 ? (wx*vx + wy*vy)/v2 : 0;
+		t = Math.max(0, Math.min(1, t));
+		wx -= t*vx;
+		wy -= t*vy;
+		return Math.sqrt(wx*wx + wy*wy);
+	}
+	
+	/**
+	 * Check that simplify(d) leaves every point of a polygon within d 
+	 * of the result, on wavy circles with noise on them and on squares
+	 * with lots of slightly wobbly points along their sides.
+	 * @return true if it always does
+	 */
+	public static boolean simplifyTest()
+	{
+		Attributes a = new Attributes(null, null, null, null);
+		java.util.Random rand = new java.util.Random(1);
+		double d = 0.15;
+		double worst = 0;
+		int before = 0, after = 0;
+		boolean ok = true;
+		for(int trial = 0; trial < 300; trial++)
+		{
+			RrPolygon p = new RrPolygon(a);
+			if(trial%3 == 0)
+			{
+				double[] cx = {0, 40, 40, 0};
+				double[] cy = {0, 0, 30, 30};
+				int perSide = 5 + rand.nextInt(200);
+				for(int side = 0; side < 4; side++)
+				{
+					int next = (side + 1)%4;
+					for(int k = 0; k < perSide; k++)
+					{
+						double t = (double)k/perSide;
+						p.add(cx[side] + t*(cx[next] - cx[side]) + 0.001*(rand.nextDouble() - 0.5),
+								cy[side] + t*(cy[next] - cy[side]) + 0.001*(rand.nextDouble() - 0.5));
+					}
+				}
+			} else
+			{
+				int vertices = 20 + rand.nextInt(2000);
+				int lobes = 1 + rand.nextInt(12);
+				double amplitude = 5*rand.nextDouble();
+				double noise = 0.3*rand.nextDouble();
+				for(int i = 0; i < vertices; i++)
+				{
+					double theta = 2*Math.PI*i/vertices;
+					double r = 50 + amplitude*Math.sin(lobes*theta) + noise*(rand.nextDouble() - 0.5);
+					p.add(r*Math.cos(theta), r*Math.sin(theta));
+				}
+			}
+			
+			RrPolygon q = p.simplify(d);
+			before += p.size();
+			after += q.size();
+			for(int i = 0; i < p.size(); i++)
+			{
+				double nearest = Double.POSITIVE_INFINITY;
+				for(int j = 0; j < q.size(); j++)
+				{
+					int k = (j + 1)%q.size();
+					nearest = Math.min(nearest, segmentDistance(q.x(j), q.y(j), 
+							q.x(k), q.y(k), p.x(i), p.y(i)));
+				}
+				worst = Math.max(worst, nearest);
+				if(nearest > d && ok)
+				{
+					System.err.println("simplifyTest(): FAILED - point " + i + " of polygon " + 
+							trial + " is " + nearest + " from the simplified polygon (d = " + d + ")");
+					ok = false;
+				}
+			}
+		}
+		System.out.println("simplifyTest(): " + (ok ? "passed" : "FAILED") + " - " + before + 
+				" points simplified to " + after + ", furthest " + worst + " away (d = " + d + ")");
+		return ok;
+	}
+	
+	/**
+	 * Time simplifying ever bigger wrinkled circles; the time
+	 * should go up roughly in step with the number of vertices
+	 * @param maxVertices
+	 */
+	public static void simplifyBench(int maxVertices)
+	{
+		Attributes a = new Attributes(null, null, null, null);
+		java.util.Random rand = new java.util.Random(1);
+		for(int vertices = 1000; vertices <= maxVertices; vertices *= 2)
+		{
+			RrPolygon p = new RrPolygon(a);
+			for(int i = 0; i < vertices; i++)
+			{
+				double theta = 2*Math.PI*i/vertices;
+				double r = 10 + 2*Math.sin(12*theta) + 0.01*(rand.nextDouble() - 0.5);
+				p.add(r*Math.cos(theta), r*Math.sin(theta));
+			}
+			long t = System.nanoTime();
+			RrPolygon q = p.simplify(0.05);
+			System.out.println(vertices + " vertices simplified to " + q.size() + 
+					": " + (System.nanoTime() - t)/1000 + "us");
+		}
+	}
+	
 	public static void main(String args[])
 	{
 		rrCSGTest();
+		//crossingBench();
+		//hullBench(16000);
+		//polygonBench(1000000);
+		//simplifyTest();
+		//simplifyBench(1000000);
 		//rrCHTest();
 		//rrpTest();
 	}
@@ -0,0 +1,502 @@
+/*
+ 
+ RepRap
+ ------
+ 
+ The Replicating Rapid Prototyper Project
+ 
+ 
+ Copyright (C) 2005
+ Adrian Bowyer & The University of Bath
+ 
+ http://reprap.org
+ 
+ Principal author:
+ 
+ Adrian Bowyer
+ Department of Mechanical Engineering
+ Faculty of Engineering and Design
+ University of Bath
+ Bath BA2 7AY
+ U.K.
+ 
+ e-mail: A.Bowyer@bath.ac.uk
+ 
+ RepRap is free; you can redistribute it and/or
+ modify it under the terms of the GNU Library General Public
+ Licence as published by the Free Software Foundation; either
+ version 2 of the Licence, or (at your option) any later version.
+ 
+ RepRap is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Library General Public Licence for more details.
+ 
+ For this purpose the words "software" and "library" in the GNU Library
+ General Public Licence are taken to mean any and all computer programs
+ computer files data results documents and other copyright information
+ available from the RepRap project.
+ 
+ You should have received a copy of the GNU Library General Public
+ Licence along with RepRap; if not, write to the Free
+ Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA,
+ or see
+ 
+ http://www.gnu.org/
+ 
+ =====================================================================
+ 
+ TriangleMesh: STL triangles with their corners welded together and
+ each one knowing its neighbours
+ 
+ First version 18 October 2026
+ 
+ */
+
+package org.reprap.geometry.polygons;
+
+import java.util.Arrays;
+import org.reprap.Attributes;
+import org.reprap.Preferences;
+import org.reprap.utilities.Debug;
+
+/**
+ * STL files are just lists of unconnected triangles.  This welds together the 
+ * corners that are within Preferences.gridRes() of each other, then finds which
+ * triangle is on the other side of each triangle's edges.  That is done once,
+ * when the STLSlice is set up.  Each slice's contours can then be found by
+ * going from one cut triangle to the next across the edges that the plane cuts,
+ * with no searching.
+ * 
+ * Edges that only have one triangle (open) or more than two (non-manifold) are
+ * counted and reported as soon as the mesh is built.  Slices through them
+ * can't be followed, and contours() returns null so that the caller can 
+ * stitch the segments some other way.
+ * 
+ * Once it's built the mesh doesn't change, so any number of threads can
+ * use it at once.
+ * 
+ * @author ensab
+ *
+ */
+class TriangleMesh 
+{
+	/**
+	 * Counts of slices followed round the mesh, and of those that couldn't be.
+	 * These are for all threads and all jobs.
+	 */
+	private static int walked = 0;
+	private static int failures = 0;
+	
+	/**
+	 * The welded corners
+	 */
+	private double[] vx = null, vy = null, vz = null;
+	private int vertexCount;
+	
+	/**
+	 * Three welded corner numbers for each triangle
+	 */
+	private int[] corner = null;
+	
+	/**
+	 * For each triangle, the triangle across the edge from its corner k to
+	 * corner k+1 (mod 3), for k = 0, 1, 2.  -1 if the edge is open or non-manifold.
+	 */
+	private int[] neighbour = null;
+	
+	/**
+	 * How many triangles
+	 */
+	private int count;
+	
+	/**
+	 * Triangles that have had two corners welded together
+	 */
+	private boolean[] degenerate = null;
+	
+	/**
+	 * Defects found in the mesh
+	 */
+	private int openEdges, nonManifoldEdges, degenerates;
+	
+	/**
+	 * Weld the corners and find the neighbours.
+	 * @param coords the triangles' corners, nine doubles per triangle
+	 * @param n the number of triangles
+	 * @param name what to call the mesh when reporting defects
+	 */
+	public TriangleMesh(double[] coords, int n, String name)
+	{
+		count = n;
+		corner = new int[3*n];
+		neighbour = new int[3*n];
+		degenerate = new boolean[n];
+		weld(coords);
+		connect();
+		if(openEdges > 0 || nonManifoldEdges > 0)
+			System.err.println("TriangleMesh: " + name + " has " + openEdges + " open edge(s) and " +
+					nonManifoldEdges + " non-manifold edge(s); slices through them will be stitched the slow way.");
+		Debug.d("TriangleMesh(): " + name + " - " + count + " triangles, " + vertexCount + 
+				" corners after welding, " + degenerates + " degenerate triangle(s)");
+	}
+	
+	/**
+	 * Hash a key into a table of a power-of-2 size
+	 * @param key
+	 * @param mask
+	 * @return start slot
+	 */
+	private static int hash(long key, int mask)
+	{
+		return (int)((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+	}
+	
+	/**
+	 * @param n
+	 * @return a power of 2 at least twice n
+	 */
+	private static int tableSize(int n)
+	{
+		int size = 16;
+		while(size < 2*n)
+			size = size << 1;
+		return size;
+	}
+	
+	/**
+	 * Key for a grid cell
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return key
+	 */
+	private static long cellKey(long x, long y, long z)
+	{
+		return ((x & 0x1fffffL) << 42) | ((y & 0x1fffffL) << 21) | (z & 0x1fffffL);
+	}
+	
+	/**
+	 * Give each corner a vertex number, using the same number for corners
+	 * that are within gridRes of one already found.
+	 * @param coords
+	 */
+	private void weld(double[] coords)
+	{
+		int corners = 3*count;
+		vx = new double[corners];
+		vy = new double[corners];
+		vz = new double[corners];
+		vertexCount = 0;
+		
+		double tol = Preferences.gridRes();
+		double cell = 1.0/tol;
+		int size = tableSize(corners);
+		int mask = size - 1;
+		long[] keys = new long[size];
+		int[] heads = new int[size];
+		Arrays.fill(heads, -1);
+		int[] next = new int[corners];
+		
+		for(int c = 0; c < corners; c++)
+		{
+			double x = coords[3*c];
+			double y = coords[3*c + 1];
+			double z = coords[3*c + 2];
+			long cx = (long)Math.floor(x*cell);
+			long cy = (long)Math.floor(y*cell);
+			long cz = (long)Math.floor(z*cell);
+			
+			// Look for a vertex already found close by in this cell and those round it
+			
+			int found = -1;
+			for(long i = cx - 1; i <= cx + 1 && found < 0; i++)
+				for(long j = cy - 1; j <= cy + 1 && found < 0; j++)
+					for(long k = cz - 1; k <= cz + 1 && found < 0; k++)
+					{
+						long key = cellKey(i, j, k);
+						int h = hash(key, mask);
+						while(heads[h] >= 0 && keys[h] != key)
+							h = (h + 1) & mask;
+						for(int v = heads[h]; v >= 0 && found < 0; v = next[v])
+						{
+							if(Math.abs(vx[v] - x) <= tol && Math.abs(vy[v] - y) <= tol && 
+									Math.abs(vz[v] - z) <= tol)
+								found = v;
+						}
+					}
+			
+			if(found < 0)
+			{
+				found = vertexCount++;
+				vx[found] = x;
+				vy[found] = y;
+				vz[found] = z;
+				long key = cellKey(cx, cy, cz);
+				int h = hash(key, mask);
+				while(heads[h] >= 0 && keys[h] != key)
+					h = (h + 1) & mask;
+				keys[h] = key;
+				next[found] = heads[h];
+				heads[h] = found;
+			}
+			corner[c] = found;
+		}
+	}
+	
+	/**
+	 * Find each triangle's neighbours by matching up their edges
+	 */
+	private void connect()
+	{
+		int halfEdges = 3*count;
+		int size = tableSize(halfEdges);
+		int mask = size - 1;
+		long[] keys = new long[size];
+		int[] first = new int[size];   // First half-edge with this key
+		int[] uses = new int[size];    // How many triangles share it
+		Arrays.fill(first, -1);
+		Arrays.fill(neighbour, -1);
+		
+		for(int t = 0; t < count; t++)
+		{
+			int a = corner[3*t], b = corner[3*t + 1], c = corner[3*t + 2];
+			degenerate[t] = (a == b || b == c || c == a);
+			if(degenerate[t])
+			{
+				degenerates++;
+				continue;
+			}
+			for(int k = 0; k < 3; k++)
+			{
+				int p = corner[3*t + k];
+				int q = corner[3*t + (k + 1)%3];
+				long key = ((long)Math.min(p, q) << 32) | Math.max(p, q);
+				int h = hash(key, mask);
+				while(first[h] >= 0 && keys[h] != key)
+					h = (h + 1) & mask;
+				int e = 3*t + k;
+				if(first[h] < 0)
+				{
+					keys[h] = key;
+					first[h] = e;
+					uses[h] = 1;
+					continue;
+				}
+				uses[h]++;
+				if(uses[h] == 2)
+				{
+					neighbour[e] = first[h]/3;
+					neighbour[first[h]] = t;
+				} else if(uses[h] == 3)
+				{
+					// Can't tell which is across from which
+					
+					neighbour[neighbour[first[h]]*3 + otherEdge(neighbour[first[h]], first[h]/3)] = -1;
+					neighbour[first[h]] = -1;
+				}
+			}
+		}
+		
+		for(int h = 0; h < size; h++)
+		{
+			if(first[h] < 0)
+				continue;
+			if(uses[h] == 1)
+				openEdges++;
+			else if(uses[h] > 2)
+				nonManifoldEdges++;
+		}
+	}
+	
+	/**
+	 * Which edge of triangle t has triangle u across it?
+	 * @param t
+	 * @param u
+	 * @return the edge (0, 1, 2), or -1 if none
+	 */
+	private int otherEdge(int t, int u)
+	{
+		for(int k = 0; k < 3; k++)
+			if(neighbour[3*t + k] == u)
+				return k;
+		return -1;
+	}
+	
+	/**
+	 * @return true if every edge has exactly two triangles
+	 */
+	public boolean closed()
+	{
+		return openEdges == 0 && nonManifoldEdges == 0;
+	}
+	
+	/**
+	 * Does the plane z cut edge k of triangle t?
+	 * @param t
+	 * @param k
+	 * @param z
+	 * @return true if it does
+	 */
+	private boolean cuts(int t, int k, double z)
+	{
+		return (vz[corner[3*t + k]] < z) != (vz[corner[3*t + (k + 1)%3]] < z);
+	}
+	
+	/**
+	 * Where the plane z cuts edge k of triangle t, clicked to the grid.  This is
+	 * always worked out from the lower-numbered vertex, so that the triangles either 
+	 * side of the edge get exactly the same answer.
+	 * @param t
+	 * @param k
+	 * @param z
+	 * @return the point, packed by GridSegments.key()
+	 */
+	private long cut(int t, int k, double z)
+	{
+		int p = corner[3*t + k];
+		int q = corner[3*t + (k + 1)%3];
+		if(q < p)
+		{
+			int s = p;
+			p = q;
+			q = s;
+		}
+		double s = (z - vz[p])/(vz[q] - vz[p]);
+		return GridSegments.key(GridSegments.toGrid(vx[p] + s*(vx[q] - vx[p])), 
+				GridSegments.toGrid(vy[p] + s*(vy[q] - vy[p])));
+	}
+	
+	/**
+	 * @param key
+	 * @return a packed grid point as a point
+	 */
+	private static Rr2Point point(long key)
+	{
+		return new Rr2Point(GridSegments.fromGrid(GridSegments.keyX(key)), 
+				GridSegments.fromGrid(GridSegments.keyY(key)));
+	}
+	
+	/**
+	 * Follow the contours of the slice at z round the mesh.
+	 * @param z
+	 * @param cut the triangles the plane cuts, in ascending order
+	 * @param n how many of them there are
+	 * @param it where to find the triangles' attributes
+	 * @return the contours, or null if they couldn't be followed
+	 */
+	public RrPolygonList contours(double z, int[] cut, int n, IndexedTriangles it)
+	{
+		RrPolygonList pgl = new RrPolygonList();
+		if(n <= 0)
+			return pgl;
+		
+		boolean[] done = new boolean[n];
+		
+		for(int i = 0; i < n; i++)
+		{
+			if(done[i])
+				continue;
+			done[i] = true;
+			int start = cut[i];
+			if(degenerate[start])
+				continue;
+			
+			// The two edges of the first triangle that the plane goes through
+			
+			int enter = -1, leave = -1;
+			for(int k = 0; k < 3; k++)
+			{
+				if(cuts(start, k, z))
+				{
+					if(enter < 0)
+						enter = k;
+					else
+						leave = k;
+				}
+			}
+			if(leave < 0)
+				continue;  // Welding has moved it off the plane
+			
+			Attributes att = it.attributes(start);
+			RrPolygon pg = new RrPolygon(att);
+			long first = cut(start, enter, z);
+			long last = first;
+			pg.add(point(first));
+			
+			int t = start;
+			while(true)
+			{
+				int next = neighbour[3*t + leave];
+				if(next < 0)
+					return fail("open or non-manifold edge at " + point(cut(t, leave, z)).toString());
+				if(next == start)
+					break;
+				
+				long p = cut(t, leave, z);
+				if(p != last)
+				{
+					pg.add(point(p));
+					last = p;
+				}
+				
+				int j = Arrays.binarySearch(cut, 0, n, next);
+				if(j < 0 || done[j])
+					return fail("contour runs into triangle " + next + " that is not to be sliced");
+				done[j] = true;
+				
+				// Leave the new triangle by the other edge the plane goes through
+				
+				int from = otherEdge(next, t);
+				leave = -1;
+				for(int k = 0; k < 3; k++)
+				{
+					if(k != from && cuts(next, k, z))
+						leave = k;
+				}
+				if(leave < 0)
+					return fail("contour stops at triangle " + next);
+				t = next;
+			}
+			
+			if(pg.size() > 1 && first == last)
+				pg.remove(pg.size() - 1);
+			if(pg.size() > 2)  // Throw away "noise"...
+				pgl.add(pg);
+		}
+		count(true);
+		return pgl;
+	}
+	
+	/**
+	 * Record a failure
+	 * @param why
+	 * @return null
+	 */
+	private static RrPolygonList fail(String why)
+	{
+		Debug.d("TriangleMesh.contours(): " + why);
+		count(false);
+		return null;
+	}
+	
+	/**
+	 * Keep count of what happened
+	 * @param ok
+	 */
+	private static synchronized void count(boolean ok)
+	{
+		if(ok)
+			walked++;
+		else
+			failures++;
+	}
+	
+	/**
+	 * @return how many slices have been followed round meshes, and how many couldn't be
+	 */
+	public static synchronized String statistics()
+	{
+		return "mesh-walked slices: " + walked + ", mesh failures: " + failures;
+	}
+}
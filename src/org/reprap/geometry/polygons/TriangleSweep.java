@@ -0,0 +1,238 @@
+/*
+ 
+ RepRap
+ ------
+ 
+ The Replicating Rapid Prototyper Project
+ 
+ 
+ Copyright (C) 2005
+ Adrian Bowyer & The University of Bath
+ 
+ http://reprap.org
+ 
+ Principal author:
+ 
+ Adrian Bowyer
+ Department of Mechanical Engineering
+ Faculty of Engineering and Design
+ University of Bath
+ Bath BA2 7AY
+ U.K.
+ 
+ e-mail: A.Bowyer@bath.ac.uk
+ 
+ RepRap is free; you can redistribute it and/or
+ modify it under the terms of the GNU Library General Public
+ Licence as published by the Free Software Foundation; either
+ version 2 of the Licence, or (at your option) any later version.
+ 
+ RepRap is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Library General Public Licence for more details.
+ 
+ For this purpose the words "software" and "library" in the GNU Library
+ General Public Licence are taken to mean any and all computer programs
+ computer files data results documents and other copyright information
+ available from the RepRap project.
+ 
+ You should have received a copy of the GNU Library General Public
+ Licence along with RepRap; if not, write to the Free
+ Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA,
+ or see
+ 
+ http://www.gnu.org/
+ 
+ =====================================================================
+ 
+ TriangleSweep: the triangles cut by a plane that moves steadily up or down
+ 
+ First version 18 October 2026
+ 
+ */
+
+package org.reprap.geometry.polygons;
+
+import java.util.Arrays;
+
+/**
+ * Layers are sliced in order, going up for normal building and down for
+ * subtractive work.  This keeps the set of triangles that the last plane cut
+ * and, when the plane moves on, adds the triangles it has moved into and drops
+ * those it has left.  The work at each layer is then proportional to the number of
+ * triangles cut (and those passed since the last layer) rather than to the 
+ * size of the whole STL.
+ * 
+ * If the plane changes direction (or on the first call) the set is found 
+ * afresh from the TriangleZIndex.
+ * 
+ * This has state that changes from layer to layer, so each thread needs its own.
+ * 
+ * @author ensab
+ *
+ */
+class TriangleSweep
+{
+	/**
+	 * Lowest and highest Z of each triangle
+	 */
+	private double[] zMin = null, zMax = null;
+	
+	/**
+	 * For starting again
+	 */
+	private TriangleZIndex index = null;
+	
+	/**
+	 * All the triangles in ascending order of zMin, and in descending order of zMax
+	 */
+	private int[] byMinUp = null, byMaxDown = null;
+	
+	/**
+	 * How many of byMinUp have zMin < lastZ; how many of byMaxDown have zMax >= lastZ
+	 */
+	private int upNext, downNext;
+	
+	/**
+	 * The triangles cut by the last plane
+	 */
+	private int[] active = null;
+	private int activeCount;
+	
+	/**
+	 * Where the last plane was, and which way it was going (1 up, -1 down, 0 not yet known)
+	 */
+	private double lastZ;
+	private int direction;
+	private boolean started;
+	
+	/**
+	 * @param zLow lowest Z of each triangle
+	 * @param zHigh highest Z of each triangle
+	 * @param n number of triangles (the arrays may be longer)
+	 * @param zi index of the same triangles
+	 */
+	public TriangleSweep(double[] zLow, double[] zHigh, int n, TriangleZIndex zi)
+	{
+		zMin = zLow;
+		zMax = zHigh;
+		index = zi;
+		byMinUp = new int[n];
+		byMaxDown = new int[n];
+		for(int i = 0; i < n; i++)
+		{
+			byMinUp[i] = i;
+			byMaxDown[i] = i;
+		}
+		TriangleZIndex.sort(byMinUp, 0, n, zMin, true);
+		TriangleZIndex.sort(byMaxDown, 0, n, zMax, false);
+		active = new int[n];
+		activeCount = 0;
+		started = false;
+		direction = 0;
+	}
+	
+	/**
+	 * Find the set for plane z from scratch
+	 * @param z
+	 */
+	private void restart(double z)
+	{
+		activeCount = index.spanning(z, active);
+		
+		int lo = 0, hi = byMinUp.length;
+		while(lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(zMin[byMinUp[mid]] < z)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		upNext = lo;
+		
+		lo = 0;
+		hi = byMaxDown.length;
+		while(lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(zMax[byMaxDown[mid]] >= z)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		downNext = lo;
+	}
+	
+	/**
+	 * The plane has gone up to z; add the triangles that start below
+	 * it and drop the ones that finish below it
+	 * @param z
+	 */
+	private void up(double z)
+	{
+		while(upNext < byMinUp.length && zMin[byMinUp[upNext]] < z)
+			active[activeCount++] = byMinUp[upNext++];
+		int kept = 0;
+		for(int i = 0; i < activeCount; i++)
+		{
+			if(zMax[active[i]] >= z)
+				active[kept++] = active[i];
+		}
+		activeCount = kept;
+	}
+	
+	/**
+	 * The plane has gone down to z; add the triangles that finish at or above
+	 * it and drop the ones that start at or above it
+	 * @param z
+	 */
+	private void down(double z)
+	{
+		while(downNext < byMaxDown.length && zMax[byMaxDown[downNext]] >= z)
+			active[activeCount++] = byMaxDown[downNext++];
+		int kept = 0;
+		for(int i = 0; i < activeCount; i++)
+		{
+			if(zMin[active[i]] < z)
+				active[kept++] = active[i];
+		}
+		activeCount = kept;
+	}
+	
+	/**
+	 * Move the plane to z and find all the triangles it cuts; that is those
+	 * with zMin < z <= zMax, as TriangleZIndex.spanning() finds them.
+	 * @param z
+	 * @param result filled with the triangle indices in ascending order; must be at least as long as the number of triangles
+	 * @return the number of triangles found
+	 */
+	public int spanning(double z, int[] result)
+	{
+		int d = 0;
+		if(started)
+		{
+			if(z > lastZ)
+				d = 1;
+			else if(z < lastZ)
+				d = -1;
+		}
+		
+		if(!started || (d != 0 && direction != 0 && d != direction))
+			restart(z);
+		else if(d > 0)
+			up(z);
+		else if(d < 0)
+			down(z);
+		
+		if(d != 0)
+			direction = d;
+		started = true;
+		lastZ = z;
+		
+		System.arraycopy(active, 0, result, 0, activeCount);
+		Arrays.sort(result, 0, activeCount);
+		return activeCount;
+	}
+}
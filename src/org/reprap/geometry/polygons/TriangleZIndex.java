@@ -0,0 +1,348 @@
+/*
+ 
+ RepRap
+ ------
+ 
+ The Replicating Rapid Prototyper Project
+ 
+ 
+ Copyright (C) 2005
+ Adrian Bowyer & The University of Bath
+ 
+ http://reprap.org
+ 
+ Principal author:
+ 
+ Adrian Bowyer
+ Department of Mechanical Engineering
+ Faculty of Engineering and Design
+ University of Bath
+ Bath BA2 7AY
+ U.K.
+ 
+ e-mail: A.Bowyer@bath.ac.uk
+ 
+ RepRap is free; you can redistribute it and/or
+ modify it under the terms of the GNU Library General Public
+ Licence as published by the Free Software Foundation; either
+ version 2 of the Licence, or (at your option) any later version.
+ 
+ RepRap is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ Library General Public Licence for more details.
+ 
+ For this purpose the words "software" and "library" in the GNU Library
+ General Public Licence are taken to mean any and all computer programs
+ computer files data results documents and other copyright information
+ available from the RepRap project.
+ 
+ You should have received a copy of the GNU Library General Public
+ Licence along with RepRap; if not, write to the Free
+ Software Foundation, Inc., 675 Mass Ave, Cambridge, MA 02139, USA,
+ or see
+ 
+ http://www.gnu.org/
+ 
+ =====================================================================
+ 
+ TriangleZIndex: an interval tree over the Z extents of STL triangles
+ 
+ First version 18 October 2026
+ 
+ */
+
+package org.reprap.geometry.polygons;
+
+import java.util.Arrays;
+
+/**
+ * Centred interval tree over the [zMin, zMax] extents of a set of triangles.
+ * It is built once when an STLSlice is constructed, so that each slice at height
+ * z only has to look at the triangles that the plane actually cuts (plus,
+ * if they are wanted, the ones entirely below it) rather than at every triangle
+ * in the scene.
+ * 
+ * Triangles are referred to by their index (0, 1, 2...) in the zMin and zMax 
+ * arrays passed to the constructor.
+ */
+class TriangleZIndex
+{
+	/**
+	 * Lowest and highest Z of each triangle
+	 */
+	private double[] zMin = null, zMax = null;
+	
+	/**
+	 * The number of triangles in the index
+	 */
+	private int count;
+	
+	/**
+	 * The tree nodes: the value each node splits at, its children (-1 for none) 
+	 * and the range in byMin and byMax of the triangles that straddle its split value
+	 */
+	private double[] centre = null;
+	private int[] left = null, right = null;
+	private int[] hereStart = null, hereEnd = null;
+	private int nodeCount;
+	
+	/**
+	 * Triangles straddling each node sorted by ascending zMin (byMin) and
+	 * descending zMax (byMax); each node owns a contiguous range of both.
+	 */
+	private int[] byMin = null, byMax = null;
+	private int hereCount;
+	
+	/**
+	 * All the triangles sorted by ascending zMax, for finding the ones below a plane
+	 */
+	private int[] allByMax = null;
+	
+	/**
+	 * Build the index.
+	 * @param zLow lowest Z of each triangle
+	 * @param zHigh highest Z of each triangle
+	 * @param n number of triangles (the arrays may be longer)
+	 */
+	public TriangleZIndex(double[] zLow, double[] zHigh, int n)
+	{
+		zMin = zLow;
+		zMax = zHigh;
+		count = n;
+		
+		centre = new double[Math.max(n, 1)];
+		left = new int[Math.max(n, 1)];
+		right = new int[Math.max(n, 1)];
+		hereStart = new int[Math.max(n, 1)];
+		hereEnd = new int[Math.max(n, 1)];
+		byMin = new int[n];
+		byMax = new int[n];
+		nodeCount = 0;
+		hereCount = 0;
+		
+		int[] all = new int[n];
+		for(int i = 0; i < n; i++)
+			all[i] = i;
+		
+		allByMax = new int[n];
+		System.arraycopy(all, 0, allByMax, 0, n);
+		sort(allByMax, 0, n, zMax, true);
+		
+		if(n > 0)
+			build(all, 0, n, new double[n]);
+	}
+	
+	/**
+	 * @return the number of triangles indexed
+	 */
+	public int size()
+	{
+		return count;
+	}
+	
+	/**
+	 * Recursively build the tree node for triangles ids[from..to) and return its index.
+	 * @param ids
+	 * @param from
+	 * @param to
+	 * @param scratch
+	 * @return the node index
+	 */
+	private int build(int[] ids, int from, int to, double[] scratch)
+	{
+		if(from >= to)
+			return -1;
+		
+		// Split at the median of the triangle mid-heights; the triangle
+		// supplying that must straddle it, so every node holds at least one.
+		
+		int n = to - from;
+		for(int i = 0; i < n; i++)
+			scratch[i] = 0.5*(zMin[ids[from + i]] + zMax[ids[from + i]]);
+		Arrays.sort(scratch, 0, n);
+		double c = scratch[n/2];
+		
+		// Partition in place: below c, straddling c, above c
+		
+		int lo = from, hi = to;
+		int i = from;
+		while(i < hi)
+		{
+			int t = ids[i];
+			if(zMax[t] < c)
+			{
+				ids[i] = ids[lo];
+				ids[lo] = t;
+				lo++;
+				i++;
+			} else if(zMin[t] > c)
+			{
+				hi--;
+				ids[i] = ids[hi];
+				ids[hi] = t;
+			} else
+				i++;
+		}
+		
+		int node = nodeCount++;
+		centre[node] = c;
+		hereStart[node] = hereCount;
+		for(i = lo; i < hi; i++)
+		{
+			byMin[hereCount] = ids[i];
+			byMax[hereCount] = ids[i];
+			hereCount++;
+		}
+		hereEnd[node] = hereCount;
+		sort(byMin, hereStart[node], hereEnd[node], zMin, true);
+		sort(byMax, hereStart[node], hereEnd[node], zMax, false);
+		
+		left[node] = build(ids, from, lo, scratch);
+		right[node] = build(ids, hi, to, scratch);
+		return node;
+	}
+	
+	/**
+	 * Find all the triangles cut by the plane z; that is those
+	 * with zMin < z <= zMax (this is the same test that STLSlice.addEdge()
+	 * uses to decide that a triangle is neither all above nor all below z).
+	 * @param z
+	 * @param result filled with the triangle indices in ascending order; must be at least size() long
+	 * @return the number of triangles found
+	 */
+	public int spanning(double z, int[] result)
+	{
+		int found = 0;
+		int node = count > 0 ? 0 : -1;
+		
+		while(node >= 0)
+		{
+			int s = hereStart[node];
+			int e = hereEnd[node];
+			if(z < centre[node])
+			{
+				// Everything here reaches up past z; take those starting below it
+				
+				for(int i = s; i < e && zMin[byMin[i]] < z; i++)
+					result[found++] = byMin[i];
+				node = left[node];
+			} else
+			{
+				// Everything here starts at or below z; take those reaching up to it
+				
+				for(int i = s; i < e && zMax[byMax[i]] >= z; i++)
+				{
+					if(zMin[byMax[i]] < z)
+						result[found++] = byMax[i];
+				}
+				node = right[node];
+			}
+		}
+		
+		// Keep the original triangle order so slices come out exactly as before
+		
+		Arrays.sort(result, 0, found);
+		return found;
+	}
+	
+	/**
+	 * How many triangles lie entirely below z (zMax < z)?
+	 * Those are the first below(z) entries of belowTriangle().
+	 * @param z
+	 * @return count of triangles below z
+	 */
+	public int below(double z)
+	{
+		int lo = 0, hi = count;
+		while(lo < hi)
+		{
+			int mid = (lo + hi) >>> 1;
+			if(zMax[allByMax[mid]] < z)
+				lo = mid + 1;
+			else
+				hi = mid;
+		}
+		return lo;
+	}
+	
+	/**
+	 * The i-th triangle in ascending order of zMax
+	 * @param i
+	 * @return triangle index
+	 */
+	public int belowTriangle(int i)
+	{
+		return allByMax[i];
+	}
+	
+	/**
+	 * Sort ids[from..to) on key[id] without boxing anything.
+	 * @param ids
+	 * @param from
+	 * @param to
+	 * @param key
+	 * @param up ascending if true, descending if false
+	 */
+	static void sort(int[] ids, int from, int to, double[] key, boolean up)
+	{
+		while(to - from > 12)
+		{
+			// Median of three pivot
+			
+			int mid = (from + to) >>> 1;
+			double a = key[ids[from]], b = key[ids[mid]], c = key[ids[to - 1]];
+			double pivot = (a < b) ? ((b < c) ? b : ((a < c) ? c : a)) : 
+				((a < c) ? a : ((b < c) ? c : b));
+			
+			int i = from, j = to - 1;
+			while(i <= j)
+			{
+				if(up)
+				{
+					while(key[ids[i]] < pivot) i++;
+					while(key[ids[j]] > pivot) j--;
+				} else
+				{
+					while(key[ids[i]] > pivot) i++;
+					while(key[ids[j]] < pivot) j--;
+				}
+				if(i <= j)
+				{
+					int t = ids[i];
+					ids[i] = ids[j];
+					ids[j] = t;
+					i++;
+					j--;
+				}
+			}
+			
+			// Recurse into the smaller half; loop on the bigger
+			
+			if(j - from < to - i)
+			{
+				sort(ids, from, j + 1, key, up);
+				from = i;
+			} else
+			{
+				sort(ids, i, to, key, up);
+				to = j + 1;
+			}
+		}
+		
+		// Insertion sort for what's left
+		
+		for(int i = from + 1; i < to; i++)
+		{
+			int t = ids[i];
+			double v = key[t];
+			int j = i - 1;
+			while(j >= from && (up ? key[ids[j]] > v : key[ids[j]] < v))
+			{
+				ids[j + 1] = ids[j];
+				j--;
+			}
+			ids[j + 1] = t;
+		}
+	}
+}
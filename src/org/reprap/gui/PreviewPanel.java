@@ -108,6 +108,7 @@ public class PreviewPanel extends Panel3D implements Previewer {
 
 		workingVolume = new STLObject();
 		workingVolume.addSTL(stlFile, wv_offset, wv_app);
+		workingVolume.makeSceneGraph();
 		wv_and_stls.addChild(workingVolume.top);
 
 		// Set the mouse to move everything
@@ -290,6 +290,7 @@ public class RepRapBuild extends Panel3D implements MouseListener {
 
 		workingVolume = new STLObject();
 		workingVolume.addSTL(stlFile, wv_offset, wv_app);
+		workingVolume.makeSceneGraph();
 		wv_and_stls.addChild(workingVolume.top);
 
 		// Set the mouse to move everything
@@ -377,6 +378,7 @@ public class RepRapBuild extends Panel3D implements MouseListener {
 		Attributes att = stl.addSTL(s, null, Preferences.unselectedApp());
 		if(att != null)
 		{
+			stl.makeSceneGraph();
 			wv_and_stls.addChild(stl.top);
 			stls.add(stl);
 			MaterialRadioButtons.createAndShowGUI(att);
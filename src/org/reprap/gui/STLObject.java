@@ -60,11 +60,10 @@ import java.util.*;
 import javax.media.j3d.*;
 import javax.vecmath.*;
 import com.sun.j3d.utils.picking.*;
-import com.sun.j3d.loaders.Scene;
-import org.j3d.renderer.java3d.loaders.STLLoader;
 import org.reprap.Attributes;
 import org.reprap.Preferences;
 import org.reprap.devices.NullExtruder;
+import org.reprap.utilities.STLReader;
 
 /**
  * Class for holding a group (maybe just 1) of 3D objects for RepRap to make.
@@ -72,6 +71,11 @@ import org.reprap.devices.NullExtruder;
  * relative to each other, so they can represent an assembly made from several
  * different materials.
  * 
+ * The triangles of each part are kept as an array of floats in its Attributes.
+ * The Java3D shapes needed to display them are only built when 
+ * makeSceneGraph() is called, so objects that are just going to be sliced
+ * (for example when running without a display) never need them.
+ * 
  * @author adrian
  * 
  */
@@ -85,6 +89,8 @@ public class STLObject
     public BranchGroup stl = null;     // The actual STL geometry
     public Vector3d size = null;       // X, Y and Z extent
     private BoundingBox bbox = null;   // Temporary storage for the bounding box while loading
+    private boolean sceneGraphMade = false; // Have the shapes for display been built?
+    private Transform3D t3d = null;    // Our transform when there is no scene graph
     
 
     public STLObject()
@@ -130,6 +136,8 @@ public class STLObject
         stl.setUserData(nullAtt);
         
         bbox = null;
+        sceneGraphMade = false;
+        t3d = new Transform3D();
     }
 
     /**
@@ -141,52 +149,114 @@ public class STLObject
     private BranchGroup loadSingleSTL(String location, Attributes att)
     {
     	BranchGroup result = null;
-        STLLoader loader = new STLLoader();
-        Scene scene;
         try 
         {
-            scene = loader.load(location);
-            if (scene != null) 
-            {
-                result = scene.getSceneGroup();
-                result.setCapability(Node.ALLOW_BOUNDS_READ);
-                result.setCapability(Group.ALLOW_CHILDREN_READ);
-                
-                att.setPart(result);
-                result.setUserData(att);
-        		stl.addChild(result);
-                
-                // Recursively add its attribute
-                
-                Hashtable namedObjects = scene.getNamedObjects( );
-                java.util.Enumeration enumValues = namedObjects.elements( );
-                
-                if( enumValues != null ) 
-                {
-                    while(enumValues.hasMoreElements( )) 
-                    {
-                    	Shape3D value = (Shape3D)enumValues.nextElement();
-                        bbox = (BoundingBox)value.getBounds();
-                        
-                        value.setCapability(Shape3D.ALLOW_APPEARANCE_WRITE );
-                        GeometryArray g = (GeometryArray)value.getGeometry();
-                        g.setCapability(GeometryArray.ALLOW_COORDINATE_WRITE);
-                        
-                        recursiveSetUserData(value, att);
-                    }
-                }
-            } 
+        	float[] v = STLReader.read(location);
+        	
+        	result = new BranchGroup();
+        	result.setCapability(Node.ALLOW_BOUNDS_READ);
+        	result.setCapability(Group.ALLOW_CHILDREN_READ);
+        	result.setCapability(Group.ALLOW_CHILDREN_EXTEND);
+
+        	att.setPart(result);
+        	att.setVertices(v);
+        	result.setUserData(att);
+        	stl.addChild(result);
 
+        	// Find the bounding box from the corners themselves
+
+        	Point3d lo = new Point3d(Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+        	Point3d hi = new Point3d(Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY);
+        	for(int i = 0; i + 2 < v.length; i += 3)
+        	{
+        		lo.x = Math.min(lo.x, v[i]);
+        		lo.y = Math.min(lo.y, v[i+1]);
+        		lo.z = Math.min(lo.z, v[i+2]);
+        		hi.x = Math.max(hi.x, v[i]);
+        		hi.y = Math.max(hi.y, v[i+1]);
+        		hi.z = Math.max(hi.z, v[i+2]);
+        	}
+        	if(v.length > 0)
+        		bbox = new BoundingBox(lo, hi);
         } catch ( Exception e ) 
         {
             System.err.println("loadSingelSTL(): Exception loading STL file from: " 
                     + location);
             e.printStackTrace();
+            result = null;
         }
         
         return result;
     }
     
+    /**
+     * Build the Java3D shapes needed to display this object (if that hasn't
+     * been done already).  Call this before adding the object to a scene.
+     */
+    public void makeSceneGraph()
+    {
+    	if(sceneGraphMade)
+    		return;
+    	sceneGraphMade = true;
+    	
+    	java.util.Enumeration enumKids = stl.getAllChildren( );
+    	while(enumKids.hasMoreElements())
+    	{
+    		Object ob = enumKids.nextElement();
+    		if(!(ob instanceof BranchGroup))
+    			continue;
+    		BranchGroup bg = (BranchGroup)ob;
+    		Attributes att = (Attributes)bg.getUserData();
+    		if(att == null || att.getVertices() == null || att.getPart() != bg)
+    			continue;
+    		
+    		Shape3D value = makeShape(att.getVertices());
+    		value.setCapability(Shape3D.ALLOW_APPEARANCE_WRITE );
+    		GeometryArray g = (GeometryArray)value.getGeometry();
+    		g.setCapability(GeometryArray.ALLOW_COORDINATE_READ);
+    		g.setCapability(GeometryArray.ALLOW_COORDINATE_WRITE);
+    		bg.addChild(value);
+    		recursiveSetUserData(value, att);
+    	}
+    	
+    	trans.setTransform(t3d);
+    	restoreAppearance();
+    }
+    
+    /**
+     * Make a shape from triangle corners, with each facet's normal worked out
+     * from its corners
+     * @param v nine floats per triangle
+     * @return the shape
+     */
+    private static Shape3D makeShape(float[] v)
+    {
+    	int corners = v.length/3;
+    	TriangleArray ta = new TriangleArray(Math.max(corners, 3), 
+    			GeometryArray.COORDINATES | GeometryArray.NORMALS);
+    	float[] normals = new float[v.length];
+    	for(int i = 0; i + 8 < v.length; i += 9)
+    	{
+    		float ax = v[i+3] - v[i], ay = v[i+4] - v[i+1], az = v[i+5] - v[i+2];
+    		float bx = v[i+6] - v[i], by = v[i+7] - v[i+1], bz = v[i+8] - v[i+2];
+    		Vector3f n = new Vector3f(ay*bz - az*by, az*bx - ax*bz, ax*by - ay*bx);
+    		if(n.lengthSquared() > 0)
+    			n.normalize();
+    		for(int j = 0; j < 9; j += 3)
+    		{
+    			normals[i+j] = n.x;
+    			normals[i+j+1] = n.y;
+    			normals[i+j+2] = n.z;
+    		}
+    	}
+    	if(corners > 0)
+    	{
+    		ta.setCoordinates(0, v, 0, corners);
+    		ta.setNormals(0, normals, 0, corners);
+    	}
+    	return new Shape3D(ta);
+    }
+    
     /**
      * Move the object by actually changing all its coordinates (i.e. don't just add a
      * transform).  Also record its size.
@@ -230,7 +300,7 @@ public class STLObject
             
             Transform3D temp_t = new Transform3D();
             temp_t.set(scale(size, 0.5));
-            trans.setTransform(temp_t);
+            setTransform(temp_t);
             
             restoreAppearance();
             
@@ -286,8 +356,9 @@ public class STLObject
         stl.addChild(s);
         size = new Vector3d(1, 1, 1);  // Should never be needed.
         
+        sceneGraphMade = true;  // The caller has built it
         Transform3D temp_t = new Transform3D();
-        trans.setTransform(temp_t); 
+        setTransform(temp_t); 
     }
 
     // method to recursively set the user data for objects in the scenegraph tree
@@ -348,6 +419,40 @@ public class STLObject
     void setOffset(Vector3d p)
     {
     	recursiveSetOffset(stl, p);
+    	
+    	// Shift the triangles we keep for slicing too
+    	
+    	java.util.Enumeration enumKids = stl.getAllChildren( );
+    	while(enumKids.hasMoreElements())
+    	{
+    		float[] v = vertices(enumKids.nextElement());
+    		if(v != null)
+    		{
+    			for(int i = 0; i + 2 < v.length; i += 3)
+    			{
+    				v[i] = (float)(v[i] + p.x);
+    				v[i+1] = (float)(v[i+1] + p.y);
+    				v[i+2] = (float)(v[i+2] + p.z);
+    			}
+    		}
+    	}
+    }
+    
+    /**
+     * @param ob
+     * @return the triangle corners held for ob if it's one of our parts; null if not
+     */
+    private static float[] vertices(Object ob)
+    {
+    	if(!(ob instanceof BranchGroup))
+    		return null;
+    	Object ud = ((BranchGroup)ob).getUserData();
+    	if(!(ud instanceof Attributes))
+    		return null;
+    	Attributes att = (Attributes)ud;
+    	if(att.getPart() != ob)
+    		return null;
+    	return att.getVertices();
     }
     
     // Shift a Shape3D permanently by p
@@ -414,17 +519,22 @@ public class STLObject
 
     // Set my transform
     
-    public void setTransform(Transform3D t3d)
+    public void setTransform(Transform3D t)
     {
-        trans.setTransform(t3d);
+    	t3d.set(t);
+    	if(sceneGraphMade)
+    		trans.setTransform(t);
     }
     
-    // Get my transform
+    // Get my transform (the mouse may have changed the one in the scene graph)
     
     public Transform3D getTransform()
     {
     	Transform3D result = new Transform3D();
-        trans.getTransform(result);
+    	if(sceneGraphMade)
+    		trans.getTransform(result);
+    	else
+    		result.set(t3d);
         return result;
     }
     
@@ -631,6 +741,12 @@ public class STLObject
         {
         	Object value = things.nextElement();
         	recursiveSetScale(value, s);
+        	float[] v = vertices(value);
+        	if(v != null)
+        	{
+        		for(int i = 0; i < v.length; i++)
+        			v[i] = (float)(v[i]*s);
+        	}
         }
 
 
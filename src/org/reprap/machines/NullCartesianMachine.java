@@ -1,5 +1,6 @@
 package org.reprap.machines;
 
+import java.awt.GraphicsEnvironment;
 import java.io.IOException;
 import javax.swing.JCheckBoxMenuItem;
 import javax.swing.JFrame;
@@ -21,7 +22,12 @@ public class NullCartesianMachine implements CartesianPrinter {
 	/**
 	 * 
 	 */
-	private StatusMessage statusWindow;
+	private StatusMessage statusWindow = null;
+	
+	/**
+	 * Cancelled flag for when there is no display (and so no statusWindow)
+	 */
+	private boolean cancelled = false;
 	
 	/**
 	 * 
@@ -84,7 +90,8 @@ public class NullCartesianMachine implements CartesianPrinter {
 	 * @param config
 	 */
 	public NullCartesianMachine(Preferences config) {
-		statusWindow = new StatusMessage(new JFrame());
+		if(!GraphicsEnvironment.isHeadless())
+			statusWindow = new StatusMessage(new JFrame());
 		
 		startTime = System.currentTimeMillis();
 		
@@ -583,7 +590,10 @@ public class NullCartesianMachine implements CartesianPrinter {
 	}
 
 	public void setMessage(String message) {
-		if (message == null)
+		if (statusWindow == null) {
+			if (message != null)
+				System.out.println(message);
+		} else if (message == null)
 			statusWindow.setVisible(false);
 		else {
 			statusWindow.setMessage(message);
@@ -592,11 +602,16 @@ public class NullCartesianMachine implements CartesianPrinter {
 	}
 	
 	public boolean isCancelled() {
+		if (statusWindow == null)
+			return cancelled;
 		return statusWindow.isCancelled();
 	}
 
 	public void setCancelled(boolean isCancelled) {
-		statusWindow.setCancelled(isCancelled);
+		if (statusWindow == null)
+			cancelled = isCancelled;
+		else
+			statusWindow.setCancelled(isCancelled);
 	}
 
 }
@@ -0,0 +1,236 @@
+/**
+ *
+ */
+package org.reprap.utilities;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Adrian
+ *
+ * Reads binary and ASCII STL files straight into an array of floats, nine per
+ * facet (x, y, z of each corner in turn), without building any Java3D objects.
+ * Local files are memory-mapped, so even very big ones don't have to be copied
+ * into the heap before they are decoded.  The facet normals in the file are
+ * ignored; anything that needs them can work them out from the corners.
+ *
+ */
+public class STLReader {
+
+	/**
+	 * Length of the binary STL header, and of one binary facet
+	 */
+	private static final int headerLength = 80;
+	private static final int facetLength = 50;
+
+	/**
+	 * Static methods only
+	 */
+	private STLReader() {}
+
+	/**
+	 * Read an STL file
+	 * @param location file name or URL (e.g. file:///home/me/thing.stl)
+	 * @return the corners of all the facets, nine floats per facet
+	 * @throws IOException
+	 */
+	public static float[] read(String location) throws IOException
+	{
+		ByteBuffer b = open(location);
+		float[] result;
+		if(isBinary(b))
+			result = readBinary(b);
+		else
+			result = readASCII(b);
+		Debug.d("STLReader.read(): " + result.length/9 + " facets from " + location);
+		return result;
+	}
+
+	/**
+	 * Memory-map a file, or read in the contents of any other URL
+	 * @param location
+	 * @return the bytes
+	 * @throws IOException
+	 */
+	private static ByteBuffer open(String location) throws IOException
+	{
+		File f = null;
+		if(location.startsWith("file:"))
+		{
+			URL u = new URL(location);
+			try
+			{
+				f = new File(u.toURI());
+			} catch (Exception ex)
+			{
+				f = new File(u.getPath()); // Spaces and so on not encoded
+			}
+		} else if(location.indexOf("://") < 0)
+			f = new File(location);
+
+		if(f != null)
+		{
+			FileInputStream in = new FileInputStream(f);
+			try
+			{
+				FileChannel fc = in.getChannel();
+				return fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()); // Stays valid after close
+			} finally
+			{
+				in.close();
+			}
+		}
+
+		InputStream in = new URL(location).openStream();
+		try
+		{
+			ByteArrayOutputStream all = new ByteArrayOutputStream();
+			byte[] chunk = new byte[65536];
+			int n;
+			while((n = in.read(chunk)) > 0)
+				all.write(chunk, 0, n);
+			return ByteBuffer.wrap(all.toByteArray());
+		} finally
+		{
+			in.close();
+		}
+	}
+
+	/**
+	 * A binary file is exactly as long as its facet count says it should be.
+	 * Otherwise it's ASCII if it starts with "solid".  (Some binary files start with
+	 * "solid" too, which is why the length is checked first.)
+	 * @param b
+	 * @return true for binary
+	 */
+	private static boolean isBinary(ByteBuffer b)
+	{
+		long length = b.limit();
+		if(length >= headerLength + 4)
+		{
+			long facets = b.order(ByteOrder.LITTLE_ENDIAN).getInt(headerLength) & 0xffffffffL;
+			if(headerLength + 4 + facets*facetLength == length)
+				return true;
+		}
+		int i = 0;
+		while(i < length && Character.isWhitespace((char)b.get(i)))
+			i++;
+		String start = "solid";
+		for(int j = 0; j < start.length(); j++)
+		{
+			if(i + j >= length || Character.toLowerCase((char)b.get(i + j)) != start.charAt(j))
+				return length >= headerLength + 4;
+		}
+		return false;
+	}
+
+	/**
+	 * Decode a binary STL
+	 * @param b
+	 * @return the corners
+	 */
+	private static float[] readBinary(ByteBuffer b)
+	{
+		b.order(ByteOrder.LITTLE_ENDIAN);
+		long facets = b.getInt(headerLength) & 0xffffffffL;
+		long room = (b.limit() - headerLength - 4)/facetLength;
+		if(facets > room)
+		{
+			System.err.println("STLReader.readBinary(): file claims " + facets +
+					" facets but only has room for " + room);
+			facets = room;
+		}
+		float[] result = new float[(int)facets*9];
+		int k = 0;
+		int position = headerLength + 4;
+		for(int i = 0; i < facets; i++)
+		{
+			int corner = position + 12;  // Skip the normal
+			for(int j = 0; j < 9; j++)
+			{
+				result[k++] = b.getFloat(corner);
+				corner += 4;
+			}
+			position += facetLength;
+		}
+		return result;
+	}
+
+	/**
+	 * Decode an ASCII STL.  Only the "vertex x y z" lines matter.
+	 * @param b
+	 * @return the corners
+	 */
+	private static float[] readASCII(ByteBuffer b)
+	{
+		float[] result = new float[900];
+		int k = 0;
+		int length = b.limit();
+		int i = 0;
+		StringBuffer token = new StringBuffer();
+
+		while(i < length)
+		{
+			i = nextToken(b, i, token);
+			if(token.length() != 6 || !token.toString().equalsIgnoreCase("vertex"))
+				continue;
+			if(k + 3 > result.length)
+			{
+				float[] bigger = new float[2*result.length];
+				System.arraycopy(result, 0, bigger, 0, k);
+				result = bigger;
+			}
+			for(int j = 0; j < 3; j++)
+			{
+				i = nextToken(b, i, token);
+				try
+				{
+					result[k++] = (float)Double.parseDouble(token.toString());
+				} catch (NumberFormatException ex)
+				{
+					System.err.println("STLReader.readASCII(): dud coordinate: " + token);
+					k--;
+				}
+			}
+		}
+
+		if(k%9 != 0)
+		{
+			System.err.println("STLReader.readASCII(): vertex count not a multiple of 3!");
+			k -= k%9;
+		}
+
+		float[] exact = new float[k];
+		System.arraycopy(result, 0, exact, 0, k);
+		return exact;
+	}
+
+	/**
+	 * Get the next white-space separated word
+	 * @param b
+	 * @param i where to start looking
+	 * @param token set to the word (empty at the end)
+	 * @return where to start looking next time
+	 */
+	private static int nextToken(ByteBuffer b, int i, StringBuffer token)
+	{
+		int length = b.limit();
+		token.setLength(0);
+		while(i < length && Character.isWhitespace((char)b.get(i)))
+			i++;
+		while(i < length && !Character.isWhitespace((char)b.get(i)))
+		{
+			token.append((char)b.get(i));
+			i++;
+		}
+		return i;
+	}
+}